@@ -66,4 +66,14 @@ public class SeasonMappingImpl implements SeasonMapping {
 	public void close() {
 		store.close();
 	}
+	
+	@Override
+	public long unflushedAgeMillis() {
+		return store.unflushedAgeMillis();
+	}
+	
+	@Override
+	public void maybeCommitLog() {
+		store.maybeCommitLog();
+	}
 }
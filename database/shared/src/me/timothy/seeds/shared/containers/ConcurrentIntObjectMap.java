@@ -0,0 +1,369 @@
+package me.timothy.seeds.shared.containers;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A map from primitive integers to objects which may be shared between threads. The keys are
+ * split by hash across a fixed number of segments, each of which is an open-addressing table
+ * like OpenIntObjectMap guarded by its own lock, so writers only contend when they land in the
+ * same segment.
+ *
+ * Reads do not take a lock in the common case. They probe the segment optimistically and then
+ * check that no writer got into the segment while they were reading, only falling back to the
+ * read lock if one did. This means readers never block each other and never write to shared
+ * memory, which is what lets read throughput scale with the number of cores.
+ *
+ * Null values are allowed, like in IntObjectMap. size() is exact when nothing is writing and
+ * otherwise only a snapshot.
+ *
+ * @author Timothy
+ * @param <A> The type of the value
+ */
+@SuppressWarnings("unchecked")
+public class ConcurrentIntObjectMap <A> implements IntKeyMap<A> {
+	/**
+	 * One independently locked part of the map. The fields are only written while holding the
+	 * write lock, but are read without any lock by the optimistic path, which is why a reader
+	 * must validate its stamp before trusting anything it read.
+	 *
+	 * @author Timothy
+	 */
+	private static final class Segment {
+		final StampedLock lock = new StampedLock();
+		/** The keys for each slot, where 0 means the slot is empty */
+		int[] keys;
+		/** The values for each slot, parallel to keys */
+		Object[] values;
+		/** The number of keys in this segment, including the zero key */
+		int length;
+		/** If the key 0 is in this segment */
+		boolean hasZeroKey;
+		/** The value associated with 0 if hasZeroKey */
+		Object zeroValue;
+
+		Segment(int capac) {
+			keys = new int[capac];
+			values = new Object[capac];
+		}
+	}
+
+	/** The segments, which are picked by the top bits of the spread key */
+	private final Segment[] segments;
+	/** 32 - log2(segments.length) */
+	private final int segmentShift;
+
+	/**
+	 * Creates a concurrent map with a segment count suited to the number of processors
+	 *
+	 * @param suggestedSize a suggestion for the capacity of the map.
+	 */
+	public ConcurrentIntObjectMap(int suggestedSize) {
+		this(suggestedSize, Runtime.getRuntime().availableProcessors() * 4);
+	}
+
+	/**
+	 * Creates a concurrent map with about the given number of segments. More segments means
+	 * less contention between writers at the cost of some memory.
+	 *
+	 * @param suggestedSize a suggestion for the capacity of the map.
+	 * @param concurrencyLevel a suggestion for the number of segments
+	 */
+	public ConcurrentIntObjectMap(int suggestedSize, int concurrencyLevel) {
+		int numSegments = 1;
+		int shift = 32;
+		while(numSegments < concurrencyLevel && numSegments < (1 << 16)) {
+			numSegments <<= 1;
+			shift--;
+		}
+
+		int perSegment = 16; // skip the first few
+		while(perSegment * numSegments < suggestedSize)
+			perSegment <<= 1;
+
+		segments = new Segment[numSegments];
+		for(int i = 0; i < numSegments; i++) {
+			segments[i] = new Segment(perSegment);
+		}
+		segmentShift = shift;
+	}
+
+	/**
+	 * Finds the segment responsible for the given spread key. The top bits pick the segment,
+	 * the bottom bits pick the slot within it, so the two choices are independent.
+	 *
+	 * @param spread the result of IntHash.mix on the key
+	 * @return the segment for the key
+	 */
+	private Segment segmentFor(int spread) {
+		return segmentShift == 32 ? segments[0] : segments[spread >>> segmentShift];
+	}
+
+	/**
+	 * Looks up the key in the given arrays. May be called with arrays that are being modified,
+	 * in which case the result is garbage, but it will always return.
+	 *
+	 * @param keys the keys of the segment
+	 * @param key the non-zero key to look for
+	 * @param spread the result of IntHash.mix on the key
+	 * @return the slot of the key, or -1 if it was not found
+	 */
+	private static int find(int[] keys, int key, int spread) {
+		final int mask = keys.length - 1;
+		int slot = spread & mask;
+		for(int probes = 0; probes <= mask; probes++) {
+			final int found = keys[slot];
+			if(found == key)
+				return slot;
+			if(found == 0)
+				return -1;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	@Override
+	public A get(int key) {
+		final int spread = IntHash.mix(key);
+		final Segment seg = segmentFor(spread);
+
+		long stamp = seg.lock.tryOptimisticRead();
+		if(stamp != 0) {
+			final Object result;
+			if(key == 0) {
+				result = seg.hasZeroKey ? seg.zeroValue : null;
+			}else {
+				final int[] keys = seg.keys;
+				final Object[] values = seg.values;
+				final int slot = find(keys, key, spread);
+				result = slot == -1 || slot >= values.length ? null : values[slot];
+			}
+			if(seg.lock.validate(stamp))
+				return (A) result;
+		}
+
+		stamp = seg.lock.readLock();
+		try {
+			if(key == 0)
+				return seg.hasZeroKey ? (A) seg.zeroValue : null;
+			final int slot = find(seg.keys, key, spread);
+			return slot == -1 ? null : (A) seg.values[slot];
+		}finally {
+			seg.lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public boolean containsKey(int key) {
+		final int spread = IntHash.mix(key);
+		final Segment seg = segmentFor(spread);
+
+		long stamp = seg.lock.tryOptimisticRead();
+		if(stamp != 0) {
+			final boolean result = key == 0 ? seg.hasZeroKey : find(seg.keys, key, spread) != -1;
+			if(seg.lock.validate(stamp))
+				return result;
+		}
+
+		stamp = seg.lock.readLock();
+		try {
+			return key == 0 ? seg.hasZeroKey : find(seg.keys, key, spread) != -1;
+		}finally {
+			seg.lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public A put(int key, A value) {
+		final int spread = IntHash.mix(key);
+		final Segment seg = segmentFor(spread);
+
+		final long stamp = seg.lock.writeLock();
+		try {
+			if(key == 0) {
+				final Object result = seg.zeroValue;
+				seg.zeroValue = value;
+				if(!seg.hasZeroKey) {
+					seg.hasZeroKey = true;
+					seg.length++;
+				}
+				return (A) result;
+			}
+
+			int slot = find(seg.keys, key, spread);
+			if(slot != -1) {
+				final Object result = seg.values[slot];
+				seg.values[slot] = value;
+				return (A) result;
+			}
+
+			maybeExpand(seg);
+			final int[] keys = seg.keys;
+			final int mask = keys.length - 1;
+			slot = spread & mask;
+			while(keys[slot] != 0)
+				slot = (slot + 1) & mask;
+
+			keys[slot] = key;
+			seg.values[slot] = value;
+			seg.length++;
+			return null;
+		}finally {
+			seg.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Grows the given segment if another key would put it past the load factor. Must hold the
+	 * write lock.
+	 *
+	 * @param seg the segment to grow
+	 */
+	private static void maybeExpand(Segment seg) {
+		final int capac = seg.keys.length;
+		if(seg.length + 1 < (capac - (capac >> 2)))
+			return;
+
+		final int[] oldKeys = seg.keys;
+		final Object[] oldValues = seg.values;
+		final int[] keys = new int[capac << 1];
+		final Object[] values = new Object[capac << 1];
+		final int mask = keys.length - 1;
+
+		for(int i = 0; i < capac; i++) {
+			final int key = oldKeys[i];
+			if(key != 0) {
+				int slot = IntHash.mix(key) & mask;
+				while(keys[slot] != 0)
+					slot = (slot + 1) & mask;
+				keys[slot] = key;
+				values[slot] = oldValues[i];
+			}
+		}
+
+		seg.keys = keys;
+		seg.values = values;
+	}
+
+	@Override
+	public A remove(int key) {
+		final int spread = IntHash.mix(key);
+		final Segment seg = segmentFor(spread);
+
+		final long stamp = seg.lock.writeLock();
+		try {
+			if(key == 0) {
+				if(!seg.hasZeroKey)
+					return null;
+				final Object result = seg.zeroValue;
+				seg.hasZeroKey = false;
+				seg.zeroValue = null;
+				seg.length--;
+				return (A) result;
+			}
+
+			final int slot = find(seg.keys, key, spread);
+			if(slot == -1)
+				return null;
+
+			final Object result = seg.values[slot];
+			seg.length--;
+			shiftBack(seg, slot);
+			return (A) result;
+		}finally {
+			seg.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Fills the given gap by moving back any later entry in the same probe run which would
+	 * still be reachable from its preferred slot at the gap. See OpenIntObjectMap. Must hold
+	 * the write lock.
+	 *
+	 * @param seg the segment the gap is in
+	 * @param gap the slot which was just vacated
+	 */
+	private static void shiftBack(Segment seg, int gap) {
+		final int[] keys = seg.keys;
+		final Object[] values = seg.values;
+		final int mask = keys.length - 1;
+		int slot = gap;
+		while(true) {
+			slot = (slot + 1) & mask;
+			final int key = keys[slot];
+			if(key == 0)
+				break;
+
+			final int home = IntHash.mix(key) & mask;
+			if(((slot - home) & mask) >= ((slot - gap) & mask)) {
+				keys[gap] = key;
+				values[gap] = values[slot];
+				gap = slot;
+			}
+		}
+		keys[gap] = 0;
+		values[gap] = null;
+	}
+
+	@Override
+	public int size() {
+		int sum = 0;
+		for(Segment seg : segments) {
+			final long stamp = seg.lock.readLock();
+			try {
+				sum += seg.length;
+			}finally {
+				seg.lock.unlockRead(stamp);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Calls the consumer with every entry in the map, in no particular order. Each segment is
+	 * read locked while it is being visited, so the consumer must not write to this map.
+	 *
+	 * @param consumer what to call with each entry
+	 */
+	@Override
+	public void forEachEntry(IntObjectConsumer<? super A> consumer) {
+		for(Segment seg : segments) {
+			final long stamp = seg.lock.readLock();
+			try {
+				if(seg.hasZeroKey)
+					consumer.accept(0, (A) seg.zeroValue);
+				final int[] keys = seg.keys;
+				final Object[] values = seg.values;
+				for(int i = 0; i < keys.length; i++) {
+					if(keys[i] != 0)
+						consumer.accept(keys[i], (A) values[i]);
+				}
+			}finally {
+				seg.lock.unlockRead(stamp);
+			}
+		}
+	}
+
+	/**
+	 * Clears this map one segment at a time, not freeing the allocation tables. Entries put
+	 * concurrently with a clear may or may not survive it.
+	 */
+	@Override
+	public void clear() {
+		for(Segment seg : segments) {
+			final long stamp = seg.lock.writeLock();
+			try {
+				final int[] keys = seg.keys;
+				final Object[] values = seg.values;
+				for(int i = 0; i < keys.length; i++) {
+					keys[i] = 0;
+					values[i] = null;
+				}
+				seg.hasZeroKey = false;
+				seg.zeroValue = null;
+				seg.length = 0;
+			}finally {
+				seg.lock.unlockWrite(stamp);
+			}
+		}
+	}
+}
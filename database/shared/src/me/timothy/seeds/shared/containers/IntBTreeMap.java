@@ -0,0 +1,646 @@
+package me.timothy.seeds.shared.containers;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A sorted map from primitive integers to objects, for when we need the keys in order or all
+ * the keys in a range, such as events ordered by time. This is a B+tree: every entry lives in
+ * a leaf, the leaves are linked left to right, and the inner nodes only hold separator keys.
+ * Nodes hold up to MAX_KEYS keys in plain int[]s, so a lookup is a handful of binary searches
+ * over contiguous arrays rather than one pointer chase per level like TreeMap.
+ *
+ * Iteration and range cursors walk the leaf chain, so they cost O(log n) to find the start and
+ * then O(1) per entry. A map built from sorted input with fromSorted skips the searches and
+ * splits entirely.
+ *
+ * Null values are allowed, like in IntObjectMap. Not thread-safe.
+ *
+ * @author Timothy
+ * @param <A> The type of the value
+ */
+@SuppressWarnings("unchecked")
+public class IntBTreeMap <A> implements IntKeyMap<A> {
+	/** The most keys a node may hold. Each node has room for one more while it is being split */
+	private static final int MAX_KEYS = 64;
+	/** The fewest keys a node other than the root may hold */
+	private static final int MIN_KEYS = MAX_KEYS / 2;
+
+	/**
+	 * The part shared by leaves and inner nodes
+	 *
+	 * @author Timothy
+	 */
+	private static abstract class Node {
+		/** The keys in ascending order, of which the first size are used */
+		final int[] keys = new int[MAX_KEYS + 1];
+		/** The number of keys in this node */
+		int size;
+	}
+
+	/**
+	 * A node holding entries
+	 *
+	 * @author Timothy
+	 */
+	private static final class Leaf extends Node {
+		/** The values, parallel to keys */
+		final Object[] values = new Object[MAX_KEYS + 1];
+		/** The leaf to the right of this one, or null if this is the last */
+		Leaf next;
+	}
+
+	/**
+	 * A node holding children. children[i] holds the keys which are at least keys[i - 1] and
+	 * less than keys[i].
+	 *
+	 * @author Timothy
+	 */
+	private static final class Inner extends Node {
+		/** The children, of which the first size + 1 are used */
+		final Node[] children = new Node[MAX_KEYS + 2];
+	}
+
+	private Node root;
+	/** The number of inner levels above the leaves */
+	private int height;
+	private int length;
+
+	/** The inner nodes on the way down to the current leaf, reused so that writes do not allocate */
+	private Inner[] path;
+	/** The index of the child taken at each node in path */
+	private int[] pathIndex;
+
+	/**
+	 * Creates an empty map
+	 */
+	public IntBTreeMap() {
+		root = new Leaf();
+		path = new Inner[8];
+		pathIndex = new int[8];
+	}
+
+	/**
+	 * Creates a map holding the given entries, which must be in strictly ascending order of key.
+	 * The leaves are packed nearly full, which is ideal when later keys will also be larger,
+	 * such as for timestamps or sequence numbers.
+	 *
+	 * @param keys the keys, in ascending order
+	 * @param values the values, parallel to keys
+	 * @return a map holding those entries
+	 * @throws IllegalArgumentException if the arrays differ in length or the keys are not ascending
+	 */
+	public static <A> IntBTreeMap<A> fromSorted(int[] keys, A[] values) {
+		if(keys.length != values.length)
+			throw new IllegalArgumentException("got " + keys.length + " keys but " + values.length + " values");
+		for(int i = 1; i < keys.length; i++) {
+			if(keys[i] <= keys[i - 1])
+				throw new IllegalArgumentException("keys are not strictly ascending at index " + i);
+		}
+
+		final IntBTreeMap<A> map = new IntBTreeMap<>();
+		if(keys.length == 0)
+			return map;
+
+		// build the leaves, spreading entries evenly so that none is under MIN_KEYS
+		int numNodes = groupsFor(keys.length, MAX_KEYS);
+		Node[] level = new Node[numNodes];
+		int[] minKeys = new int[numNodes];
+		Leaf prev = null;
+		int from = 0;
+		for(int i = 0; i < numNodes; i++) {
+			final int to = (int)((long)keys.length * (i + 1) / numNodes);
+			final Leaf leaf = new Leaf();
+			System.arraycopy(keys, from, leaf.keys, 0, to - from);
+			System.arraycopy(values, from, leaf.values, 0, to - from);
+			leaf.size = to - from;
+			if(prev != null)
+				prev.next = leaf;
+			prev = leaf;
+			level[i] = leaf;
+			minKeys[i] = keys[from];
+			from = to;
+		}
+
+		// then each level of inner nodes over the one below, until one node is left
+		int height = 0;
+		while(level.length > 1) {
+			numNodes = groupsFor(level.length, MAX_KEYS + 1);
+			final Node[] parents = new Node[numNodes];
+			final int[] parentMinKeys = new int[numNodes];
+			from = 0;
+			for(int i = 0; i < numNodes; i++) {
+				final int to = (int)((long)level.length * (i + 1) / numNodes);
+				final Inner inner = new Inner();
+				System.arraycopy(level, from, inner.children, 0, to - from);
+				System.arraycopy(minKeys, from + 1, inner.keys, 0, to - from - 1);
+				inner.size = to - from - 1;
+				parents[i] = inner;
+				parentMinKeys[i] = minKeys[from];
+				from = to;
+			}
+			level = parents;
+			minKeys = parentMinKeys;
+			height++;
+		}
+
+		map.root = level[0];
+		map.height = height;
+		map.length = keys.length;
+		map.ensurePathCapacity();
+		return map;
+	}
+
+	/**
+	 * Determines how many nodes to spread the given number of items over
+	 *
+	 * @param items the number of items
+	 * @param perNode the most items a node may hold
+	 * @return the number of nodes
+	 */
+	private static int groupsFor(int items, int perNode) {
+		return (items + perNode - 1) / perNode;
+	}
+
+	/**
+	 * Makes sure path can hold one entry per inner level
+	 */
+	private void ensurePathCapacity() {
+		if(height > path.length) {
+			path = Arrays.copyOf(path, height * 2);
+			pathIndex = Arrays.copyOf(pathIndex, height * 2);
+		}
+	}
+
+	/**
+	 * Finds the child of the inner node which would hold the given key
+	 *
+	 * @param inner the node
+	 * @param key the key
+	 * @return the index of the child
+	 */
+	private static int childIndex(Inner inner, int key) {
+		// the first separator greater than key
+		int lo = 0;
+		int hi = inner.size;
+		while(lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if(inner.keys[mid] <= key)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Finds the given key in the leaf
+	 *
+	 * @param leaf the leaf
+	 * @param key the key
+	 * @return the index of the key, or -(insertion point) - 1 if it is not there
+	 */
+	private static int search(Leaf leaf, int key) {
+		return Arrays.binarySearch(leaf.keys, 0, leaf.size, key);
+	}
+
+	/**
+	 * Walks down to the leaf which would hold the given key, without recording the path
+	 *
+	 * @param key the key
+	 * @return the leaf for that key
+	 */
+	private Leaf leafFor(int key) {
+		Node node = root;
+		for(int level = 0; level < height; level++) {
+			final Inner inner = (Inner)node;
+			node = inner.children[childIndex(inner, key)];
+		}
+		return (Leaf)node;
+	}
+
+	/**
+	 * Walks down to the leaf which would hold the given key, recording the inner nodes and the
+	 * children taken in path and pathIndex
+	 *
+	 * @param key the key
+	 * @return the leaf for that key
+	 */
+	private Leaf descend(int key) {
+		Node node = root;
+		for(int level = 0; level < height; level++) {
+			final Inner inner = (Inner)node;
+			final int idx = childIndex(inner, key);
+			path[level] = inner;
+			pathIndex[level] = idx;
+			node = inner.children[idx];
+		}
+		return (Leaf)node;
+	}
+
+	@Override
+	public A get(int key) {
+		final Leaf leaf = leafFor(key);
+		final int pos = search(leaf, key);
+		return pos < 0 ? null : (A)leaf.values[pos];
+	}
+
+	@Override
+	public boolean containsKey(int key) {
+		return search(leafFor(key), key) >= 0;
+	}
+
+	@Override
+	public A put(int key, A value) {
+		final Leaf leaf = descend(key);
+		int pos = search(leaf, key);
+		if(pos >= 0) {
+			final A result = (A)leaf.values[pos];
+			leaf.values[pos] = value;
+			return result;
+		}
+
+		pos = -pos - 1;
+		System.arraycopy(leaf.keys, pos, leaf.keys, pos + 1, leaf.size - pos);
+		System.arraycopy(leaf.values, pos, leaf.values, pos + 1, leaf.size - pos);
+		leaf.keys[pos] = key;
+		leaf.values[pos] = value;
+		leaf.size++;
+		length++;
+		if(leaf.size <= MAX_KEYS)
+			return null;
+
+		// split the leaf, then push the new node up for as long as the parents overflow
+		final Leaf right = new Leaf();
+		final int half = leaf.size >>> 1;
+		right.size = leaf.size - half;
+		System.arraycopy(leaf.keys, half, right.keys, 0, right.size);
+		System.arraycopy(leaf.values, half, right.values, 0, right.size);
+		Arrays.fill(leaf.values, half, leaf.size, null);
+		leaf.size = half;
+		right.next = leaf.next;
+		leaf.next = right;
+
+		Node newChild = right;
+		int separator = right.keys[0];
+		for(int level = height - 1; level >= 0; level--) {
+			final Inner parent = path[level];
+			final int idx = pathIndex[level];
+			System.arraycopy(parent.keys, idx, parent.keys, idx + 1, parent.size - idx);
+			System.arraycopy(parent.children, idx + 1, parent.children, idx + 2, parent.size - idx);
+			parent.keys[idx] = separator;
+			parent.children[idx + 1] = newChild;
+			parent.size++;
+			if(parent.size <= MAX_KEYS)
+				return null;
+
+			// the middle key moves up rather than being copied, unlike for leaves
+			final Inner split = new Inner();
+			final int mid = parent.size >>> 1;
+			split.size = parent.size - mid - 1;
+			System.arraycopy(parent.keys, mid + 1, split.keys, 0, split.size);
+			System.arraycopy(parent.children, mid + 1, split.children, 0, split.size + 1);
+			Arrays.fill(parent.children, mid + 1, parent.size + 1, null);
+			separator = parent.keys[mid];
+			parent.size = mid;
+			newChild = split;
+		}
+
+		final Inner newRoot = new Inner();
+		newRoot.keys[0] = separator;
+		newRoot.children[0] = root;
+		newRoot.children[1] = newChild;
+		newRoot.size = 1;
+		root = newRoot;
+		height++;
+		ensurePathCapacity();
+		return null;
+	}
+
+	@Override
+	public A remove(int key) {
+		final Leaf leaf = descend(key);
+		final int pos = search(leaf, key);
+		if(pos < 0)
+			return null;
+
+		final A result = (A)leaf.values[pos];
+		System.arraycopy(leaf.keys, pos + 1, leaf.keys, pos, leaf.size - pos - 1);
+		System.arraycopy(leaf.values, pos + 1, leaf.values, pos, leaf.size - pos - 1);
+		leaf.size--;
+		leaf.values[leaf.size] = null;
+		length--;
+
+		/*
+		 * Separators only have to bound their children, so removing the smallest key of a leaf
+		 * does not need the parent to change. We only need to fix up nodes which have dropped
+		 * under MIN_KEYS, by borrowing from a sibling if it can spare a key and otherwise
+		 * merging with it, which takes a key away from the parent.
+		 */
+		Node node = leaf;
+		for(int level = height - 1; level >= 0 && node.size < MIN_KEYS; level--) {
+			final Inner parent = path[level];
+			final int idx = pathIndex[level];
+			final Node left = idx > 0 ? parent.children[idx - 1] : null;
+			final Node right = idx < parent.size ? parent.children[idx + 1] : null;
+
+			if(node instanceof Leaf) {
+				final Leaf under = (Leaf)node;
+				if(left != null && left.size > MIN_KEYS) {
+					borrowFromLeft(under, (Leaf)left);
+					parent.keys[idx - 1] = under.keys[0];
+				}else if(right != null && right.size > MIN_KEYS) {
+					borrowFromRight(under, (Leaf)right);
+					parent.keys[idx] = right.keys[0];
+				}else if(left != null) {
+					mergeLeaves((Leaf)left, under);
+					removeFromInner(parent, idx - 1);
+				}else {
+					mergeLeaves(under, (Leaf)right);
+					removeFromInner(parent, idx);
+				}
+			}else {
+				final Inner under = (Inner)node;
+				if(left != null && left.size > MIN_KEYS) {
+					final Inner from = (Inner)left;
+					System.arraycopy(under.keys, 0, under.keys, 1, under.size);
+					System.arraycopy(under.children, 0, under.children, 1, under.size + 1);
+					under.keys[0] = parent.keys[idx - 1];
+					under.children[0] = from.children[from.size];
+					under.size++;
+					parent.keys[idx - 1] = from.keys[from.size - 1];
+					from.children[from.size] = null;
+					from.size--;
+				}else if(right != null && right.size > MIN_KEYS) {
+					final Inner from = (Inner)right;
+					under.keys[under.size] = parent.keys[idx];
+					under.children[under.size + 1] = from.children[0];
+					under.size++;
+					parent.keys[idx] = from.keys[0];
+					System.arraycopy(from.keys, 1, from.keys, 0, from.size - 1);
+					System.arraycopy(from.children, 1, from.children, 0, from.size);
+					from.children[from.size] = null;
+					from.size--;
+				}else if(left != null) {
+					mergeInners((Inner)left, parent.keys[idx - 1], under);
+					removeFromInner(parent, idx - 1);
+				}else {
+					mergeInners(under, parent.keys[idx], (Inner)right);
+					removeFromInner(parent, idx);
+				}
+			}
+			node = parent;
+		}
+
+		if(height > 0 && root.size == 0) {
+			root = ((Inner)root).children[0];
+			height--;
+		}
+		return result;
+	}
+
+	/**
+	 * Moves the last entry of left to the front of leaf
+	 */
+	private static void borrowFromLeft(Leaf leaf, Leaf left) {
+		System.arraycopy(leaf.keys, 0, leaf.keys, 1, leaf.size);
+		System.arraycopy(leaf.values, 0, leaf.values, 1, leaf.size);
+		left.size--;
+		leaf.keys[0] = left.keys[left.size];
+		leaf.values[0] = left.values[left.size];
+		left.values[left.size] = null;
+		leaf.size++;
+	}
+
+	/**
+	 * Moves the first entry of right to the end of leaf
+	 */
+	private static void borrowFromRight(Leaf leaf, Leaf right) {
+		leaf.keys[leaf.size] = right.keys[0];
+		leaf.values[leaf.size] = right.values[0];
+		leaf.size++;
+		right.size--;
+		System.arraycopy(right.keys, 1, right.keys, 0, right.size);
+		System.arraycopy(right.values, 1, right.values, 0, right.size);
+		right.values[right.size] = null;
+	}
+
+	/**
+	 * Moves every entry of right onto the end of left, and unlinks right
+	 */
+	private static void mergeLeaves(Leaf left, Leaf right) {
+		System.arraycopy(right.keys, 0, left.keys, left.size, right.size);
+		System.arraycopy(right.values, 0, left.values, left.size, right.size);
+		left.size += right.size;
+		left.next = right.next;
+	}
+
+	/**
+	 * Moves the separator between them and then every key and child of right onto the end of left
+	 */
+	private static void mergeInners(Inner left, int separator, Inner right) {
+		left.keys[left.size] = separator;
+		System.arraycopy(right.keys, 0, left.keys, left.size + 1, right.size);
+		System.arraycopy(right.children, 0, left.children, left.size + 1, right.size + 1);
+		left.size += right.size + 1;
+	}
+
+	/**
+	 * Removes the key at the given index from the inner node, along with the child to its right
+	 */
+	private static void removeFromInner(Inner inner, int keyIndex) {
+		System.arraycopy(inner.keys, keyIndex + 1, inner.keys, keyIndex, inner.size - keyIndex - 1);
+		System.arraycopy(inner.children, keyIndex + 2, inner.children, keyIndex + 1, inner.size - keyIndex - 1);
+		inner.children[inner.size] = null;
+		inner.size--;
+	}
+
+	@Override
+	public int size() {
+		return length;
+	}
+
+	/**
+	 * Returns the smallest key in the map
+	 *
+	 * @return the smallest key
+	 * @throws NoSuchElementException if the map is empty
+	 */
+	public int firstKey() {
+		if(length == 0)
+			throw new NoSuchElementException();
+		Node node = root;
+		for(int level = 0; level < height; level++) {
+			node = ((Inner)node).children[0];
+		}
+		return node.keys[0];
+	}
+
+	/**
+	 * Returns the largest key in the map
+	 *
+	 * @return the largest key
+	 * @throws NoSuchElementException if the map is empty
+	 */
+	public int lastKey() {
+		if(length == 0)
+			throw new NoSuchElementException();
+		Node node = root;
+		for(int level = 0; level < height; level++) {
+			final Inner inner = (Inner)node;
+			node = inner.children[inner.size];
+		}
+		return node.keys[node.size - 1];
+	}
+
+	/**
+	 * Calls the consumer with every entry in the map, in ascending order of key. The map must
+	 * not be modified until this returns.
+	 *
+	 * @param consumer what to call with each entry
+	 */
+	@Override
+	public void forEachEntry(IntObjectConsumer<? super A> consumer) {
+		Node node = root;
+		for(int level = 0; level < height; level++) {
+			node = ((Inner)node).children[0];
+		}
+		for(Leaf leaf = (Leaf)node; leaf != null; leaf = leaf.next) {
+			for(int i = 0; i < leaf.size; i++) {
+				consumer.accept(leaf.keys[i], (A)leaf.values[i]);
+			}
+		}
+	}
+
+	/**
+	 * Calls the consumer with every entry whose key is at least fromInclusive and less than
+	 * toExclusive, in ascending order of key. The map must not be modified until this returns.
+	 *
+	 * @param fromInclusive the smallest key to visit
+	 * @param toExclusive one past the largest key to visit
+	 * @param consumer what to call with each entry
+	 */
+	public void forEachInRange(int fromInclusive, int toExclusive, IntObjectConsumer<? super A> consumer) {
+		final Cursor cursor = cursor(fromInclusive, toExclusive);
+		while(cursor.advance()) {
+			consumer.accept(cursor.key, cursor.value);
+		}
+	}
+
+	/**
+	 * Returns a new cursor positioned before the first entry of this map
+	 *
+	 * @return a cursor over every entry
+	 */
+	public Cursor cursor() {
+		final Cursor cursor = new Cursor();
+		cursor.seek(Integer.MIN_VALUE, (long)Integer.MAX_VALUE + 1);
+		return cursor;
+	}
+
+	/**
+	 * Returns a new cursor positioned before the first entry whose key is at least
+	 * fromInclusive, which stops before the first key that is not less than toExclusive
+	 *
+	 * @param fromInclusive the smallest key to visit
+	 * @param toExclusive one past the largest key to visit
+	 * @return a cursor over the range
+	 */
+	public Cursor cursor(int fromInclusive, int toExclusive) {
+		final Cursor cursor = new Cursor();
+		cursor.seek(fromInclusive, toExclusive);
+		return cursor;
+	}
+
+	@Override
+	public void clear() {
+		root = new Leaf();
+		height = 0;
+		length = 0;
+		Arrays.fill(path, null);
+	}
+
+	/**
+	 * Walks over the entries of a range of the map in ascending order of key, without boxing or
+	 * allocating per entry. Not thread-safe, not safe to changes, not fail-fast.
+	 *
+	 * @author Timothy
+	 */
+	public final class Cursor {
+		/** The leaf we are in, or null once we are done */
+		private Leaf leaf;
+		/** The index of the next entry in leaf */
+		private int pos;
+		/** The cursor stops at the first key not less than this */
+		private long toExclusive;
+		/** The key of the current entry */
+		private int key;
+		/** The value of the current entry */
+		private A value;
+
+		private Cursor() {
+		}
+
+		/**
+		 * Moves the cursor to before the first entry whose key is at least fromInclusive, and
+		 * makes it stop before toExclusive. This lets a cursor be reused without allocating.
+		 *
+		 * @param fromInclusive the smallest key to visit
+		 * @param toExclusive one past the largest key to visit
+		 */
+		public void seek(int fromInclusive, int toExclusive) {
+			seek(fromInclusive, (long)toExclusive);
+		}
+
+		private void seek(int fromInclusive, long toExclusive) {
+			leaf = leafFor(fromInclusive);
+			final int found = search(leaf, fromInclusive);
+			pos = found >= 0 ? found : -found - 1;
+			this.toExclusive = toExclusive;
+			value = null;
+		}
+
+		/**
+		 * Moves the cursor to the next entry
+		 *
+		 * @return true if there was another entry in range, false if the cursor is past the end
+		 */
+		public boolean advance() {
+			while(leaf != null) {
+				if(pos < leaf.size) {
+					final int next = leaf.keys[pos];
+					if(next >= toExclusive)
+						break;
+					key = next;
+					value = (A)leaf.values[pos];
+					pos++;
+					return true;
+				}
+				leaf = leaf.next;
+				pos = 0;
+			}
+
+			leaf = null;
+			value = null;
+			return false;
+		}
+
+		/**
+		 * The key of the entry the cursor is at. Only valid after advance returned true.
+		 *
+		 * @return the current key
+		 */
+		public int key() {
+			return key;
+		}
+
+		/**
+		 * The value of the entry the cursor is at. Only valid after advance returned true.
+		 *
+		 * @return the current value
+		 */
+		public A value() {
+			return value;
+		}
+	}
+}
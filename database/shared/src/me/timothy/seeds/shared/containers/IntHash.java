@@ -0,0 +1,23 @@
+package me.timothy.seeds.shared.containers;
+
+/**
+ * The hash shared by the open-addressing containers.
+ * 
+ * @author Timothy
+ */
+final class IntHash {
+	private IntHash() {}
+	
+	/**
+	 * Spreads the given key so that it can be masked to find its preferred slot. Keys which are
+	 * dense would cluster badly under linear probing if we just masked them, so this is a
+	 * fibonacci hash with the high bits folded in.
+	 * 
+	 * @param key the key
+	 * @return the spread key
+	 */
+	static int mix(int key) {
+		final int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,260 @@
+package me.timothy.seeds.shared.containers;
+
+/**
+ * A map from primitive integers to primitive integers, such as an id to a count. This follows the same
+ * open-addressing design as OpenIntObjectMap: keys and values are kept in parallel arrays,
+ * collisions are resolved by linear probing and removals shift back rather than leave tombstones.
+ * Nothing is boxed, and nothing is allocated except when growing. Has a load capacity of 3/4.
+ * 
+ * Since there is no null for a int, looking up a key that is not in the map returns the missing
+ * value that was passed to the constructor. Use containsKey if the missing value could also be
+ * a real value.
+ * 
+ * @author Timothy
+ */
+public class IntIntMap {
+	/** The keys for each slot, where 0 means the slot is empty */
+	private int[] keys;
+	/** The values for each slot, parallel to keys */
+	private int[] values;
+	/** keys.length - 1 */
+	private int mask;
+	/** The number of keys in the map, including the zero key */
+	private int length;
+	/** If the key 0 is in the map */
+	private boolean hasZeroKey;
+	/** The value associated with 0 if hasZeroKey */
+	private int zeroValue;
+	/** What we return for keys that are not in the map */
+	private final int missingValue;
+	
+	/**
+	 * Creates a map from integers to integers, with an initial capacity no less than the suggested
+	 * size, which returns 0 for missing keys.
+	 * 
+	 * @param suggestedSize a suggestion for the capacity of the map.
+	 */
+	public IntIntMap(int suggestedSize) {
+		this(suggestedSize, 0);
+	}
+	
+	/**
+	 * Creates a map from integers to integers, with an initial capacity no less than the suggested
+	 * size.
+	 * 
+	 * @param suggestedSize a suggestion for the capacity of the map.
+	 * @param missingValue the value to return for keys that are not in the map
+	 */
+	public IntIntMap(int suggestedSize, int missingValue) {
+		int power = 16; // skip the first few
+		while(power < suggestedSize)
+			power <<= 1;
+		
+		keys = new int[power];
+		values = new int[power];
+		mask = power - 1;
+		this.missingValue = missingValue;
+	}
+	
+	private boolean maybeExpand() {
+		int capac = keys.length;
+		if(length + 1 < (capac - (capac >> 2)))
+			return false;
+		
+		final int[] oldKeys = keys;
+		final int[] oldValues = values;
+		keys = new int[capac << 1];
+		values = new int[capac << 1];
+		mask = keys.length - 1;
+		
+		for(int i = 0; i < capac; i++) {
+			final int key = oldKeys[i];
+			if(key != 0) {
+				int slot = IntHash.mix(key) & mask;
+				while(keys[slot] != 0)
+					slot = (slot + 1) & mask;
+				keys[slot] = key;
+				values[slot] = oldValues[i];
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Finds the slot that contains the given non-zero key
+	 * 
+	 * @param key the key to find
+	 * @return the slot with that key, or -1 if it is not in the map
+	 */
+	private int slotOf(int key) {
+		int slot = IntHash.mix(key) & mask;
+		int found;
+		while((found = keys[slot]) != 0) {
+			if(found == key)
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the value associated with the given key, or the missing value if not known
+	 * 
+	 * @param key the key of interest
+	 * @return the value for that key
+	 */
+	public int get(int key) {
+		if(key == 0)
+			return hasZeroKey ? zeroValue : missingValue;
+		
+		final int slot = slotOf(key);
+		return slot == -1 ? missingValue : values[slot];
+	}
+	
+	/**
+	 * Determines if the given key has a value associated with it
+	 * 
+	 * @param key the key of interest
+	 * @return true if the key is in the map, false otherwise
+	 */
+	public boolean containsKey(int key) {
+		if(key == 0)
+			return hasZeroKey;
+		return slotOf(key) != -1;
+	}
+	
+	/**
+	 * Puts the given value and associates it with the given key. Returns the missing value if the
+	 * key was previously not associated with a value, otherwise returns the value previously
+	 * associated with the key.
+	 * 
+	 * @param key the key
+	 * @param value the value
+	 * @return the value for the key before the put
+	 */
+	public int put(int key, int value) {
+		if(key == 0) {
+			final int result = hasZeroKey ? zeroValue : missingValue;
+			zeroValue = value;
+			if(!hasZeroKey) {
+				hasZeroKey = true;
+				length++;
+			}
+			return result;
+		}
+		
+		int slot = IntHash.mix(key) & mask;
+		int found;
+		while((found = keys[slot]) != 0) {
+			if(found == key) {
+				final int result = values[slot];
+				values[slot] = value;
+				return result;
+			}
+			slot = (slot + 1) & mask;
+		}
+		
+		if(maybeExpand()) {
+			slot = IntHash.mix(key) & mask;
+			while(keys[slot] != 0)
+				slot = (slot + 1) & mask;
+		}
+		
+		keys[slot] = key;
+		values[slot] = value;
+		length++;
+		return missingValue;
+	}
+	
+	/**
+	 * Adds the given amount to the value associated with the key. If the key is not in the map,
+	 * it is added as if its value had been the missing value.
+	 * 
+	 * @param key the key
+	 * @param delta how much to add
+	 * @return the value for the key after the addition
+	 */
+	public int addTo(int key, int delta) {
+		if(key != 0) {
+			final int slot = slotOf(key);
+			if(slot != -1)
+				return (values[slot] += delta);
+		}else if(hasZeroKey) {
+			return (zeroValue += delta);
+		}
+		
+		final int result = missingValue + delta;
+		put(key, result);
+		return result;
+	}
+	
+	/**
+	 * Removes the value associated with the given key. If there was no value associated with the
+	 * key, returns the missing value. Otherwise, returns the old value associated with the given key.
+	 * 
+	 * @param key the key whose relationship should be removed
+	 * @return the old value associated with the key, or the missing value if there was none
+	 */
+	public int remove(int key) {
+		if(key == 0) {
+			if(!hasZeroKey)
+				return missingValue;
+			hasZeroKey = false;
+			length--;
+			return zeroValue;
+		}
+		
+		final int slot = slotOf(key);
+		if(slot == -1)
+			return missingValue;
+		
+		final int result = values[slot];
+		length--;
+		shiftBack(slot);
+		return result;
+	}
+	
+	/**
+	 * Fills the given gap by moving back any later entry in the same probe run which would
+	 * still be reachable from its preferred slot at the gap. See OpenIntObjectMap.
+	 * 
+	 * @param gap the slot which was just vacated
+	 */
+	private void shiftBack(int gap) {
+		int slot = gap;
+		while(true) {
+			slot = (slot + 1) & mask;
+			final int key = keys[slot];
+			if(key == 0)
+				break;
+			
+			final int home = IntHash.mix(key) & mask;
+			if(((slot - home) & mask) >= ((slot - gap) & mask)) {
+				keys[gap] = key;
+				values[gap] = values[slot];
+				gap = slot;
+			}
+		}
+		keys[gap] = 0;
+	}
+	
+	/**
+	 * Returns the number of keys in the map
+	 * 
+	 * @return the number of keys in the map
+	 */
+	public int size() {
+		return length;
+	}
+	
+	/**
+	 * Clears this map, not freeing the allocation table
+	 */
+	public void clear() {
+		for(int i = 0; i < keys.length; i++) {
+			keys[i] = 0;
+		}
+		hasZeroKey = false;
+		length = 0;
+	}
+}
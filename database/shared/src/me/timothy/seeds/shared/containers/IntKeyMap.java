@@ -0,0 +1,68 @@
+package me.timothy.seeds.shared.containers;
+
+/**
+ * Describes a map from primitive integers to objects. This exists so that the different
+ * implementations (which are tuned for different key patterns) can be swapped without
+ * changing the calling code.
+ *
+ * @author Timothy
+ *
+ * @param <A> The type of the value
+ */
+public interface IntKeyMap<A> {
+	/**
+	 * Returns the value associated with the given key, or null if not known
+	 *
+	 * @param key the key of interest
+	 * @return the value for that key
+	 */
+	public A get(int key);
+
+	/**
+	 * Puts the given value and associates it with the given key. Returns null if the key was
+	 * previously not associated with a value, otherwise returns the value previously associated
+	 * with the key.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return the value for the key before the put
+	 */
+	public A put(int key, A value);
+
+	/**
+	 * Removes the value associated with the given key. If there was no value associated with the
+	 * key, returns null. Otherwise, returns the old value associated with the given key.
+	 *
+	 * @param key the key whose relationship should be removed
+	 * @return the old value associated with the key, or null if there was none
+	 */
+	public A remove(int key);
+
+	/**
+	 * Determines if the given key has a value associated with it, even if that value is null
+	 *
+	 * @param key the key of interest
+	 * @return true if the key is in the map, false otherwise
+	 */
+	public boolean containsKey(int key);
+
+	/**
+	 * Returns the number of keys in the map
+	 *
+	 * @return the number of keys in the map
+	 */
+	public int size();
+
+	/**
+	 * Calls the consumer with every entry in the map, in no particular order. The map must not
+	 * be modified until this returns.
+	 *
+	 * @param consumer what to call with each entry
+	 */
+	public void forEachEntry(IntObjectConsumer<? super A> consumer);
+
+	/**
+	 * Clears this map, not freeing the allocation table but freeing the references to the values
+	 */
+	public void clear();
+}
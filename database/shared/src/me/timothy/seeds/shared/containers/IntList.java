@@ -0,0 +1,146 @@
+package me.timothy.seeds.shared.containers;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive integers, backed by a single int[]. Nothing is boxed, and nothing
+ * is allocated except when growing.
+ * 
+ * @author Timothy
+ */
+public class IntList {
+	/** The elements, of which only the first length are meaningful */
+	private int[] elements;
+	/** The number of elements in the list */
+	private int length;
+	
+	/**
+	 * Creates a list of integers, with an initial capacity no less than the suggested size.
+	 * 
+	 * @param suggestedSize a suggestion for the capacity of the list.
+	 */
+	public IntList(int suggestedSize) {
+		elements = new int[Math.max(suggestedSize, 16)];
+	}
+	
+	/**
+	 * Makes sure the list can hold at least the given number of elements without growing
+	 * 
+	 * @param minCapacity the number of elements we need to hold
+	 */
+	private void ensureCapacity(int minCapacity) {
+		if(minCapacity <= elements.length)
+			return;
+		
+		int newCapac = elements.length << 1;
+		if(newCapac < minCapacity)
+			newCapac = minCapacity;
+		elements = Arrays.copyOf(elements, newCapac);
+	}
+	
+	/**
+	 * Appends the given value to the end of the list
+	 * 
+	 * @param value the value to append
+	 */
+	public void add(int value) {
+		if(length == elements.length)
+			ensureCapacity(length + 1);
+		elements[length++] = value;
+	}
+	
+	/**
+	 * Appends all of the given values to the end of the list, in order
+	 * 
+	 * @param values the values to append
+	 */
+	public void addAll(int[] values) {
+		ensureCapacity(length + values.length);
+		System.arraycopy(values, 0, elements, length, values.length);
+		length += values.length;
+	}
+	
+	/**
+	 * Fetches the value at the given index
+	 * 
+	 * @param index the index of interest
+	 * @return the value at that index
+	 * @throws IndexOutOfBoundsException if the index is not in the list
+	 */
+	public int get(int index) {
+		if(index >= length)
+			throw new IndexOutOfBoundsException("index " + index + " for length " + length);
+		return elements[index];
+	}
+	
+	/**
+	 * Replaces the value at the given index
+	 * 
+	 * @param index the index to replace
+	 * @param value the new value
+	 * @return the value previously at that index
+	 * @throws IndexOutOfBoundsException if the index is not in the list
+	 */
+	public int set(int index, int value) {
+		if(index >= length)
+			throw new IndexOutOfBoundsException("index " + index + " for length " + length);
+		final int result = elements[index];
+		elements[index] = value;
+		return result;
+	}
+	
+	/**
+	 * Removes the value at the given index, shifting everything after it down by one
+	 * 
+	 * @param index the index to remove
+	 * @return the value that was at that index
+	 * @throws IndexOutOfBoundsException if the index is not in the list
+	 */
+	public int removeAt(int index) {
+		if(index >= length)
+			throw new IndexOutOfBoundsException("index " + index + " for length " + length);
+		final int result = elements[index];
+		System.arraycopy(elements, index + 1, elements, index, length - index - 1);
+		length--;
+		return result;
+	}
+	
+	/**
+	 * Finds the first index of the given value
+	 * 
+	 * @param value the value to find
+	 * @return the first index with that value, or -1 if it is not in the list
+	 */
+	public int indexOf(int value) {
+		for(int i = 0; i < length; i++) {
+			if(elements[i] == value)
+				return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the number of elements in the list
+	 * 
+	 * @return the number of elements in the list
+	 */
+	public int size() {
+		return length;
+	}
+	
+	/**
+	 * Copies the elements of the list into a new array
+	 * 
+	 * @return a new array with the elements of the list
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(elements, length);
+	}
+	
+	/**
+	 * Clears this list, not freeing the backing array
+	 */
+	public void clear() {
+		length = 0;
+	}
+}
@@ -0,0 +1,19 @@
+package me.timothy.seeds.shared.containers;
+
+/**
+ * Accepts a primitive integer key and the object associated with it, such as when walking
+ * over every entry of an IntKeyMap without boxing the keys.
+ * 
+ * @author Timothy
+ *
+ * @param <A> the type of the value
+ */
+public interface IntObjectConsumer<A> {
+	/**
+	 * Performs this operation on the given entry
+	 * 
+	 * @param key the key of the entry
+	 * @param value the value of the entry
+	 */
+	public void accept(int key, A value);
+}
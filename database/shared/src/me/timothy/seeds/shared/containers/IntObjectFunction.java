@@ -0,0 +1,21 @@
+package me.timothy.seeds.shared.containers;
+
+/**
+ * Computes a result from a primitive integer key and the object associated with it, such as
+ * when transforming every entry of an IntObjectMap without boxing the keys.
+ * 
+ * @author Timothy
+ *
+ * @param <A> the type of the value
+ * @param <R> the type of the result
+ */
+public interface IntObjectFunction<A, R> {
+	/**
+	 * Applies this function to the given entry
+	 * 
+	 * @param key the key of the entry
+	 * @param value the value of the entry
+	 * @return the result
+	 */
+	public R apply(int key, A value);
+}
@@ -1,8 +1,25 @@
 package me.timothy.seeds.shared.containers;
 
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
 /**
  * This map is tuned for maximum performance when integers which are very dense (as if by an 
- * auto-incrementing regime) to objects. Has a load capacity of 3/4.
+ * auto-incrementing regime) to objects. Has a load capacity of 3/4 unless another is given.
+ * 
+ * While the keys are dense the map does not hash at all; values are stored directly in an array
+ * at key - base, so a lookup is a single array load and each key costs one reference. The first
+ * time a key would leave that array less than a quarter full, or removes leave the remaining
+ * keys that spread out, the map switches to the hashed buckets for good.
+ * 
+ * The map also shrinks as entries are removed, but only once it has dropped to a quarter of the
+ * load that would make it grow, and then only to half that load. That gap means a map which
+ * hovers around a size does not keep reallocating.
  * 
  * After performance testing it looks like hashmaps are so fast that even after removing the
  * boxing/unboxing overhead, there is only a ~20% improvement and neither this nor the generic
@@ -13,7 +30,7 @@ package me.timothy.seeds.shared.containers;
  * @param <A> The type of the value
  */
 @SuppressWarnings("unchecked")
-public class IntObjectMap <A> {
+public class IntObjectMap <A> implements IntKeyMap<A> {
 	/**
 	 * These are the nodes that we store in each bucket
 	 * @author Timothy
@@ -27,12 +44,37 @@ public class IntObjectMap <A> {
 		public A value;
 		/** The index + 1 for where to look if this is not the key you were expecting */
 		public int next;
+		/** The index + 1 of the entry whose next points to this one, or 0 if none does */
+		public int prev;
 	}
 	
+	/** Stands in for a null value in dense, since there null means the key is absent */
+	private static final Object NULL_VALUE = new Object();
+	/** The dense array may always grow to this size, no matter how empty it would be */
+	private static final int DENSE_MIN_CAPACITY = 64;
+	/** The largest dense array we will allocate */
+	private static final int DENSE_MAX_CAPACITY = 1 << 30;
+	/** Parallel operations never split the slots into ranges smaller than this */
+	private static final int MIN_PARALLEL_GRAIN = 4096;
+	
+	/** While this is non-null the value for key is at dense[key - denseBase] and buckets is null */
+	private Object[] dense;
+	/** The key which corresponds with dense[0] */
+	private int denseBase;
+	
 	private BucketEntry<A>[] buckets;
 	private int filledUpTo;
 	private int length;
 	
+	/** The fraction of the buckets which may be used before they are doubled */
+	private final float loadFactor;
+	/** The capacity the map started with, which it will never shrink below on its own */
+	private final int minCapacity;
+	/** The map grows when a put would bring length up to this */
+	private int growAt;
+	/** The map tries to shrink when a remove brings length below this, or never if 0 */
+	private int shrinkBelow;
+	
 	/**
 	 * Creates a map from integers to A's, with an initial capacity no less than
 	 * the suggested size.
@@ -40,31 +82,204 @@ public class IntObjectMap <A> {
 	 * @param suggestedSize a suggestion for the capacity of the map.
 	 */
 	public IntObjectMap(int suggestedSize) {
+		this(suggestedSize, 0.75f);
+	}
+	
+	/**
+	 * Creates a map from integers to A's, with an initial capacity no less than the suggested
+	 * size, which doubles its buckets once they are more than loadFactor full. A lower load
+	 * factor means shorter chains at the cost of memory. The load factor has no effect while
+	 * the keys are dense.
+	 * 
+	 * @param suggestedSize a suggestion for the capacity of the map.
+	 * @param loadFactor the fraction of buckets to fill before growing, between 0 and 1 exclusive
+	 * @throws IllegalArgumentException if the load factor is out of range
+	 */
+	public IntObjectMap(int suggestedSize, float loadFactor) {
+		if(!(loadFactor > 0 && loadFactor < 1))
+			throw new IllegalArgumentException("load factor must be between 0 and 1, got " + loadFactor);
+		
 		int power = 16; // skip the first few
 		while(power < suggestedSize)
 			power <<= 1;
 
-		buckets = ((BucketEntry<A>[]) new BucketEntry[power]);
+		this.loadFactor = loadFactor;
+		minCapacity = power;
+		dense = new Object[power];
+		updateDenseShrinkBelow();
+	}
+	
+	/**
+	 * Attempts to grow or rebase the dense array so that it covers the given key, which it does not
+	 * currently cover.
+	 * 
+	 * @param key the key that needs to fit
+	 * @return true if dense now covers the key, false if it would have been too sparse
+	 */
+	private boolean growDense(int key) {
+		if(length == 0) {
+			// nothing to keep, so start over from this key
+			denseBase = (int) Math.min(key, (long)Integer.MAX_VALUE + 1 - dense.length);
+			return true;
+		}
+		
+		final long lo = Math.min(denseBase, key);
+		final long hi = Math.max((long)denseBase + dense.length, (long)key + 1);
+		long newCapac = dense.length;
+		while(newCapac < hi - lo)
+			newCapac <<= 1;
+		
+		if(newCapac > DENSE_MAX_CAPACITY)
+			return false;
+		if(newCapac > DENSE_MIN_CAPACITY && newCapac > (length + 1) * 4L)
+			return false;
+		
+		// leave the free space on the side that we are growing towards
+		long newBase = key < denseBase ? hi - newCapac : lo;
+		if(newBase < Integer.MIN_VALUE)
+			newBase = Integer.MIN_VALUE;
+		if(newBase + newCapac > (long)Integer.MAX_VALUE + 1)
+			newBase = (long)Integer.MAX_VALUE + 1 - newCapac;
+		
+		final Object[] newDense = new Object[(int)newCapac];
+		System.arraycopy(dense, 0, newDense, (int)(denseBase - newBase), dense.length);
+		dense = newDense;
+		denseBase = (int)newBase;
+		updateDenseShrinkBelow();
+		return true;
+	}
+	
+	/**
+	 * Sets shrinkBelow for the current dense array. Growing allows the array to be as little as
+	 * a quarter full, so we wait until it is a sixteenth full before trying to shrink it. If the
+	 * map is already below that, we wait until it halves instead.
+	 */
+	private void updateDenseShrinkBelow() {
+		shrinkBelow = dense.length > Math.max(minCapacity, DENSE_MIN_CAPACITY) ? Math.min(dense.length >> 4, length >> 1) : 0;
+	}
+	
+	/**
+	 * Shrinks the dense array to cover only the keys still in it. If the keys left are spread
+	 * out too far for that array to be a quarter full, the map switches to hashing instead, just
+	 * as it would have if they were put in that way.
+	 * 
+	 * @param floor the smallest array to allocate
+	 */
+	private void shrinkDense(int floor) {
+		int first = 0;
+		while(first < dense.length && dense[first] == null)
+			first++;
+		
+		if(first == dense.length) {
+			if(floor < dense.length)
+				dense = new Object[floor];
+			updateDenseShrinkBelow();
+			return;
+		}
+		
+		int last = dense.length - 1;
+		while(dense[last] == null)
+			last--;
+		
+		int power = floor;
+		while(power < last - first + 1)
+			power <<= 1;
+		if(power > DENSE_MIN_CAPACITY && power > length * 4L) {
+			toHashed();
+			return;
+		}
+		if(power < dense.length) {
+			final int newBase = (int) Math.min((long)denseBase + first, (long)Integer.MAX_VALUE + 1 - power);
+			final Object[] newDense = new Object[power];
+			System.arraycopy(dense, first, newDense, denseBase + first - newBase, last - first + 1);
+			dense = newDense;
+			denseBase = newBase;
+		}
+		updateDenseShrinkBelow();
+	}
+	
+	/**
+	 * Moves everything in the dense array into hashed buckets. The map will stay hashed from
+	 * then on.
+	 */
+	private void toHashed() {
+		final Object[] oldDense = dense;
+		
+		dense = null;
+		buckets = new BucketEntry[Math.max(minCapacity, hashedCapacityFor(length))];
+		filledUpTo = 0;
+		length = 0;
+		updateHashedThresholds();
+		for(int i = 0; i < oldDense.length; i++) {
+			final Object val = oldDense[i];
+			if(val != null) {
+				put(denseBase + i, val == NULL_VALUE ? null : (A)val);
+			}
+		}
+		updateHashedThresholds();
 	}
 	
 	private boolean maybeExpand() {
-		int capac = buckets.length;
-		if(length + 1 < (capac - (capac >> 2)))
+		if(length + 1 < growAt)
 			return false;
-		int newCapac = capac << 1;
-		BucketEntry<A>[] oldBuckets = buckets;
+		rehash(buckets.length << 1);
+		return true;
+	}
+	
+	/**
+	 * Sets growAt and shrinkBelow for the current buckets. A map that has just shrunk is at
+	 * half the load factor, so it must lose half again or gain half again before it resizes.
+	 */
+	private void updateHashedThresholds() {
+		final int capac = buckets.length;
+		growAt = growThresholdFor(capac);
+		shrinkBelow = capac > minCapacity ? Math.min(growAt >> 2, length >> 1) : 0;
+	}
+	
+	/**
+	 * Determines how many entries the given number of buckets may hold under the load factor.
+	 * Always leaves at least one bucket free, which put relies on.
+	 * 
+	 * @param capac the number of buckets
+	 * @return the length at which to grow
+	 */
+	private int growThresholdFor(int capac) {
+		return Math.min((int)(capac * loadFactor), capac - 1);
+	}
+	
+	/**
+	 * Moves every entry into a new bucket array of the given capacity, reusing the entries.
+	 * 
+	 * @param newCapac the new number of buckets, a power of 2 that is comfortably above length
+	 */
+	private void rehash(int newCapac) {
+		final BucketEntry<A>[] oldBuckets = buckets;
 		buckets = new BucketEntry[newCapac];
 		filledUpTo = 0;
 		
-		for(int i = 0; i < capac; i++) {
+		for(int i = 0; i < oldBuckets.length; i++) {
 			BucketEntry<A> entr = oldBuckets[i];
 			if(entr != null) {
 				entr.next = 0;
+				entr.prev = 0;
 				put(entr);
 			}
 		}
-		
-		return true;
+		updateHashedThresholds();
+	}
+	
+	/**
+	 * Finds the smallest bucket capacity which holds the given number of entries under the
+	 * load factor
+	 * 
+	 * @param numEntries the number of entries to hold
+	 * @return the capacity for that many entries
+	 */
+	private int hashedCapacityFor(int numEntries) {
+		int power = 16;
+		while(numEntries + 1 >= growThresholdFor(power))
+			power <<= 1;
+		return power;
 	}
 	
 	/**
@@ -74,6 +289,14 @@ public class IntObjectMap <A> {
 	 * @return the value for that key
 	 */
 	public A get(int key) {
+		if(dense != null) {
+			final int offset = key - denseBase;
+			if(offset < 0 || offset >= dense.length)
+				return null;
+			final Object val = dense[offset];
+			return val == NULL_VALUE ? null : (A)val;
+		}
+		
 		int ind = key & (buckets.length - 1);
 		BucketEntry<A> entr = buckets[ind];
 		if(entr == null)
@@ -102,6 +325,23 @@ public class IntObjectMap <A> {
 	 * @return the value for the key before the put
 	 */
 	public A put(int key, A value) {
+		if(dense != null) {
+			final int offset = key - denseBase;
+			if(offset >= 0 && offset < dense.length) {
+				final Object old = dense[offset];
+				dense[offset] = value == null ? NULL_VALUE : value;
+				if(old == null) {
+					length++;
+					return null;
+				}
+				return old == NULL_VALUE ? null : (A)old;
+			}
+			
+			if(growDense(key))
+				return put(key, value);
+			toHashed();
+		}
+		
 		BucketEntry<A> insEntry = new BucketEntry<>();
 		insEntry.key = key;
 		insEntry.value = value;
@@ -112,12 +352,11 @@ public class IntObjectMap <A> {
 			length++;
 			buckets[ind] = insEntry;
 			if(filledUpTo == ind) {
-				if(buckets.length == filledUpTo + 1) {
+				while(++filledUpTo < buckets.length && buckets[filledUpTo] != null);
+				if(filledUpTo == buckets.length) {
+					// everything is filled, which is well past the load factor
 					maybeExpand();
-					return null;
 				}
-				
-				while(buckets[++filledUpTo] != null);
 			}
 			return null;
 		}
@@ -131,7 +370,8 @@ public class IntObjectMap <A> {
 			return result;
 		}
 		while(entr.next != 0) {
-			entr = buckets[entr.next - 1];
+			ind = entr.next - 1;
+			entr = buckets[ind];
 			if(entr.key == key) {
 				final A result = entr.value;
 				entr.value = value;
@@ -140,15 +380,16 @@ public class IntObjectMap <A> {
 		}
 		buckets[filledUpTo] = insEntry;
 		entr.next = filledUpTo + 1;
-		while(buckets[++filledUpTo] != null);
+		insEntry.prev = ind + 1;
+		while(++filledUpTo < buckets.length && buckets[filledUpTo] != null);
 		length++;
 		return null;
 	}
 	
 	/**
-	 * This is used for reslotting only. It assumes that our length no greater than the capacity less 1
-	 * and that the key is unique. Does not change the length, but does update the filledUpTo value. it
-	 * assumes insEntry.next == 0
+	 * This is used for reslotting when expanding only. It assumes that our length no greater than the
+	 * capacity less 1 and that the key is unique. Does not change the length, but does update the
+	 * filledUpTo value. it assumes insEntry.next == 0 and insEntry.prev == 0
 	 * 
 	 * @param insEntry the entry to reslot
 	 */
@@ -159,17 +400,19 @@ public class IntObjectMap <A> {
 		if(entr == null) {
 			buckets[ind] = insEntry;
 			if(filledUpTo == ind) {
-				while(buckets[++filledUpTo] != null);
+				while(++filledUpTo < buckets.length && buckets[filledUpTo] != null);
 			}
 			return;
 		}
 		
 		while(entr.next != 0) {
-			entr = buckets[entr.next - 1];
+			ind = entr.next - 1;
+			entr = buckets[ind];
 		}
 		buckets[filledUpTo] = insEntry;
 		entr.next = filledUpTo + 1;
-		while(buckets[++filledUpTo] != null);
+		insEntry.prev = ind + 1;
+		while(++filledUpTo < buckets.length && buckets[filledUpTo] != null);
 	}
 	
 	/**
@@ -180,127 +423,716 @@ public class IntObjectMap <A> {
 	 * @return the old value associated with the key, or null if there was none
 	 */
 	public A remove(int key) {
-		int ind = key & (buckets.length - 1);
-		final BucketEntry<A> entr = buckets[ind];
+		if(dense != null) {
+			final int offset = key - denseBase;
+			if(offset < 0 || offset >= dense.length)
+				return null;
+			final Object old = dense[offset];
+			if(old == null)
+				return null;
+			dense[offset] = null;
+			length--;
+			if(length < shrinkBelow)
+				shrinkDense(minCapacity);
+			return old == NULL_VALUE ? null : (A)old;
+		}
+		
+		final int mask = buckets.length - 1;
+		int ind = key & mask;
+		BucketEntry<A> entr = buckets[ind];
 		if(entr == null)
 			return null;
 		
-		if(entr.next == 0) {
-			if(entr.key != key) { return null; }
-
-			length--;
-			buckets[ind] = null;
-			if(filledUpTo > ind)
-				filledUpTo = ind;
-			return entr.value;
+		while(entr.key != key) {
+			if(entr.next == 0)
+				return null;
+			ind = entr.next - 1;
+			entr = buckets[ind];
 		}
 		
-		// If we are the end of the chain then it's safe to do a raw update, in all other cases we must reslot everything
-		// since the chain may have multiple sources
+		final A result = entr.value;
+		length--;
 		
-		if(entr.key == key) {
-			// We're first, so we need to reslot the remainder of the chain
-			length--;
-			buckets[ind] = null;
-			if(filledUpTo > ind)
-				filledUpTo = ind;
+		/*
+		 * We can't just unlink ourself, since any entry later in the chain whose home bucket is
+		 * the one we are vacating would no longer be found. So we pull the first such entry into
+		 * the hole, which moves the hole to where it was, and keep going down the chain. Once
+		 * nothing later depends on the hole we unlink it. Entries are only copied between buckets
+		 * that already exist, so this neither allocates nor reinserts.
+		 */
+		int hole = ind;
+		BucketEntry<A> holeEntr = entr;
+		int scanInd = entr.next - 1;
+		while(scanInd != -1) {
+			final BucketEntry<A> scan = buckets[scanInd];
+			if((scan.key & mask) == hole) {
+				holeEntr.key = scan.key;
+				holeEntr.value = scan.value;
+				hole = scanInd;
+				holeEntr = scan;
+			}
+			scanInd = scan.next - 1;
+		}
+		
+		if(holeEntr.prev != 0)
+			buckets[holeEntr.prev - 1].next = holeEntr.next;
+		if(holeEntr.next != 0)
+			buckets[holeEntr.next - 1].prev = holeEntr.prev;
+		buckets[hole] = null;
+		if(filledUpTo > hole)
+			filledUpTo = hole;
+		
+		if(length < shrinkBelow)
+			rehash(Math.max(minCapacity, hashedCapacityFor(length << 1)));
+		return result;
+	}
+	
+	/**
+	 * Determines if the given key has a value associated with it, even if that value is null
+	 * 
+	 * @param key the key of interest
+	 * @return true if the key is in the map, false otherwise
+	 */
+	public boolean containsKey(int key) {
+		if(dense != null) {
+			final int offset = key - denseBase;
+			return offset >= 0 && offset < dense.length && dense[offset] != null;
+		}
+		
+		BucketEntry<A> entr = buckets[key & (buckets.length - 1)];
+		if(entr == null)
+			return false;
+		while(entr.key != key) {
+			if(entr.next == 0)
+				return false;
+			entr = buckets[entr.next - 1];
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the number of keys in the map
+	 * 
+	 * @return the number of keys in the map
+	 */
+	public int size() {
+		return length;
+	}
+	
+	/**
+	 * Calls the consumer with every entry in the map, in no particular order. The map must not
+	 * be modified until this returns.
+	 * 
+	 * @param consumer what to call with each entry
+	 */
+	public void forEachEntry(IntObjectConsumer<? super A> consumer) {
+		if(dense != null) {
+			for(int i = 0; i < dense.length; i++) {
+				final Object val = dense[i];
+				if(val != null)
+					consumer.accept(denseBase + i, val == NULL_VALUE ? null : (A)val);
+			}
+			return;
+		}
+		
+		for(int i = 0; i < buckets.length; i++) {
+			final BucketEntry<A> entr = buckets[i];
+			if(entr != null)
+				consumer.accept(entr.key, entr.value);
+		}
+	}
+	
+	/**
+	 * Returns a new cursor positioned before the first entry of this map. The cursor may be
+	 * kept and reset to walk the map again without allocating.
+	 * 
+	 * @return a cursor over this map
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+	
+	/**
+	 * Calls the consumer with every entry in the map using the common fork-join pool. The
+	 * consumer is called from several threads at once, so it must be thread-safe, and the
+	 * map must not be modified until this returns.
+	 * 
+	 * @param consumer what to call with each entry
+	 */
+	public void parallelForEach(IntObjectConsumer<? super A> consumer) {
+		parallelForEach(ForkJoinPool.commonPool(), consumer);
+	}
+	
+	/**
+	 * Calls the consumer with every entry in the map using the given pool.
+	 * 
+	 * @param pool the pool to run on
+	 * @param consumer what to call with each entry
+	 * @see #parallelForEach(IntObjectConsumer)
+	 */
+	public void parallelForEach(ForkJoinPool pool, IntObjectConsumer<? super A> consumer) {
+		pool.invoke(new ForEachTask(0, capacity(), parallelGrain(pool), consumer));
+	}
+	
+	/**
+	 * Replaces the value of every entry with the result of the function using the common
+	 * fork-join pool. The keys stay where they are, so this never resizes. The function is
+	 * called from several threads at once and the map must not be modified until this returns.
+	 * 
+	 * @param function computes the new value from each entry
+	 */
+	public void parallelReplaceAll(IntObjectFunction<? super A, ? extends A> function) {
+		parallelReplaceAll(ForkJoinPool.commonPool(), function);
+	}
+	
+	/**
+	 * Replaces the value of every entry with the result of the function using the given pool.
+	 * 
+	 * @param pool the pool to run on
+	 * @param function computes the new value from each entry
+	 * @see #parallelReplaceAll(IntObjectFunction)
+	 */
+	public void parallelReplaceAll(ForkJoinPool pool, IntObjectFunction<? super A, ? extends A> function) {
+		pool.invoke(new ReplaceTask(0, capacity(), parallelGrain(pool), function));
+	}
+	
+	/**
+	 * Transforms every entry and combines the results using the common fork-join pool. Null
+	 * results from the transformer are skipped. The reducer must be associative, since the order
+	 * results are combined in depends on how the work was split.
+	 * 
+	 * @param transformer computes a result from each entry, or null to skip it
+	 * @param reducer combines two results
+	 * @return the combined result, or null if there were no non-null results
+	 */
+	public <R> R parallelReduce(IntObjectFunction<? super A, ? extends R> transformer, BinaryOperator<R> reducer) {
+		return parallelReduce(ForkJoinPool.commonPool(), transformer, reducer);
+	}
+	
+	/**
+	 * Transforms every entry and combines the results using the given pool.
+	 * 
+	 * @param pool the pool to run on
+	 * @param transformer computes a result from each entry, or null to skip it
+	 * @param reducer combines two results
+	 * @return the combined result, or null if there were no non-null results
+	 * @see #parallelReduce(IntObjectFunction, BinaryOperator)
+	 */
+	public <R> R parallelReduce(ForkJoinPool pool, IntObjectFunction<? super A, ? extends R> transformer, BinaryOperator<R> reducer) {
+		return pool.invoke(new ReduceTask<R>(0, capacity(), parallelGrain(pool), transformer, reducer));
+	}
+	
+	/**
+	 * Returns a spliterator over the keys of this map, such that
+	 * StreamSupport.intStream(map.keySpliterator(), true) is a parallel stream of the keys.
+	 * The map must not be modified while it is in use.
+	 * 
+	 * @return a spliterator over the keys
+	 */
+	public Spliterator.OfInt keySpliterator() {
+		return new KeySpliterator(0, capacity(), length);
+	}
+	
+	/**
+	 * Returns a spliterator over the values of this map, which may include nulls. The map
+	 * must not be modified while it is in use.
+	 * 
+	 * @return a spliterator over the values
+	 */
+	public Spliterator<A> valueSpliterator() {
+		return new ValueSpliterator(0, capacity(), length);
+	}
+	
+	/**
+	 * Picks how many slots each parallel task should cover, which is enough for a few tasks
+	 * per thread so that uneven ranges balance out.
+	 * 
+	 * @param pool the pool the tasks will run on
+	 * @return the number of slots per task
+	 */
+	private int parallelGrain(ForkJoinPool pool) {
+		return Math.max(MIN_PARALLEL_GRAIN, capacity() / (pool.getParallelism() * 4));
+	}
+	
+	/**
+	 * Determines if there is an entry in the given slot of the dense array or the buckets
+	 * 
+	 * @param slot the slot
+	 * @return true if there is an entry there
+	 */
+	private boolean isFilled(int slot) {
+		return dense != null ? dense[slot] != null : buckets[slot] != null;
+	}
+	
+	/**
+	 * The key of the entry in the given filled slot
+	 * 
+	 * @param slot the slot
+	 * @return the key in that slot
+	 */
+	private int keyAt(int slot) {
+		return dense != null ? denseBase + slot : buckets[slot].key;
+	}
+	
+	/**
+	 * The value of the entry in the given filled slot
+	 * 
+	 * @param slot the slot
+	 * @return the value in that slot
+	 */
+	private A valueAt(int slot) {
+		if(dense != null) {
+			final Object val = dense[slot];
+			return val == NULL_VALUE ? null : (A)val;
+		}
+		return buckets[slot].value;
+	}
+	
+	/**
+	 * Puts every entry from the other map into this one, replacing values for keys which are
+	 * in both. Makes room for all of them up front.
+	 * 
+	 * @param other the map to copy from
+	 */
+	public void putAll(IntObjectMap<? extends A> other) {
+		ensureCapacity(length + other.length);
+		other.forEachEntry(this::put);
+	}
+	
+	/**
+	 * Makes sure the map can hold at least the given number of entries without growing. For
+	 * dense keys this assumes the new keys will follow on from the existing ones.
+	 * 
+	 * @param numEntries the number of entries the map should be able to hold
+	 */
+	public void ensureCapacity(int numEntries) {
+		if(dense != null) {
+			if(numEntries > dense.length && numEntries <= DENSE_MAX_CAPACITY) {
+				int power = dense.length;
+				while(power < numEntries)
+					power <<= 1;
+				
+				final int newBase = (int) Math.min(denseBase, (long)Integer.MAX_VALUE + 1 - power);
+				final Object[] newDense = new Object[power];
+				System.arraycopy(dense, 0, newDense, denseBase - newBase, dense.length);
+				dense = newDense;
+				denseBase = newBase;
+				updateDenseShrinkBelow();
+			}
+			return;
+		}
+		
+		final int needed = hashedCapacityFor(numEntries);
+		if(needed > buckets.length)
+			rehash(needed);
+	}
+	
+	/**
+	 * Shrinks the backing array to the smallest size that holds the current entries under the
+	 * load factor, ignoring the size the map started with. For hashed maps this also rebuilds
+	 * the chains, which removes can leave scattered. This allocates a new array, so it is meant
+	 * to be called once a map has stopped changing.
+	 */
+	public void compact() {
+		if(dense != null) {
+			shrinkDense(16);
+			if(dense != null)
+				return;
+		}
+		
+		final int needed = hashedCapacityFor(length);
+		if(needed <= buckets.length)
+			rehash(needed);
+	}
+	
+	/**
+	 * Shrinks the backing array to the smallest size that holds the current entries. The same as
+	 * compact(), for callers from before it had that name.
+	 */
+	public void trimToSize() {
+		compact();
+	}
+	
+	/**
+	 * Returns the number of slots in the backing array, which is what the map costs in memory
+	 * apart from the values themselves
+	 * 
+	 * @return the current capacity of the map
+	 */
+	public int capacity() {
+		return dense != null ? dense.length : buckets.length;
+	}
+	
+	/**
+	 * Clears this map. If the map has grown past the size it started with, the backing array is
+	 * replaced with one of the starting size rather than cleared, which is both cheaper and gives
+	 * the memory back. Otherwise the allocation table is kept.
+	 */
+	public void clear() {
+		if(dense != null) {
+			if(dense.length > minCapacity) {
+				dense = new Object[minCapacity];
+			}else {
+				for(int i = 0; i < dense.length; i++) {
+					dense[i] = null;
+				}
+			}
+			length = 0;
+			updateDenseShrinkBelow();
+			return;
+		}
+		
+		if(buckets.length > minCapacity) {
+			buckets = new BucketEntry[minCapacity];
+		}else {
+			for(int i = 0; i < buckets.length; i++) {
+				buckets[i] = null;
+			}
+		}
+		length = 0;
+		filledUpTo = 0;
+		updateHashedThresholds();
+	}
+	
+	/**
+	 * Walks over the entries of the map in no particular order, without boxing or allocating
+	 * per entry. Not thread-safe, not safe to changes, not fail-fast.
+	 * 
+	 * @author Timothy
+	 */
+	public final class Cursor {
+		/** The index in the dense array or the buckets that we are at */
+		private int index;
+		/** The key at index */
+		private int key;
+		/** The value at index */
+		private A value;
+		
+		private Cursor() {
+			index = -1;
+		}
+		
+		/**
+		 * Moves the cursor back to before the first entry
+		 */
+		public void reset() {
+			index = -1;
+			value = null;
+		}
+		
+		/**
+		 * Moves the cursor to the next entry
+		 * 
+		 * @return true if there was another entry, false if the cursor is past the end
+		 */
+		public boolean advance() {
+			if(dense != null) {
+				final Object[] arr = dense;
+				while(++index < arr.length) {
+					final Object val = arr[index];
+					if(val != null) {
+						key = denseBase + index;
+						value = val == NULL_VALUE ? null : (A)val;
+						return true;
+					}
+				}
+			}else {
+				final BucketEntry<A>[] arr = buckets;
+				while(++index < arr.length) {
+					final BucketEntry<A> entr = arr[index];
+					if(entr != null) {
+						key = entr.key;
+						value = entr.value;
+						return true;
+					}
+				}
+			}
+			
+			value = null;
+			return false;
+		}
+		
+		/**
+		 * The key of the entry the cursor is at. Only valid after advance returned true.
+		 * 
+		 * @return the current key
+		 */
+		public int key() {
+			return key;
+		}
+		
+		/**
+		 * The value of the entry the cursor is at. Only valid after advance returned true.
+		 * 
+		 * @return the current value
+		 */
+		public A value() {
+			return value;
+		}
+	}
+	
+	/**
+	 * Visits a range of slots, splitting it in half until each piece is at most grain slots.
+	 * 
+	 * @author Timothy
+	 */
+	private final class ForEachTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final int lo, hi, grain;
+		private final IntObjectConsumer<? super A> consumer;
+		
+		ForEachTask(int lo, int hi, int grain, IntObjectConsumer<? super A> consumer) {
+			this.lo = lo;
+			this.hi = hi;
+			this.grain = grain;
+			this.consumer = consumer;
+		}
+		
+		@Override
+		protected void compute() {
+			if(hi - lo > grain) {
+				final int mid = (lo + hi) >>> 1;
+				invokeAll(new ForEachTask(lo, mid, grain, consumer), new ForEachTask(mid, hi, grain, consumer));
+				return;
+			}
 			
-			int numToReslot = 1;
-			BucketEntry<A> curr = buckets[entr.next - 1];
-			while(curr.next != 0) {
-				numToReslot++;
-				curr = buckets[curr.next - 1];
+			for(int slot = lo; slot < hi; slot++) {
+				if(isFilled(slot))
+					consumer.accept(keyAt(slot), valueAt(slot));
+			}
+		}
+	}
+	
+	/**
+	 * Replaces the values in a range of slots. Each task writes to different slots, and
+	 * joining the task publishes its writes to whoever invoked it.
+	 * 
+	 * @author Timothy
+	 */
+	private final class ReplaceTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final int lo, hi, grain;
+		private final IntObjectFunction<? super A, ? extends A> function;
+		
+		ReplaceTask(int lo, int hi, int grain, IntObjectFunction<? super A, ? extends A> function) {
+			this.lo = lo;
+			this.hi = hi;
+			this.grain = grain;
+			this.function = function;
+		}
+		
+		@Override
+		protected void compute() {
+			if(hi - lo > grain) {
+				final int mid = (lo + hi) >>> 1;
+				invokeAll(new ReplaceTask(lo, mid, grain, function), new ReplaceTask(mid, hi, grain, function));
+				return;
 			}
 			
-			BucketEntry<A>[] toReslot = new BucketEntry[numToReslot];
-			int reslotIndex = 0;
-			curr = buckets[entr.next - 1];
-			buckets[entr.next - 1] = null;
-			if(filledUpTo > entr.next - 1)
-				filledUpTo = entr.next - 1;
-			toReslot[reslotIndex++] = curr;
-			while(curr.next != 0) {
-				int tmp = curr.next;
-				curr.next = 0;
-				curr = buckets[tmp - 1];
-				buckets[tmp - 1] = null;
-				if(filledUpTo > tmp - 1)
-					filledUpTo = tmp - 1;
-				toReslot[reslotIndex++] = curr;
+			if(dense != null) {
+				final Object[] arr = dense;
+				for(int slot = lo; slot < hi; slot++) {
+					final Object val = arr[slot];
+					if(val != null) {
+						final A result = function.apply(denseBase + slot, val == NULL_VALUE ? null : (A)val);
+						arr[slot] = result == null ? NULL_VALUE : result;
+					}
+				}
+				return;
 			}
-			for(int i = 0; i < toReslot.length; i++) {
-				put(toReslot[i]);
+			
+			final BucketEntry<A>[] arr = buckets;
+			for(int slot = lo; slot < hi; slot++) {
+				final BucketEntry<A> entr = arr[slot];
+				if(entr != null)
+					entr.value = function.apply(entr.key, entr.value);
 			}
-			return entr.value;
+		}
+	}
+	
+	/**
+	 * Reduces a range of slots, forking the right half and working the left half itself.
+	 * 
+	 * @author Timothy
+	 * @param <R> the type of the result
+	 */
+	private final class ReduceTask<R> extends RecursiveTask<R> {
+		private static final long serialVersionUID = 1L;
+		
+		private final int lo, hi, grain;
+		private final IntObjectFunction<? super A, ? extends R> transformer;
+		private final BinaryOperator<R> reducer;
+		
+		ReduceTask(int lo, int hi, int grain, IntObjectFunction<? super A, ? extends R> transformer, BinaryOperator<R> reducer) {
+			this.lo = lo;
+			this.hi = hi;
+			this.grain = grain;
+			this.transformer = transformer;
+			this.reducer = reducer;
 		}
 		
-		int numToReslot = 0; // we never need to reslot the first one
-		BucketEntry<A> prev = entr;
-		BucketEntry<A> next = null;
-		while(prev.next != 0) {
-			next = buckets[prev.next - 1];
-			if(next.key == key) {
-				break;
+		@Override
+		protected R compute() {
+			if(hi - lo > grain) {
+				final int mid = (lo + hi) >>> 1;
+				final ReduceTask<R> right = new ReduceTask<>(mid, hi, grain, transformer, reducer);
+				right.fork();
+				final R leftResult = new ReduceTask<>(lo, mid, grain, transformer, reducer).compute();
+				return combine(leftResult, right.join());
 			}
-			prev = next;
-			numToReslot++;
+			
+			R result = null;
+			for(int slot = lo; slot < hi; slot++) {
+				if(isFilled(slot))
+					result = combine(result, transformer.apply(keyAt(slot), valueAt(slot)));
+			}
+			return result;
 		}
-		if(prev.next == 0) {
-			// we're not in the chain
-			return null;
+		
+		private R combine(R a, R b) {
+			if(a == null)
+				return b;
+			if(b == null)
+				return a;
+			return reducer.apply(a, b);
 		}
+	}
+	
+	/**
+	 * The shared part of the key and value spliterators, which walk a range of slots and
+	 * split it in half.
+	 * 
+	 * @author Timothy
+	 */
+	private abstract class SlotSpliterator {
+		/** The next slot to look at */
+		protected int index;
+		/** One past the last slot in our range */
+		protected final int fence;
+		/** About how many entries are left in our range */
+		protected long estimate;
 		
-		// We are in the chain
-		length--;
+		SlotSpliterator(int index, int fence, long estimate) {
+			this.index = index;
+			this.fence = fence;
+			this.estimate = estimate;
+		}
 		
-		if(next.next == 0) {
-			// we are the end of the chain
-			buckets[prev.next - 1] = null;
-			if(filledUpTo > prev.next - 1)
-				filledUpTo = prev.next - 1;
-			prev.next = 0;
-			return next.value;
+		/**
+		 * Moves index past the next filled slot
+		 * 
+		 * @return the filled slot, or -1 if there are none left in the range
+		 */
+		protected int nextSlot() {
+			while(index < fence) {
+				final int slot = index++;
+				if(isFilled(slot))
+					return slot;
+			}
+			return -1;
 		}
 		
-		// We are in the middle of the chain - we will figure out how long the chain is before we can update
+		/**
+		 * Gives the first half of our range away, if it is worth splitting
+		 * 
+		 * @return the start of our new range, or -1 if we should not split
+		 */
+		protected int splitPoint() {
+			final int mid = (index + fence) >>> 1;
+			if(mid - index < MIN_PARALLEL_GRAIN)
+				return -1;
+			estimate >>>= 1;
+			return mid;
+		}
 		
-		while(next.next != 0) {
-			next = buckets[next.next - 1];
-			numToReslot++;
+		public long estimateSize() {
+			return estimate;
+		}
+	}
+	
+	/**
+	 * Splits the keys of the map without boxing them
+	 * 
+	 * @author Timothy
+	 */
+	private final class KeySpliterator extends SlotSpliterator implements Spliterator.OfInt {
+		KeySpliterator(int index, int fence, long estimate) {
+			super(index, fence, estimate);
 		}
 		
-		// Now we reslot everyone past the first one that isn't us
-		A result = null;
-		BucketEntry<A>[] reslot = new BucketEntry[numToReslot];
-		int reslotCounter = 0;
-		int nextInd = entr.next;
-		entr.next = 0;
-		while(nextInd != 0) {
-			next = buckets[nextInd - 1];
-			if(next.key != key) {
-				reslot[reslotCounter++] = next;
-			}else {
-				result = next.value;
-			}
-			buckets[nextInd - 1] = null;
-			nextInd = next.next;
-			next.next = 0;
+		@Override
+		public boolean tryAdvance(IntConsumer action) {
+			final int slot = nextSlot();
+			if(slot == -1)
+				return false;
+			action.accept(keyAt(slot));
+			return true;
 		}
 		
-		for(int i = 0; i < reslot.length; i++) {
-			put(reslot[i]);
+		@Override
+		public void forEachRemaining(IntConsumer action) {
+			int slot;
+			while((slot = nextSlot()) != -1)
+				action.accept(keyAt(slot));
+		}
+		
+		@Override
+		public Spliterator.OfInt trySplit() {
+			final int lo = index;
+			final int mid = splitPoint();
+			if(mid == -1)
+				return null;
+			index = mid;
+			return new KeySpliterator(lo, mid, estimate);
+		}
+		
+		@Override
+		public int characteristics() {
+			return Spliterator.DISTINCT | Spliterator.NONNULL;
 		}
-		return result;
 	}
 	
 	/**
-	 * Clears this map, not freeing the allocation table but freeing the references to the values
+	 * Splits the values of the map
+	 * 
+	 * @author Timothy
 	 */
-	public void clear() {
-		for(int i = 0; i < buckets.length; i++) {
-			buckets[i] = null;
+	private final class ValueSpliterator extends SlotSpliterator implements Spliterator<A> {
+		ValueSpliterator(int index, int fence, long estimate) {
+			super(index, fence, estimate);
+		}
+		
+		@Override
+		public boolean tryAdvance(Consumer<? super A> action) {
+			final int slot = nextSlot();
+			if(slot == -1)
+				return false;
+			action.accept(valueAt(slot));
+			return true;
+		}
+		
+		@Override
+		public void forEachRemaining(Consumer<? super A> action) {
+			int slot;
+			while((slot = nextSlot()) != -1)
+				action.accept(valueAt(slot));
+		}
+		
+		@Override
+		public Spliterator<A> trySplit() {
+			final int lo = index;
+			final int mid = splitPoint();
+			if(mid == -1)
+				return null;
+			index = mid;
+			return new ValueSpliterator(lo, mid, estimate);
+		}
+		
+		@Override
+		public int characteristics() {
+			return 0;
 		}
-		length = 0;
-		filledUpTo = 0;
 	}
 }
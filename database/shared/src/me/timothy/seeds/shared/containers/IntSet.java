@@ -0,0 +1,180 @@
+package me.timothy.seeds.shared.containers;
+
+/**
+ * A set of primitive integers, such as the ids that something applies to. This follows the same
+ * open-addressing design as OpenIntObjectMap, without the values: keys are kept in an int[],
+ * collisions are resolved by linear probing and removals shift back rather than leave tombstones.
+ * Nothing is boxed, and nothing is allocated except when growing. Has a load capacity of 3/4.
+ * 
+ * @author Timothy
+ */
+public class IntSet {
+	/** The keys for each slot, where 0 means the slot is empty */
+	private int[] keys;
+	/** keys.length - 1 */
+	private int mask;
+	/** The number of keys in the set, including the zero key */
+	private int length;
+	/** If 0 is in the set */
+	private boolean hasZeroKey;
+	
+	/**
+	 * Creates a set of integers, with an initial capacity no less than the suggested size.
+	 * 
+	 * @param suggestedSize a suggestion for the capacity of the set.
+	 */
+	public IntSet(int suggestedSize) {
+		int power = 16; // skip the first few
+		while(power < suggestedSize)
+			power <<= 1;
+		
+		keys = new int[power];
+		mask = power - 1;
+	}
+	
+	private boolean maybeExpand() {
+		int capac = keys.length;
+		if(length + 1 < (capac - (capac >> 2)))
+			return false;
+		
+		final int[] oldKeys = keys;
+		keys = new int[capac << 1];
+		mask = keys.length - 1;
+		
+		for(int i = 0; i < capac; i++) {
+			final int key = oldKeys[i];
+			if(key != 0) {
+				int slot = IntHash.mix(key) & mask;
+				while(keys[slot] != 0)
+					slot = (slot + 1) & mask;
+				keys[slot] = key;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Determines if the given key is in the set
+	 * 
+	 * @param key the key of interest
+	 * @return true if the key is in the set, false otherwise
+	 */
+	public boolean contains(int key) {
+		if(key == 0)
+			return hasZeroKey;
+		
+		int slot = IntHash.mix(key) & mask;
+		int found;
+		while((found = keys[slot]) != 0) {
+			if(found == key)
+				return true;
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+	
+	/**
+	 * Adds the given key to the set
+	 * 
+	 * @param key the key to add
+	 * @return true if the key was added, false if it was already in the set
+	 */
+	public boolean add(int key) {
+		if(key == 0) {
+			if(hasZeroKey)
+				return false;
+			hasZeroKey = true;
+			length++;
+			return true;
+		}
+		
+		int slot = IntHash.mix(key) & mask;
+		int found;
+		while((found = keys[slot]) != 0) {
+			if(found == key)
+				return false;
+			slot = (slot + 1) & mask;
+		}
+		
+		if(maybeExpand()) {
+			slot = IntHash.mix(key) & mask;
+			while(keys[slot] != 0)
+				slot = (slot + 1) & mask;
+		}
+		
+		keys[slot] = key;
+		length++;
+		return true;
+	}
+	
+	/**
+	 * Removes the given key from the set
+	 * 
+	 * @param key the key to remove
+	 * @return true if the key was removed, false if it was not in the set
+	 */
+	public boolean remove(int key) {
+		if(key == 0) {
+			if(!hasZeroKey)
+				return false;
+			hasZeroKey = false;
+			length--;
+			return true;
+		}
+		
+		int slot = IntHash.mix(key) & mask;
+		int found;
+		while((found = keys[slot]) != 0) {
+			if(found == key) {
+				length--;
+				shiftBack(slot);
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+	
+	/**
+	 * Fills the given gap by moving back any later key in the same probe run which would
+	 * still be reachable from its preferred slot at the gap. See OpenIntObjectMap.
+	 * 
+	 * @param gap the slot which was just vacated
+	 */
+	private void shiftBack(int gap) {
+		int slot = gap;
+		while(true) {
+			slot = (slot + 1) & mask;
+			final int key = keys[slot];
+			if(key == 0)
+				break;
+			
+			final int home = IntHash.mix(key) & mask;
+			if(((slot - home) & mask) >= ((slot - gap) & mask)) {
+				keys[gap] = key;
+				gap = slot;
+			}
+		}
+		keys[gap] = 0;
+	}
+	
+	/**
+	 * Returns the number of keys in the set
+	 * 
+	 * @return the number of keys in the set
+	 */
+	public int size() {
+		return length;
+	}
+	
+	/**
+	 * Clears this set, not freeing the allocation table
+	 */
+	public void clear() {
+		for(int i = 0; i < keys.length; i++) {
+			keys[i] = 0;
+		}
+		hasZeroKey = false;
+		length = 0;
+	}
+}
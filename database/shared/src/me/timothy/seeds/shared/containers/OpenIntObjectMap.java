@@ -0,0 +1,225 @@
+package me.timothy.seeds.shared.containers;
+
+/**
+ * An open-addressing counterpart to IntObjectMap. Keys are stored in an int[] and values in a
+ * parallel Object[], and collisions are resolved by linear probing. Since there are no entry
+ * objects, puts, gets and overwrites do not allocate once the map has reached its working size,
+ * and a probe usually stays within a cache line or two. Has a load capacity of 3/4.
+ *
+ * Removal shifts the remainder of the probe run backwards instead of leaving tombstones, so
+ * lookups do not degrade on delete-heavy workloads.
+ *
+ * Because 0 marks an empty slot in the key array, the value for key 0 is stored off to the side.
+ *
+ * @author Timothy
+ * @param <A> The type of the value
+ */
+@SuppressWarnings("unchecked")
+public class OpenIntObjectMap <A> implements IntKeyMap<A> {
+	/** The keys for each slot, where 0 means the slot is empty */
+	private int[] keys;
+	/** The values for each slot, parallel to keys */
+	private Object[] values;
+	/** keys.length - 1 */
+	private int mask;
+	/** The number of keys in the map, including the zero key */
+	private int length;
+	/** If the key 0 is in the map */
+	private boolean hasZeroKey;
+	/** The value associated with 0 if hasZeroKey */
+	private A zeroValue;
+
+	/**
+	 * Creates a map from integers to A's, with an initial capacity no less than
+	 * the suggested size.
+	 *
+	 * @param suggestedSize a suggestion for the capacity of the map.
+	 */
+	public OpenIntObjectMap(int suggestedSize) {
+		int power = 16; // skip the first few
+		while(power < suggestedSize)
+			power <<= 1;
+
+		keys = new int[power];
+		values = new Object[power];
+		mask = power - 1;
+	}
+
+	/**
+	 * Determines the slot that the given key would prefer to be in.
+	 *
+	 * @param key the key
+	 * @return the preferred slot of the key
+	 */
+	private int slotOf(int key) {
+		return IntHash.mix(key) & mask;
+	}
+
+	private boolean maybeExpand() {
+		int capac = keys.length;
+		if(length + 1 < (capac - (capac >> 2)))
+			return false;
+
+		final int[] oldKeys = keys;
+		final Object[] oldValues = values;
+		keys = new int[capac << 1];
+		values = new Object[capac << 1];
+		mask = keys.length - 1;
+
+		for(int i = 0; i < capac; i++) {
+			final int key = oldKeys[i];
+			if(key != 0) {
+				int slot = slotOf(key);
+				while(keys[slot] != 0)
+					slot = (slot + 1) & mask;
+				keys[slot] = key;
+				values[slot] = oldValues[i];
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public A get(int key) {
+		if(key == 0)
+			return zeroValue;
+
+		int slot = slotOf(key);
+		int found;
+		while((found = keys[slot]) != 0) {
+			if(found == key)
+				return (A) values[slot];
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+	@Override
+	public A put(int key, A value) {
+		if(key == 0) {
+			final A result = zeroValue;
+			zeroValue = value;
+			if(!hasZeroKey) {
+				hasZeroKey = true;
+				length++;
+			}
+			return result;
+		}
+
+		int slot = slotOf(key);
+		int found;
+		while((found = keys[slot]) != 0) {
+			if(found == key) {
+				final A result = (A) values[slot];
+				values[slot] = value;
+				return result;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		if(maybeExpand()) {
+			slot = slotOf(key);
+			while(keys[slot] != 0)
+				slot = (slot + 1) & mask;
+		}
+
+		keys[slot] = key;
+		values[slot] = value;
+		length++;
+		return null;
+	}
+
+	@Override
+	public A remove(int key) {
+		if(key == 0) {
+			if(!hasZeroKey)
+				return null;
+			final A result = zeroValue;
+			hasZeroKey = false;
+			zeroValue = null;
+			length--;
+			return result;
+		}
+
+		int slot = slotOf(key);
+		int found;
+		while((found = keys[slot]) != 0) {
+			if(found == key) {
+				final A result = (A) values[slot];
+				length--;
+				shiftBack(slot);
+				return result;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Fills the given gap by moving back any later entry in the same probe run which would
+	 * still be reachable from its preferred slot at the gap, repeating for the gap that leaves,
+	 * until we hit an empty slot. Afterwards every key is still reachable without tombstones.
+	 *
+	 * @param gap the slot which was just vacated
+	 */
+	private void shiftBack(int gap) {
+		int slot = gap;
+		while(true) {
+			slot = (slot + 1) & mask;
+			final int key = keys[slot];
+			if(key == 0)
+				break;
+
+			// the key may move to the gap if the gap is between its preferred slot and where it is now
+			final int home = slotOf(key);
+			if(((slot - home) & mask) >= ((slot - gap) & mask)) {
+				keys[gap] = key;
+				values[gap] = values[slot];
+				gap = slot;
+			}
+		}
+		keys[gap] = 0;
+		values[gap] = null;
+	}
+
+	@Override
+	public boolean containsKey(int key) {
+		if(key == 0)
+			return hasZeroKey;
+
+		int slot = slotOf(key);
+		int found;
+		while((found = keys[slot]) != 0) {
+			if(found == key)
+				return true;
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return length;
+	}
+
+	@Override
+	public void forEachEntry(IntObjectConsumer<? super A> consumer) {
+		if(hasZeroKey)
+			consumer.accept(0, zeroValue);
+		for(int i = 0; i < keys.length; i++) {
+			if(keys[i] != 0)
+				consumer.accept(keys[i], (A) values[i]);
+		}
+	}
+
+	@Override
+	public void clear() {
+		for(int i = 0; i < keys.length; i++) {
+			keys[i] = 0;
+			values[i] = null;
+		}
+		hasZeroKey = false;
+		zeroValue = null;
+		length = 0;
+	}
+}
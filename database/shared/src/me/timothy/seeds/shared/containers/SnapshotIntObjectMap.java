@@ -0,0 +1,273 @@
+package me.timothy.seeds.shared.containers;
+
+/**
+ * A map from primitive integers to objects for tables which are read constantly but almost
+ * never written, such as configuration. The contents are held in an immutable Snapshot, and
+ * every write builds a new snapshot and publishes it in a single volatile write. Writers are
+ * serialized with each other, but readers never lock or wait.
+ *
+ * A get costs one volatile read to find the current snapshot and then plain array reads. A
+ * reader which does many lookups in a row can call snapshot() once and query that directly,
+ * which is as cheap as reading an array and is guaranteed to be consistent across lookups.
+ *
+ * Writes copy the table, so they are O(n). Use publish to replace the whole table at once when
+ * reloading.
+ *
+ * @author Timothy
+ * @param <A> The type of the value
+ */
+@SuppressWarnings("unchecked")
+public class SnapshotIntObjectMap <A> implements IntKeyMap<A> {
+	/**
+	 * An immutable version of the map. Laid out like OpenIntObjectMap, but kept at most half
+	 * full since memory is cheap compared to probes for a table that is read this often.
+	 * Arrays are never modified once a snapshot is published, so snapshots may share them.
+	 *
+	 * @author Timothy
+	 * @param <A> The type of the value
+	 */
+	public static final class Snapshot<A> {
+		/** The keys for each slot, where 0 means the slot is empty */
+		private final int[] keys;
+		/** The values for each slot, parallel to keys */
+		private final Object[] values;
+		/** keys.length - 1 */
+		private final int mask;
+		/** The number of keys, including the zero key */
+		private final int length;
+		/** If the key 0 is in the snapshot */
+		private final boolean hasZeroKey;
+		/** The value associated with 0 if hasZeroKey */
+		private final Object zeroValue;
+
+		private Snapshot(int[] keys, Object[] values, int length, boolean hasZeroKey, Object zeroValue) {
+			this.keys = keys;
+			this.values = values;
+			this.mask = keys.length - 1;
+			this.length = length;
+			this.hasZeroKey = hasZeroKey;
+			this.zeroValue = zeroValue;
+		}
+
+		/**
+		 * Finds the slot with the given non-zero key
+		 *
+		 * @param key the key
+		 * @return the slot of the key, or -1 if it is not in the snapshot
+		 */
+		private int slotOf(int key) {
+			int slot = IntHash.mix(key) & mask;
+			int found;
+			while((found = keys[slot]) != 0) {
+				if(found == key)
+					return slot;
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		/**
+		 * Returns the value associated with the given key, or null if not known
+		 *
+		 * @param key the key of interest
+		 * @return the value for that key
+		 */
+		public A get(int key) {
+			if(key == 0)
+				return (A) zeroValue;
+			final int slot = slotOf(key);
+			return slot == -1 ? null : (A) values[slot];
+		}
+
+		/**
+		 * Determines if the given key has a value associated with it, even if that value is null
+		 *
+		 * @param key the key of interest
+		 * @return true if the key is in the snapshot, false otherwise
+		 */
+		public boolean containsKey(int key) {
+			if(key == 0)
+				return hasZeroKey;
+			return slotOf(key) != -1;
+		}
+
+		/**
+		 * Returns the number of keys in the snapshot
+		 *
+		 * @return the number of keys in the snapshot
+		 */
+		public int size() {
+			return length;
+		}
+
+		/**
+		 * Calls the consumer with every entry in the snapshot, in no particular order
+		 *
+		 * @param consumer what to call with each entry
+		 */
+		public void forEachEntry(IntObjectConsumer<? super A> consumer) {
+			if(hasZeroKey)
+				consumer.accept(0, (A) zeroValue);
+			for(int i = 0; i < keys.length; i++) {
+				if(keys[i] != 0)
+					consumer.accept(keys[i], (A) values[i]);
+			}
+		}
+	}
+
+	/** The empty snapshot which every map starts from */
+	private static final Snapshot<Object> EMPTY = new Snapshot<>(new int[16], new Object[16], 0, false, null);
+
+	/** The snapshot that readers see */
+	private volatile Snapshot<A> current;
+
+	/**
+	 * Creates an empty map
+	 */
+	public SnapshotIntObjectMap() {
+		current = (Snapshot<A>) EMPTY;
+	}
+
+	/**
+	 * Returns the current contents of the map. The result never changes, so it may be kept and
+	 * read from any thread without synchronization.
+	 *
+	 * @return the current snapshot
+	 */
+	public Snapshot<A> snapshot() {
+		return current;
+	}
+
+	/**
+	 * Finds the smallest table that keeps the given number of keys at most half full
+	 *
+	 * @param numKeys the number of keys to hold
+	 * @return the table size
+	 */
+	private static int capacityFor(int numKeys) {
+		int power = 16;
+		while(power < (numKeys << 1))
+			power <<= 1;
+		return power;
+	}
+
+	/**
+	 * Inserts the non-zero key into the given arrays, which must not already have it and must
+	 * have room for it.
+	 */
+	private static void insert(int[] keys, Object[] values, int key, Object value) {
+		final int mask = keys.length - 1;
+		int slot = IntHash.mix(key) & mask;
+		while(keys[slot] != 0)
+			slot = (slot + 1) & mask;
+		keys[slot] = key;
+		values[slot] = value;
+	}
+
+	@Override
+	public A get(int key) {
+		return current.get(key);
+	}
+
+	@Override
+	public boolean containsKey(int key) {
+		return current.containsKey(key);
+	}
+
+	@Override
+	public int size() {
+		return current.size();
+	}
+
+	@Override
+	public void forEachEntry(IntObjectConsumer<? super A> consumer) {
+		current.forEachEntry(consumer);
+	}
+
+	@Override
+	public synchronized A put(int key, A value) {
+		final Snapshot<A> old = current;
+		if(key == 0) {
+			current = new Snapshot<>(old.keys, old.values, old.hasZeroKey ? old.length : old.length + 1, true, value);
+			return (A) old.zeroValue;
+		}
+
+		final int slot = old.slotOf(key);
+		if(slot != -1) {
+			final Object[] values = old.values.clone();
+			values[slot] = value;
+			current = new Snapshot<>(old.keys, values, old.length, old.hasZeroKey, old.zeroValue);
+			return (A) old.values[slot];
+		}
+
+		final int[] keys;
+		final Object[] values;
+		final int capac = capacityFor(old.length + 1);
+		if(capac == old.keys.length) {
+			keys = old.keys.clone();
+			values = old.values.clone();
+		}else {
+			keys = new int[capac];
+			values = new Object[capac];
+			for(int i = 0; i < old.keys.length; i++) {
+				if(old.keys[i] != 0)
+					insert(keys, values, old.keys[i], old.values[i]);
+			}
+		}
+		insert(keys, values, key, value);
+		current = new Snapshot<>(keys, values, old.length + 1, old.hasZeroKey, old.zeroValue);
+		return null;
+	}
+
+	@Override
+	public synchronized A remove(int key) {
+		final Snapshot<A> old = current;
+		if(key == 0) {
+			if(!old.hasZeroKey)
+				return null;
+			current = new Snapshot<>(old.keys, old.values, old.length - 1, false, null);
+			return (A) old.zeroValue;
+		}
+
+		final int slot = old.slotOf(key);
+		if(slot == -1)
+			return null;
+
+		// rather than shifting back in a copy we just rebuild, which also shrinks the table
+		final int[] keys = new int[capacityFor(old.length - 1)];
+		final Object[] values = new Object[keys.length];
+		for(int i = 0; i < old.keys.length; i++) {
+			if(i != slot && old.keys[i] != 0)
+				insert(keys, values, old.keys[i], old.values[i]);
+		}
+		current = new Snapshot<>(keys, values, old.length - 1, old.hasZeroKey, old.zeroValue);
+		return (A) old.values[slot];
+	}
+
+	/**
+	 * Replaces the entire contents of this map with the contents of the given map, as a single
+	 * write. Readers see either all of the old contents or all of the new.
+	 *
+	 * @param contents what the map should contain
+	 */
+	public synchronized void publish(IntKeyMap<? extends A> contents) {
+		final int[] keys = new int[capacityFor(contents.size())];
+		final Object[] values = new Object[keys.length];
+		final boolean[] hasZeroKey = new boolean[1];
+		final Object[] zeroValue = new Object[1];
+		contents.forEachEntry((k, v) -> {
+			if(k == 0) {
+				hasZeroKey[0] = true;
+				zeroValue[0] = v;
+			}else {
+				insert(keys, values, k, v);
+			}
+		});
+		current = new Snapshot<>(keys, values, contents.size(), hasZeroKey[0], zeroValue[0]);
+	}
+
+	@Override
+	public synchronized void clear() {
+		current = (Snapshot<A>) EMPTY;
+	}
+}
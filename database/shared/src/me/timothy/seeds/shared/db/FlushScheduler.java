@@ -0,0 +1,246 @@
+package me.timothy.seeds.shared.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Flushes mappings in the background so that no write waits longer than a fixed budget to be
+ * flushed, which is 5 minutes unless otherwise specified. Callers no longer need to remember to
+ * flush, and a flush happens on the scheduler's thread instead of whichever request happened to
+ * call it.
+ * 
+ * Every registered mapping is checked a few times per budget. A mapping is flushed once its
+ * oldest unflushed write is half the budget old, which leaves the other half for the flush
+ * itself and for the mappings ahead of it. Since each mapping becomes due based on when it was
+ * written to, flushes are spread out over time rather than every table flushing at once, and
+ * those that are due together are flushed one after another, oldest first. A mapping which
+ * doesn't know the age of its writes is flushed every half budget.
+ * 
+ * Mappings which keep a write-ahead log also have their log committed once its commit interval
+ * passes, on a second thread so that a slow flush doesn't hold up commits. Otherwise the last
+ * writes before a quiet period would wait in the log's buffer until the next write or flush.
+ * 
+ * A mapping must be unregistered before it is closed. A flush which fails doesn't stop the
+ * others; the exception is kept and can be checked with lastFailure.
+ * 
+ * @author Timothy
+ */
+public class FlushScheduler {
+	/**
+	 * The longest a write may wait to be flushed unless otherwise specified, from the README
+	 */
+	public static final long DEFAULT_MAX_AGE_MS = 5 * 60 * 1000;
+	
+	/**
+	 * How many times per budget every mapping is checked
+	 */
+	private static final int CHECKS_PER_MAX_AGE = 30;
+	
+	/**
+	 * How often the logs are checked for a commit that is due, in milliseconds. A log commits at
+	 * most this much later than its commit interval.
+	 */
+	private static final long COMMIT_CHECK_MS = 50;
+	
+	/**
+	 * A registered mapping. Flushes and commits hold the read lock, so that unregistering can
+	 * wait for them by taking the write lock, without them waiting for each other.
+	 * 
+	 * @author Timothy
+	 */
+	private static class Registered {
+		final Mapping<?> mapping;
+		/** The System.nanoTime() of the last flush, for mappings that don't know their age */
+		volatile long lastFlush;
+		/** What the last flush which failed threw, or null if none has */
+		volatile RuntimeException lastFailure;
+		/** Held while using the mapping, and for writing while unregistering */
+		final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		/** Set once unregistered, after which the mapping is never used again. Guarded by lock. */
+		boolean unregistered;
+		
+		Registered(Mapping<?> mapping) {
+			this.mapping = mapping;
+			this.lastFlush = System.nanoTime();
+		}
+	}
+	
+	/**
+	 * The longest a write may wait to be flushed, in milliseconds
+	 */
+	private final long maxAgeMs;
+	
+	/**
+	 * How old the oldest write must be before flushing, in milliseconds
+	 */
+	private final long flushAgeMs;
+	
+	/**
+	 * Every registered mapping
+	 */
+	private final List<Registered> mappings = new CopyOnWriteArrayList<>();
+	
+	/**
+	 * The thread that flushes, or null if not started
+	 */
+	private ScheduledExecutorService executor;
+	
+	public FlushScheduler() {
+		this(DEFAULT_MAX_AGE_MS);
+	}
+	
+	/**
+	 * Creates a scheduler which keeps every write from waiting longer than the given time
+	 * 
+	 * @param maxAgeMs the longest a write may wait to be flushed, in milliseconds
+	 */
+	public FlushScheduler(long maxAgeMs) {
+		if(maxAgeMs < 2)
+			throw new IllegalArgumentException("maxAgeMs must be at least 2, got " + maxAgeMs);
+		
+		this.maxAgeMs = maxAgeMs;
+		this.flushAgeMs = maxAgeMs / 2;
+	}
+	
+	/**
+	 * Starts flushing on a background thread
+	 */
+	public synchronized void start() {
+		if(executor != null)
+			throw new IllegalStateException("Called start() when already started!");
+		
+		executor = Executors.newScheduledThreadPool(2, (r) -> {
+			Thread thread = new Thread(r, "FlushScheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		final long period = Math.max(1, maxAgeMs / CHECKS_PER_MAX_AGE);
+		executor.scheduleWithFixedDelay(this::flushDue, period, period, TimeUnit.MILLISECONDS);
+		executor.scheduleWithFixedDelay(this::commitDue, COMMIT_CHECK_MS, COMMIT_CHECK_MS, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops the background thread, waiting for a flush in progress to finish. Doesn't flush
+	 * anything itself; closing the mappings does that.
+	 */
+	public synchronized void stop() {
+		if(executor == null)
+			throw new IllegalStateException("Called stop() when not started!");
+		
+		executor.shutdown();
+		try {
+			while(!executor.awaitTermination(1, TimeUnit.SECONDS));
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}finally {
+			executor = null;
+		}
+	}
+	
+	/**
+	 * Starts keeping the given mapping flushed. The mapping should already be open.
+	 * 
+	 * @param mapping the mapping
+	 */
+	public void register(Mapping<?> mapping) {
+		mappings.add(new Registered(mapping));
+	}
+	
+	/**
+	 * Stops keeping the given mapping flushed. If it is being flushed or its log committed right
+	 * now, this waits for that to finish, so the mapping may be closed as soon as this returns.
+	 * 
+	 * @param mapping the mapping
+	 */
+	public void unregister(Mapping<?> mapping) {
+		for(Registered reg : mappings) {
+			if(reg.mapping == mapping) {
+				mappings.remove(reg);
+				reg.lock.writeLock().lock();
+				try {
+					reg.unregistered = true;
+				}finally {
+					reg.lock.writeLock().unlock();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns what the last failed flush or commit of the given mapping threw, so that a caller
+	 * can find out that its writes aren't being made durable
+	 * 
+	 * @param mapping the mapping, which must be registered
+	 * @return the exception, or null if nothing has failed
+	 */
+	public RuntimeException lastFailure(Mapping<?> mapping) {
+		for(Registered reg : mappings) {
+			if(reg.mapping == mapping)
+				return reg.lastFailure;
+		}
+		throw new IllegalArgumentException("mapping is not registered");
+	}
+	
+	/**
+	 * Flushes every registered mapping whose oldest unflushed write is at least half the budget
+	 * old, oldest first, on the calling thread. This is what the background thread runs.
+	 */
+	public void flushDue() {
+		final long now = System.nanoTime();
+		final List<Registered> due = new ArrayList<>();
+		final List<Long> ages = new ArrayList<>();
+		for(Registered reg : mappings) {
+			long age = reg.mapping.unflushedAgeMillis();
+			if(age == Mapping.UNKNOWN_AGE)
+				age = (now - reg.lastFlush) / 1000000L;
+			if(age >= flushAgeMs) {
+				int at = 0;
+				while(at < ages.size() && ages.get(at) >= age)
+					at++;
+				due.add(at, reg);
+				ages.add(at, age);
+			}
+		}
+		
+		for(Registered reg : due) {
+			reg.lock.readLock().lock();
+			try {
+				if(reg.unregistered)
+					continue; // and maybe closed since we looked
+				
+				reg.mapping.flush();
+				reg.lastFlush = System.nanoTime();
+			}catch(RuntimeException e) {
+				// one table failing to flush must not stop the others
+				reg.lastFailure = e;
+			}finally {
+				reg.lock.readLock().unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Commits the log of every registered mapping whose commit is due, on the calling thread.
+	 * This is what the second background thread runs.
+	 */
+	public void commitDue() {
+		for(Registered reg : mappings) {
+			reg.lock.readLock().lock();
+			try {
+				if(reg.unregistered)
+					continue;
+				
+				reg.mapping.maybeCommitLog();
+			}catch(RuntimeException e) {
+				reg.lastFailure = e;
+			}finally {
+				reg.lock.readLock().unlock();
+			}
+		}
+	}
+}
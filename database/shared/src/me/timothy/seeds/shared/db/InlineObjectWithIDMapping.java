@@ -1,27 +1,32 @@
 package me.timothy.seeds.shared.db;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
-import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
-import java.nio.channels.ReadableByteChannel;
-import java.nio.channels.WritableByteChannel;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
 
 import me.timothy.seeds.shared.FixedSerializer;
 import me.timothy.seeds.shared.ObjectWithID;
+import me.timothy.seeds.shared.containers.IntList;
+import me.timothy.seeds.shared.containers.IntSet;
 
 /**
  * Handles mapping an object that is typically looked up by id. This uses a FixedSerializer to allow
@@ -32,16 +37,74 @@ import me.timothy.seeds.shared.ObjectWithID;
  * The implementation is effectively a padded HashMap on a memory mapped file, with overhead for
  * serializing/deserializing and size optimizations more appropriate for this type of backing.
  * 
+ * The table grows by linear hashing: rather than rehashing everything at once when it gets too
+ * full, each put splits at most a couple of buckets, moving only the records of those buckets.
+ * Every chain only holds records from its own bucket, which is what makes a split local; a put
+ * that finds another bucket's overflow record in its home slot moves that record out of the way.
+ * The file is extended in place when it runs out of slots, and records are only ever moved as
+ * raw bytes, never deserialized. Since a chain is all one bucket, removing a record never has to
+ * reslot the rest of its chain: the next record takes over the head slot or the previous one is
+ * relinked around it, so deletes are as cheap as puts.
+ * 
+ * A single mapped buffer can't be larger than 2GB, so the file is mapped in segments of a fixed
+ * number of sectors. A record never crosses a sector, so it never crosses a segment either, and
+ * finding the segment for a slot is a shift and a mask. A table smaller than one segment is a
+ * single mapping of exactly the file's size.
+ * 
+ * The first sector of the file is a header holding the format, the table's shape, and whether
+ * the mapping was closed cleanly. A clean open only reads the header; after a crash, or for a
+ * file from before the header existed, every slot is scanned to recover the length and the
+ * first free slot. A file from before the header was also written before chains only held their
+ * own bucket's records, so opening one puts again every record that isn't reached from its own
+ * bucket. Header layout, all ints unless noted:
+ * 
+ * <pre>
+ * 0  magic
+ * 4  format version
+ * 8  padded size of each record
+ * 12 capacity (number of buckets)
+ * 16 round size
+ * 20 length
+ * 24 filled left of
+ * 28 clean (byte), 1 if closed cleanly and 0 while open
+ * </pre>
+ * 
+ * The mapping may be shared between threads. Reads take the read lock of a StampedLock and only
+ * use absolute offsets into the mapped buffers, never their positions, so any number of readers
+ * run at once. Everything that writes takes the write lock and has the buffers to itself. Reads
+ * don't try an optimistic stamp first like ConcurrentIntObjectMap, since a read that raced a
+ * split could follow a chain that is being rewritten or hand half a record to the serializer.
+ * 
+ * A caller which only needs a field or two can use view or viewAll, which hand it a RecordView
+ * over the record in the mapped file instead of deserializing it. The view is reused by each
+ * thread, so these lookups don't allocate at all.
+ * 
+ * Every sector written to is marked dirty, and flush only forces the dirty sectors, so a flush
+ * costs about as much as what was written since the last one rather than the size of the table.
+ * Forcing part of a mapping needs Java 13; before that each segment with a dirty sector is
+ * forced as a whole. A flush only holds the write lock while it writes the header and takes the
+ * dirty sectors, and forces them under the read lock, so reads go on while it waits for the disk.
+ * 
+ * Each flush also stores a CRC32 of every sector it forced in a sidecar file, filePath + ".sum",
+ * one int per sector of slots. A sector that doesn't match its checksum after a crash was written
+ * to after the last flush and may be torn. A new file starts with the checksums of its empty
+ * sectors, so an empty sum file means the file has never been checksummed, like one converted
+ * from before the header, and then no sector is suspect. So when the mapping wasn't closed cleanly, open checks
+ * every sector against its checksum in parallel, then walks every chain. A chain is cut at its
+ * first bad link. Records which can no longer be reached are put again if their sector matched,
+ * since a split the header missed may have moved them, and are otherwise appended as raw slots
+ * to filePath + ".quarantine" and freed, so that a torn write can't leave the table with a
+ * chain into garbage.
+ * 
+ * A WriteAheadLog may be attached with setWriteAheadLog. Every put and remove is then appended
+ * to the log while holding the write lock, so the log is in the same order as the mapping, and
+ * committed after the lock is released. Flushing empties the log and opening replays it.
+ * 
  * @author Timothy
  *
  * @param <A>
  */
 public class InlineObjectWithIDMapping<A extends ObjectWithID> implements Mapping<A> {
-	/**
-	 * The threshold for memory usage during a reslot where we swap to copying using
-	 * a swap file.
-	 */
-	private static final long REMOVE_RESLOT_MEMORY_THRESHOLD = 1024 * 1024 * 16; // 16 megabytes 
 	/**
 	 * Number of bytes per physical sector
 	 */
@@ -52,6 +115,73 @@ public class InlineObjectWithIDMapping<A extends ObjectWithID> implements Mappin
 	 */
 	private static final int MINIMUM_SECTORS = 16;
 	
+	/**
+	 * The number of sectors before the first slot, which hold the header
+	 */
+	private static final int HEADER_SECTORS = 1;
+	
+	/**
+	 * The first int of the header in every file we write
+	 */
+	private static final int MAGIC = 0x494F574D;
+	
+	/**
+	 * The version of the file format we write
+	 */
+	private static final int FORMAT_VERSION = 1;
+	
+	/* Where each field is in the header, see the class documentation */
+	private static final int HEADER_VERSION_OFFSET = 4;
+	private static final int HEADER_PADDED_SIZE_OFFSET = 8;
+	private static final int HEADER_CAPACITY_OFFSET = 12;
+	private static final int HEADER_ROUND_SIZE_OFFSET = 16;
+	private static final int HEADER_LENGTH_OFFSET = 20;
+	private static final int HEADER_FILLED_LEFT_OF_OFFSET = 24;
+	private static final int HEADER_CLEAN_OFFSET = 28;
+	
+	/**
+	 * The number of sectors in each mapped segment unless otherwise specified, which is 1GB
+	 */
+	private static final int DEFAULT_SECTORS_PER_SEGMENT = 1 << 18;
+	
+	/**
+	 * The largest number of sectors per segment such that offsets within a segment fit in an int
+	 */
+	private static final int MAX_SECTORS_PER_SEGMENT = 1 << 18;
+	
+	/* Where each field is within a slot */
+	private static final int SLOT_ID_OFFSET = 1;
+	private static final int SLOT_NEXT_OFFSET = 5;
+	private static final int SLOT_DATA_OFFSET = 9;
+	
+	/**
+	 * Appended to filePath for the file holding the checksum of each sector
+	 */
+	private static final String SUM_SUFFIX = ".sum";
+	
+	/**
+	 * Appended to filePath for the file that records which couldn't be recovered are moved to
+	 */
+	private static final String QUARANTINE_SUFFIX = ".quarantine";
+	
+	/**
+	 * The most buckets a single put will split. Each put adds at most one record, so splitting
+	 * two buckets at a time is enough to keep the load under 3/4 while growing.
+	 */
+	private static final int MAX_SPLITS_PER_PUT = 2;
+	
+	/**
+	 * MappedByteBuffer.force(int, int), which forces part of a mapping, or null if this is older
+	 * than Java 13 and doesn't have it
+	 */
+	private static final MethodHandle FORCE_RANGE = findForceRange();
+	
+	/**
+	 * Unmaps a MappedByteBuffer right away, taking a ByteBuffer and returning nothing, or null if
+	 * this JVM has no way to and mappings are only released when they are garbage collected
+	 */
+	private static final MethodHandle UNMAP = findUnmap();
+	
 	/** 
 	 * The thing capable of serializing the object
 	 */
@@ -63,19 +193,35 @@ public class InlineObjectWithIDMapping<A extends ObjectWithID> implements Mappin
 	private final String filePath;
 	
 	/**
-	 * The swap file we use
+	 * The actual random access file instance
 	 */
-	private final File swpFile;
+	private RandomAccessFile file;
 	
 	/**
-	 * The actual random access file instance
+	 * The checksum of each sector of slots as of the last time it was forced
 	 */
-	private RandomAccessFile file;
+	private RandomAccessFile sums;
+	
+	/**
+	 * The number of records moved to the quarantine file by the last open
+	 */
+	private int quarantined;
+	
+	/**
+	 * The memory mapped file, in order. Every segment but the last is exactly sectorsPerSegment
+	 * sectors long.
+	 */
+	private MappedByteBuffer[] segments;
+	
+	/**
+	 * log2 of the number of sectors per segment
+	 */
+	private final int segmentShift;
 	
 	/**
-	 * The memory mapped file
+	 * The number of sectors per segment - 1
 	 */
-	private MappedByteBuffer buffer;
+	private final int segmentMask;
 	
 	/**
 	 * The size that we pad every single object to, in bytes. This includes the heading bytes
@@ -92,453 +238,1618 @@ public class InlineObjectWithIDMapping<A extends ObjectWithID> implements Mappin
 	 */
 	private int filledLeftOf;
 	
+	/**
+	 * One bit per slot, set if the slot holds a record. A word is only meaningful once it is
+	 * known, which is when it has been read from the file or the file is known to be empty there.
+	 * Words are read lazily so that a clean open doesn't have to touch every slot.
+	 */
+	private long[] occupied;
+	
+	/**
+	 * One bit per word of occupied, set if that word is known
+	 */
+	private long[] occupiedKnown;
+	
+	/**
+	 * One bit per sector of slots, set if the sector has been written to since the last flush
+	 */
+	private long[] dirty;
+	
+	/**
+	 * The number of bits set in dirty
+	 */
+	private int numDirty;
+	
+	/**
+	 * The System.nanoTime() when the first of the dirty sectors was written to
+	 */
+	private long dirtySince;
+	
 	/**
 	 * The number of items in the mapping
 	 */
 	private int length;
 	
 	/**
-	 * How many sectors we have loaded
+	 * How many sectors of slots we have loaded, not counting the header
 	 */
 	private int numSectors;
 	
 	/**
-	 * The capacity, which is the nearest power of 2 below numSectors * numPerSector
+	 * The number of buckets, which is between roundSize and twice roundSize. This is the nearest
+	 * power of 2 below numSectors * numPerSector when the mapping is opened, and grows by one
+	 * with each split. The slots past the buckets are only used for overflow.
 	 */
 	private int capacity;
 	
+	/**
+	 * The number of buckets at the start of this round of splits, a power of 2. The next bucket
+	 * to split is capacity - roundSize, and once every bucket from the start of the round has
+	 * been split this doubles.
+	 */
+	private int roundSize;
+	
 	/**
 	 * Prevents this map from resizing.
 	 */
 	private boolean preventResize;
 	
+	/**
+	 * Guards everything above. Readers share the read lock and writers take the write lock.
+	 */
+	private final StampedLock lock = new StampedLock();
+	
+	/**
+	 * Held for the whole of a flush, so that one flush can't empty the log while another is still
+	 * forcing the sectors the log is for. Taken before lock.
+	 */
+	private final Object flushLock = new Object();
+	
+	/**
+	 * The view each thread reads through in view and viewAll, so that they don't allocate
+	 */
+	private final ThreadLocal<RecordView<A>> views;
+	
+	/**
+	 * The log that every put and remove is appended to, or null to rely on flush alone
+	 */
+	private WriteAheadLog<A> log;
+	
 	public InlineObjectWithIDMapping(String filePath, FixedSerializer<A> serializer) {
+		this(filePath, serializer, DEFAULT_SECTORS_PER_SEGMENT);
+	}
+	
+	/**
+	 * Creates a mapping which maps the file in segments of the given number of sectors. Smaller
+	 * segments waste less address space on the last, partially used segment, but every segment
+	 * is a separate mapping.
+	 * 
+	 * @param filePath the path to the file
+	 * @param serializer the serializer for the objects
+	 * @param sectorsPerSegment the number of sectors per segment, a power of 2 no more than 2^18
+	 */
+	public InlineObjectWithIDMapping(String filePath, FixedSerializer<A> serializer, int sectorsPerSegment) {
+		if(sectorsPerSegment <= 0 || sectorsPerSegment > MAX_SECTORS_PER_SEGMENT || Integer.bitCount(sectorsPerSegment) != 1)
+			throw new IllegalArgumentException("sectorsPerSegment must be a power of 2 no more than " + MAX_SECTORS_PER_SEGMENT + ", got " + sectorsPerSegment);
+		
 		this.filePath = filePath;
-		this.swpFile = new File(filePath + ".swp");
 		this.serializer = serializer;
 		
-		if(swpFile.exists())
-			throw new IllegalStateException("swap file already exists!");
-		
 		int actSizeEach = serializer.maxSize();
 		if(actSizeEach > SECTOR_SIZE - 9)
 			throw new IllegalArgumentException("Fixed serializer requires " + actSizeEach + " bytes, which is too many to fit in a single physical sector and thus should not be inlined");
 		
 		paddedSizeEach = actSizeEach + 9;
 		numPerSector = SECTOR_SIZE / paddedSizeEach;
+		segmentShift = Integer.numberOfTrailingZeros(sectorsPerSegment);
+		segmentMask = sectorsPerSegment - 1;
+		views = ThreadLocal.withInitial(() -> new RecordView<>(serializer));
 		
 		file = null;
-		buffer = null;
+		segments = null;
 		length = 0;
 		numSectors = 0;
 		capacity = 0;
 	}
 	
+	/**
+	 * Sets the log that this mapping appends every put and remove to, so that they are durable
+	 * once the log commits rather than once the mapping is flushed. The log is opened, replayed
+	 * and closed along with the mapping, and every flush empties it. Must be called while closed.
+	 * 
+	 * @param log the log, or null for none
+	 */
+	public void setWriteAheadLog(WriteAheadLog<A> log) {
+		final long stamp = lock.writeLock();
+		try {
+			if(segments != null)
+				throw new IllegalStateException("Cannot set the log when opened!");
+			this.log = log;
+		}finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
 	/**
 	 * Sets if this map is allowed to resize. While false, arbitrary errors occur when it exceeds
 	 * its capacity. This is only intended for testing.
 	 */
 	public void setPreventResize(boolean val) {
-		this.preventResize = val;
-		if(!val)
-			maybeExpand();
+		final long stamp = lock.writeLock();
+		try {
+			this.preventResize = val;
+			if(!val)
+				maybeExpand();
+		}finally {
+			lock.unlockWrite(stamp);
+		}
 	}
 
 	@Override
 	public void open() {
-		if(buffer != null)
+		final long stamp = lock.writeLock();
+		try {
+			openMapping();
+			if(log != null) {
+				log.open(new LogReplayer<A>() {
+					@Override
+					public void put(A a) {
+						putLocked(a);
+					}
+					
+					@Override
+					public void remove(int id) {
+						removeLocked(id);
+					}
+				});
+			}
+		}finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+	 * Opens the mapped file, without the log. Must hold the write lock.
+	 */
+	private void openMapping() {
+		if(segments != null)
 			throw new IllegalStateException("Called open() when already open!");
 		
 		File actualFile = new File(filePath);
-		if(!actualFile.exists())
+		if(!actualFile.exists() || actualFile.length() == 0)
 		{
 			try {
-				allocateFile(actualFile, MINIMUM_SECTORS);
 				file = new RandomAccessFile(actualFile, "rw");
-				buffer = file.getChannel().map(MapMode.READ_WRITE, 0, MINIMUM_SECTORS * SECTOR_SIZE);
+				sums = new RandomAccessFile(filePath + SUM_SUFFIX, "rw");
+				sums.setLength(0); // from some earlier file with this name
+				mapSegments(MINIMUM_SECTORS);
 			} catch (IOException e) {
 				throw new RuntimeException(e);
 			}
 			
 			length = 0;
+			filledLeftOf = 0;
 			numSectors = MINIMUM_SECTORS;
 			calculateCapacity();
+			allocateOccupied(true);
+			allocateDirty();
+			writeHeader(false);
+			
+			// so that a crash before the first flush isn't taken for a file without checksums
+			writeSums(0, numSectors);
+			try {
+				sums.getChannel().force(false);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
 			return;
 		}
 		
 		long numBytesL = actualFile.length();
-		if(numBytesL > Integer.MAX_VALUE)
-			throw new IllegalStateException("actualFile is too big to mmap!");
-		
-		int numBytes = (int) numBytesL;
-		numSectors = numBytes / SECTOR_SIZE;
-		if(numSectors * SECTOR_SIZE != numBytes)
+		if(numBytesL % SECTOR_SIZE != 0)
 			throw new IllegalStateException("actualFile is not a round number of sectors; can't be from us!");
-		calculateCapacity();
 		
+		boolean haveHeader;
 		try {
 			file = new RandomAccessFile(actualFile, "rw");
-			buffer = file.getChannel().map(MapMode.READ_WRITE, 0, numBytesL);
+			sums = new RandomAccessFile(filePath + SUM_SUFFIX, "rw");
+			haveHeader = file.readInt() == MAGIC;
+			if(!haveHeader) {
+				sums.setLength(0); // from some earlier file with this name
+				addHeaderSector();
+				numBytesL += HEADER_SECTORS * SECTOR_SIZE;
+			}
+			
+			if((numBytesL / SECTOR_SIZE - HEADER_SECTORS) * numPerSector > Integer.MAX_VALUE)
+				throw new IllegalStateException("actualFile has more slots than can be indexed!");
+			
+			mapSegments((int)(numBytesL / SECTOR_SIZE) - HEADER_SECTORS);
 		} catch(IOException e) {
 			throw new RuntimeException(e);
 		}
+		numSectors = (int)(numBytesL / SECTOR_SIZE) - HEADER_SECTORS;
+		
+		final MappedByteBuffer header = segments[0];
+		boolean clean = false;
+		if(haveHeader) {
+			if(header.getInt(HEADER_VERSION_OFFSET) != FORMAT_VERSION)
+				throw new IllegalStateException("actualFile has format version " + header.getInt(HEADER_VERSION_OFFSET) + " but we only understand " + FORMAT_VERSION);
+			if(header.getInt(HEADER_PADDED_SIZE_OFFSET) != paddedSizeEach)
+				throw new IllegalStateException("actualFile has records of " + header.getInt(HEADER_PADDED_SIZE_OFFSET) + " bytes but our serializer needs " + paddedSizeEach);
+			
+			capacity = header.getInt(HEADER_CAPACITY_OFFSET);
+			roundSize = header.getInt(HEADER_ROUND_SIZE_OFFSET);
+			clean = header.get(HEADER_CLEAN_OFFSET) == 1;
+		}else {
+			calculateCapacity();
+		}
 		
+		allocateOccupied(false);
+		allocateDirty();
+		quarantined = 0;
+		if(clean) {
+			length = header.getInt(HEADER_LENGTH_OFFSET);
+			filledLeftOf = header.getInt(HEADER_FILLED_LEFT_OF_OFFSET);
+		}else if(!haveHeader) {
+			recover();
+			rehome();
+			
+			// so that the first flush checksums every sector, not just the ones rehome wrote to
+			for(int sector = 0; sector < numSectors; sector++) {
+				markDirty(sector * numPerSector);
+			}
+		}else {
+			recover();
+			try {
+				repair(findSuspectSectors());
+			} catch(IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		// until we close cleanly, the length and filledLeftOf in the header can't be trusted
+		writeHeader(false);
+		forceHeader();
+	}
+	
+	/**
+	 * Recalculates the length and filledLeftOf by scanning every slot. This is only needed when
+	 * the mapping was not closed cleanly.
+	 */
+	private void recover() {
 		filledLeftOf = -1;
 		length = 0;
-		for(int index = 0; index < capacity; index++) {
-			int sector = index / numPerSector;
-			int indInsideSector = index - sector * numPerSector;
-			buffer.position(sector * SECTOR_SIZE + indInsideSector * paddedSizeEach);
-			boolean exists = buffer.get() == 1;
+		final int numSlots = numSectors * numPerSector;
+		for(int index = 0; index < numSlots; index++) {
+			boolean exists = seek(index).get() == 1;
 			if(exists) {
 				length++;
+				occupied[index >>> 6] |= 1L << index;
 			}else if(filledLeftOf == -1) {
 				filledLeftOf = index;
 			}
 		}
+		Arrays.fill(occupiedKnown, -1L);
 		
 		if(filledLeftOf == -1) {
-			throw new IllegalStateException("the entire map is full? That doesn't make sense!");
-		}
-	}
-	
-	private void calculateCapacity() { 
-		int power = 16;
-		int maxCapac = numSectors * numPerSector;
-		while(power < maxCapac) {
-			power <<= 1;
-		}
-		if(power == maxCapac) {
-			capacity = power;
-		}else {
-			capacity = power >> 1;
+			filledLeftOf = numSlots;
 		}
 	}
 	
 	/**
-	 * Creates the specified file for the first time and allocates the given number of bytes to it
+	 * Checks every sector of slots against the checksum from when it was last forced, in
+	 * parallel. A sector past the end of the sum file never matches, since it was added after the
+	 * last flush. If the sum file is empty there is nothing to check against and nothing is
+	 * suspect: the file has never been flushed with checksums, and a new file has them from the
+	 * start.
 	 * 
-	 * @param file the file to allocate
-	 * @param numSectors the number of sectors to allocate
+	 * @return the sectors which don't match, which were written to after the last flush
 	 * @throws IOException if one occurs
 	 */
-	private void allocateFile(File file, int numSectors) throws IOException {
-		byte[] block = new byte[SECTOR_SIZE];
-		try(FileOutputStream out = new FileOutputStream(file)) {
-			for(int i = 0; i < numSectors; i++) {
-				out.write(block);
-			}
-		}
-	}
-
-	@Override
-	public void flush() {
-		if(buffer == null) 
-			throw new IllegalStateException("Cannot force when not opened!");
-		
-		buffer.force();
-	}
-
-	@Override
-	public void close() {
-		if(buffer == null)
-			throw new IllegalStateException("Cannot close when not opened!");
-		
-		try {
-			buffer.force();
-			file.close();
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		} finally {
-			file = null;
-			buffer = null;
-		}
-		
-		/* 
-		 * Memory mapped files don't like to respect file closing. However, it's a serious pain for 
-		 * other classes to work around if our close function doesn't close correctly, so we force
-		 * the issue.
-		 */
-		boolean releasedLock = false;
-		File f = new File(filePath);
-		for(int i = 0; i < 10; i++) {
-			System.gc();
-			if(f.renameTo(f)) {
-				releasedLock = true;
-				break;
-			}
-			Thread.yield();
-		}
+	private int[] findSuspectSectors() throws IOException {
+		if(sums.length() == 0)
+			return new int[0];
 		
-		if(!releasedLock) {
-			// one last desperate attempt
-			try {
-				Thread.sleep(1000);
-				System.gc();
-				Thread.sleep(1000);
-
-				if(f.renameTo(f)) {
-					releasedLock = true;
-				}
-			}catch(InterruptedException e) {
-				e.printStackTrace();
-			}
+		final int[] expected = new int[numSectors];
+		final ByteBuffer stored = ByteBuffer.allocate((int)Math.min(sums.length(), numSectors * 4L));
+		final FileChannel channel = sums.getChannel();
+		while(stored.hasRemaining()) {
+			if(channel.read(stored, stored.position()) < 0)
+				throw new IllegalStateException("partial read!");
 		}
+		stored.flip();
+		stored.asIntBuffer().get(expected, 0, stored.limit() / 4);
 		
-		if(!releasedLock) {
-			throw new IllegalStateException("Failed to release file lock!");
-		}
+		return IntStream.range(0, numSectors).parallel().filter((sector) -> checksumOf(sector) != expected[sector]).toArray();
 	}
 	
 	/**
-	 * Determines if we need to expand and does so
-	 * @return true if we expanded, false otherwise
+	 * Computes the checksum of the given sector of slots. Doesn't move the buffer, so it may be
+	 * called from several threads at once.
+	 * 
+	 * @param sector the sector, not counting the header
+	 * @return the checksum of the sector
 	 */
-	private boolean maybeExpand() {
-		if(preventResize || (length + 1) < (capacity - (capacity >> 2)))
-			return false; // 3/4 load factor
+	private int checksumOf(int sector) {
+		final int fileSector = sector + HEADER_SECTORS;
+		final ByteBuffer view = segments[fileSector >>> segmentShift].duplicate();
+		final int start = (fileSector & segmentMask) * SECTOR_SIZE;
+		view.limit(start + SECTOR_SIZE);
+		view.position(start);
+		final CRC32 crc = new CRC32();
+		crc.update(view);
+		return (int)crc.getValue();
+	}
+	
+	/**
+	 * Makes sure every chain is intact and every record can be reached from its bucket. This is
+	 * needed after any crash, even one where every sector matches its checksum, because the
+	 * header is written back on its own schedule: the capacity in it may be from before or after
+	 * splits whose moves made it to disk.
+	 * 
+	 * Slots in suspect sectors whose exists byte is torn are moved to the quarantine file, and so
+	 * are records in suspect sectors with the same id as another record. A split copies a record
+	 * before it frees the original, and the copy in a sector which matches its checksum is the
+	 * one that was flushed, so that is the one kept. Then every chain is walked from its bucket
+	 * and cut at the first link which leads out of the table, to an empty slot, to a record of
+	 * another bucket, or back into the chain. A record which no walk reaches was either moved by
+	 * a split the header doesn't know about or cut off by a torn write. If it is in a suspect
+	 * sector it is quarantined, and otherwise it is put again, which files it under the bucket
+	 * the header's capacity gives it. Must be called after recover(). This may move the buffer!
+	 * 
+	 * @param suspectSectors the sectors which may be torn, in order
+	 * @throws IOException if one occurs
+	 */
+	private void repair(int[] suspectSectors) throws IOException {
+		final int numSlots = numSectors * numPerSector;
+		final long[] suspect = new long[((numSectors - 1) >>> 6) + 1];
+		for(int sector : suspectSectors) {
+			suspect[sector >>> 6] |= 1L << sector;
+		}
 		
-		// This is far from ideal, but presumably it doesn't happen very often
+		FileOutputStream quarantine = null;
+		final List<A> displaced = new ArrayList<>();
 		try {
-			final int oldNumSectors = numSectors;
-			final File tmpFile = new File(filePath + ".tmp");
-			
-			close();
-			Files.move(Paths.get(filePath), tmpFile.toPath());
-			
-			capacity <<= 1;
-			numSectors = (int)Math.ceil(capacity / (double)numPerSector);
-
-			byte[] block = new byte[SECTOR_SIZE];
-			File actualFile = new File(filePath);
-			try(FileOutputStream fos = new FileOutputStream(actualFile)) {
-				for(int i = 0; i < numSectors; i++) {
-					fos.write(block);
+			// torn slots, and the ids of the records in suspect sectors
+			final IntSet suspectIDs = new IntSet(16);
+			for(int sector : suspectSectors) {
+				for(int i = sector * numPerSector; i < (sector + 1) * numPerSector; i++) {
+					final MappedByteBuffer segment = segmentOf(i);
+					final int pos = positionOf(i);
+					final byte exists = segment.get(pos);
+					if(exists != 0 && exists != 1) {
+						quarantine = quarantine(quarantine, i);
+						segment.put(pos, (byte)0);
+						markDirty(i);
+					}else if(exists == 1 && !suspectIDs.add(segment.getInt(pos + SLOT_ID_OFFSET))) {
+						quarantine = quarantine(quarantine, i);
+						freeSlot(i);
+						length--;
+					}
 				}
 			}
-
-			file = new RandomAccessFile(actualFile, "rw");
-			buffer = file.getChannel().map(MapMode.READ_WRITE, 0, numSectors * SECTOR_SIZE);
-			filledLeftOf = 0;
-			length = 0;
 			
-			ByteBuffer blockWr = ByteBuffer.wrap(block);
-			try(FileInputStream fis = new FileInputStream(tmpFile)) {
-				for(int sector = 0; sector < oldNumSectors; sector++) {
-					fis.read(block);
-					for(int i = 0; i < block.length; i += paddedSizeEach) {
-						blockWr.position(i);
-						if(blockWr.get() == 1) { // exists
-							final int id = blockWr.getInt(); // id
-							blockWr.getInt(); // next
-							final A val = serializer.read(id, blockWr);
-							put(val);
+			// records in suspect sectors which were also flushed somewhere else
+			if(suspectIDs.size() > 0) {
+				final IntSet flushed = new IntSet(16);
+				for(int i = 0; i < numSlots; i++) {
+					final MappedByteBuffer segment = segmentOf(i);
+					final int pos = positionOf(i);
+					if(segment.get(pos) == 1 && !isSuspect(suspect, i) && suspectIDs.contains(segment.getInt(pos + SLOT_ID_OFFSET)))
+						flushed.add(segment.getInt(pos + SLOT_ID_OFFSET));
+				}
+				if(flushed.size() > 0) {
+					for(int sector : suspectSectors) {
+						for(int i = sector * numPerSector; i < (sector + 1) * numPerSector; i++) {
+							final MappedByteBuffer segment = segmentOf(i);
+							final int pos = positionOf(i);
+							if(segment.get(pos) == 1 && flushed.contains(segment.getInt(pos + SLOT_ID_OFFSET))) {
+								quarantine = quarantine(quarantine, i);
+								freeSlot(i);
+								length--;
+							}
 						}
 					}
 				}
 			}
-			tmpFile.delete();
-		} catch (IOException e) {
-			throw new RuntimeException(e);
+			
+			// everything no chain reaches is either torn or in the wrong bucket
+			final IntList unreached = cutChains();
+			for(int k = 0; k < unreached.size(); k++) {
+				final int i = unreached.get(k);
+				final MappedByteBuffer segment = segmentOf(i);
+				final int pos = positionOf(i);
+				if(isSuspect(suspect, i))
+					quarantine = quarantine(quarantine, i);
+				else
+					displaced.add(read(segment.getInt(pos + SLOT_ID_OFFSET), segment, pos));
+				freeSlot(i);
+				length--;
+			}
+		}finally {
+			if(quarantine != null)
+				quarantine.close();
 		}
 		
-		return true;
+		for(A a : displaced) {
+			putLocked(a);
+		}
 	}
 	
 	/**
-	 * This increments filled left of until we get to an empty spot. This will
-	 * move the buffer!
+	 * Puts again every record which can't be reached from its own bucket. The mapping used to
+	 * put a record whose home slot was taken at the end of whatever chain started there, even one
+	 * of another bucket, so a file from before the header may have chains running through several
+	 * buckets. Must be called after recover(). This may move the buffer!
 	 */
-	private void incrementFilledLeftOf() {
-		while(true) {
-			filledLeftOf++;
-			int sector = filledLeftOf / numPerSector;
-			int inIndSec = filledLeftOf - sector * numPerSector;
-			
-			buffer.position(sector * SECTOR_SIZE + inIndSec * paddedSizeEach);
-			if(buffer.get() == 0)
-				break;
+	private void rehome() {
+		final IntList unreached = cutChains();
+		final List<A> displaced = new ArrayList<>(unreached.size());
+		for(int k = 0; k < unreached.size(); k++) {
+			final int i = unreached.get(k);
+			final MappedByteBuffer segment = segmentOf(i);
+			final int pos = positionOf(i);
+			displaced.add(read(segment.getInt(pos + SLOT_ID_OFFSET), segment, pos));
+			freeSlot(i);
+			length--;
+		}
+		
+		for(A a : displaced) {
+			putLocked(a);
 		}
 	}
 	
 	/**
-	 * For debugging only
+	 * Walks every chain from its bucket and cuts it at the first link which leads out of the
+	 * table, to an empty slot, to a record of another bucket, or back into the chain. This may
+	 * move the buffer!
+	 * 
+	 * @return the slots holding a record which no chain reaches, in order
 	 */
-	public void assertSane() {
-		HashSet<Integer> ids = new HashSet<>();
-		HashSet<Integer> filledIndexes = new HashSet<>();
-		HashSet<Integer> shouldBeFilledIndexes = new HashSet<>();
-		for(int i = 0; i < capacity; i++) {
-			int sector = i / numPerSector;
-			int inIndSec = i - sector * numPerSector;
+	private IntList cutChains() {
+		final int numSlots = numSectors * numPerSector;
+		final long[] reached = new long[((numSlots - 1) >>> 6) + 1];
+		for(int bucket = 0; bucket < capacity; bucket++) {
+			MappedByteBuffer segment = segmentOf(bucket);
+			int pos = positionOf(bucket);
+			if(segment.get(pos) != 1 || bucketOf(segment.getInt(pos + SLOT_ID_OFFSET)) != bucket)
+				continue; // empty, or another bucket's overflow which that bucket's walk finds
 			
-			buffer.position(sector * SECTOR_SIZE + inIndSec * paddedSizeEach);
-			boolean exists = buffer.get() == 1;
-			
-			if(exists) {
-				shouldBeFilledIndexes.remove(i);
-				filledIndexes.add(i);
-				int id = buffer.getInt();
-				if(ids.contains(id))
-					throw new IllegalStateException("duplicate id");
-				ids.add(id);
+			reached[bucket >>> 6] |= 1L << bucket;
+			int prev = bucket;
+			while(true) {
+				final int next = segment.getInt(pos + SLOT_NEXT_OFFSET);
+				if(next == 0)
+					break;
 				
-				int next = buffer.getInt();
-				if(next != 0) {
-					if(next < i) {
-						if(!filledIndexes.contains(next - 1))
-							throw new IllegalStateException("index " + (next - 1) + " should have been filled; i=" + i + ", next=" + next);
-					}else {
-						shouldBeFilledIndexes.add(next - 1);
-					}
+				final int target = next - 1;
+				boolean good = target >= 0 && target < numSlots && (reached[target >>> 6] & (1L << target)) == 0;
+				if(good) {
+					segment = segmentOf(target);
+					pos = positionOf(target);
+					good = segment.get(pos) == 1 && bucketOf(segment.getInt(pos + SLOT_ID_OFFSET)) == bucket;
 				}
-			}else if(shouldBeFilledIndexes.contains(i)) {
-				throw new IllegalStateException("index " + i + " should be filled");
+				if(!good) {
+					setNext(prev, 0);
+					break;
+				}
+				reached[target >>> 6] |= 1L << target;
+				prev = target;
 			}
 		}
+		
+		final IntList unreached = new IntList(16);
+		for(int i = 0; i < numSlots; i++) {
+			if(segmentOf(i).get(positionOf(i)) == 1 && (reached[i >>> 6] & (1L << i)) == 0)
+				unreached.add(i);
+		}
+		return unreached;
 	}
 	
 	/**
-	 * Returns an interator over all of the elements in this mapping. Not thread-safe,
-	 * not safe to changes, not fail-fast, O(n) performance with a high constant factor
+	 * Determines if the given slot is in one of the given sectors
 	 * 
-	 * @return an iterator over the entire mapping
+	 * @param suspect a bitmap of sectors
+	 * @param index the slot
+	 * @return true if the slot's sector is in the bitmap
 	 */
-	public Iterator<A> iterAll() {
-		return new InlineObjectWithIDMappingIter();
+	private boolean isSuspect(long[] suspect, int index) {
+		final int sector = index / numPerSector;
+		return (suspect[sector >>> 6] & (1L << sector)) != 0;
 	}
 	
 	/**
-	 * Puts the given object into the mapping. Overwrites the existing value if there is
-	 * one.
+	 * Appends the raw bytes of the given slot to the quarantine file, opening it if needed
 	 * 
-	 * @param a the object to write
+	 * @param out the quarantine file, or null if it isn't open yet
+	 * @param index the slot
+	 * @return the quarantine file
+	 * @throws IOException if one occurs
 	 */
-	public void put(A a) {
-		final int ind = a.id() & (capacity - 1);
-		final int sector = ind / numPerSector;
-		final int inIndSec = ind - sector * numPerSector;
-		
-		buffer.position(sector * SECTOR_SIZE + inIndSec * paddedSizeEach);
-		buffer.mark();
-		if(buffer.get() == 0) {
-			length++;
-			buffer.reset();
-			buffer.put((byte)1); // exists
-			buffer.putInt(a.id()); // id
-			buffer.putInt(0); // next
-			serializer.write(a, buffer);
-			
-			if(filledLeftOf == ind) {
-				if(capacity == filledLeftOf + 1) {
-					maybeExpand();
-					return;
-				}
-				
-				incrementFilledLeftOf();
-			}
-			return;
-		}
+	private FileOutputStream quarantine(FileOutputStream out, int index) throws IOException {
+		if(out == null)
+			out = new FileOutputStream(filePath + QUARANTINE_SUFFIX, true);
 		
-		final int ogCollisionInd = buffer.getInt();
-		if(ogCollisionInd == a.id()) {
-			buffer.getInt(); // next
-			serializer.write(a, buffer);
-			return;
-		}
-		
-		if(maybeExpand()) {
-			put(a);
-			return;
+		final ByteBuffer slot = segmentOf(index).duplicate();
+		final int pos = positionOf(index);
+		slot.limit(pos + paddedSizeEach);
+		slot.position(pos);
+		while(slot.hasRemaining()) {
+			out.getChannel().write(slot);
+		}
+		quarantined++;
+		return out;
+	}
+	
+	/**
+	 * Returns how many records the last open couldn't recover and moved to the quarantine file,
+	 * which is always 0 if the mapping was closed cleanly
+	 * 
+	 * @return the number of records quarantined
+	 */
+	public int quarantinedAtOpen() {
+		final long stamp = lock.readLock();
+		try {
+			return quarantined;
+		}finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * Allocates the occupancy bitmap for the current number of slots
+	 * 
+	 * @param known true if the slots are known to be empty, false if they must be read when needed
+	 */
+	private void allocateOccupied(boolean known) {
+		final int numWords = ((numSectors * numPerSector - 1) >>> 6) + 1;
+		occupied = new long[numWords];
+		occupiedKnown = new long[((numWords - 1) >>> 6) + 1];
+		if(known)
+			Arrays.fill(occupiedKnown, -1L);
+	}
+	
+	/**
+	 * Allocates the dirty bitmap for the current number of sectors, with nothing dirty
+	 */
+	private void allocateDirty() {
+		dirty = new long[((numSectors - 1) >>> 6) + 1];
+		numDirty = 0;
+	}
+	
+	/**
+	 * Records that the sector of the given slot has been written to. Doesn't move the buffer.
+	 * 
+	 * @param index the slot
+	 */
+	private void markDirty(int index) {
+		final int sector = index / numPerSector;
+		final long bit = 1L << sector;
+		if((dirty[sector >>> 6] & bit) == 0) {
+			dirty[sector >>> 6] |= bit;
+			if(numDirty++ == 0)
+				dirtySince = System.nanoTime();
+		}
+	}
+	
+	/**
+	 * Returns the number of sectors which have been written to since the last flush, which is
+	 * about how many pages the next flush will write out
+	 * 
+	 * @return the number of dirty sectors
+	 */
+	public int dirtySectors() {
+		final long stamp = lock.readLock();
+		try {
+			return numDirty;
+		}finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * Returns how long ago the first sector written to since the last flush was written to
+	 * 
+	 * @return the age in milliseconds, or NOTHING_UNFLUSHED
+	 */
+	@Override
+	public long unflushedAgeMillis() {
+		final long stamp = lock.readLock();
+		try {
+			if(segments == null || numDirty == 0)
+				return NOTHING_UNFLUSHED;
+			return (System.nanoTime() - dirtySince) / 1000000L;
+		}finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * Commits the write-ahead log if there is one and its commit is due. The commit happens
+	 * outside the lock, so puts aren't held up while it forces the log.
+	 */
+	@Override
+	public void maybeCommitLog() {
+		final WriteAheadLog<A> log;
+		final long stamp = lock.readLock();
+		try {
+			if(segments == null)
+				return;
+			log = this.log;
+		}finally {
+			lock.unlockRead(stamp);
+		}
+		if(log != null)
+			log.maybeCommit();
+	}
+	
+	/**
+	 * Returns the word of the occupancy bitmap for the given word index, reading it from the
+	 * file if it isn't known yet. This may move the buffer!
+	 * 
+	 * @param word the index of the word
+	 * @return the bits for the 64 slots starting at word * 64
+	 */
+	private long occupiedWord(int word) {
+		if((occupiedKnown[word >>> 6] & (1L << word)) == 0) {
+			final int first = word << 6;
+			final int last = Math.min(first + 64, numSectors * numPerSector);
+			long bits = 0;
+			for(int i = first; i < last; i++) {
+				if(seek(i).get() == 1)
+					bits |= 1L << i;
+			}
+			occupied[word] = bits;
+			occupiedKnown[word >>> 6] |= 1L << word;
+		}
+		return occupied[word];
+	}
+	
+	/**
+	 * Records that the given slot now holds a record. Doesn't move the buffer.
+	 * 
+	 * @param index the slot
+	 */
+	private void markFilled(int index) {
+		final int word = index >>> 6;
+		if((occupiedKnown[word >>> 6] & (1L << word)) != 0)
+			occupied[word] |= 1L << index;
+	}
+	
+	/**
+	 * Records that the given slot is now empty. Doesn't move the buffer.
+	 * 
+	 * @param index the slot
+	 */
+	private void markEmpty(int index) {
+		final int word = index >>> 6;
+		if((occupiedKnown[word >>> 6] & (1L << word)) != 0)
+			occupied[word] &= ~(1L << index);
+	}
+	
+	/**
+	 * Finds the first empty slot at or after the given one, 64 slots at a time
+	 * 
+	 * @param from the first slot to consider
+	 * @return the first empty slot, or the number of slots if there is none
+	 */
+	private int nextFreeSlot(int from) {
+		final int numSlots = numSectors * numPerSector;
+		if(from >= numSlots)
+			return numSlots;
+		
+		int word = from >>> 6;
+		long free = ~occupiedWord(word) & (-1L << from);
+		while(free == 0) {
+			word++;
+			if((word << 6) >= numSlots)
+				return numSlots;
+			free = ~occupiedWord(word);
+		}
+		return Math.min(numSlots, (word << 6) + Long.numberOfTrailingZeros(free));
+	}
+	
+	/**
+	 * Converts a file from before the header existed by moving every sector up to make room
+	 * for it. The file must be open but not mapped. This reads and writes the entire file, but
+	 * only happens once. The chains in such a file may run through several buckets, so once it
+	 * is mapped rehome() has to file every record under its own bucket.
+	 * 
+	 * @throws IOException if one occurs
+	 */
+	private void addHeaderSector() throws IOException {
+		final FileChannel channel = file.getChannel();
+		final ByteBuffer chunk = ByteBuffer.allocate(SECTOR_SIZE * 256);
+		
+		long end = channel.size();
+		while(end > 0) {
+			final long start = Math.max(0, end - chunk.capacity());
+			chunk.clear();
+			chunk.limit((int)(end - start));
+			while(chunk.hasRemaining()) {
+				if(channel.read(chunk, start + chunk.position()) < 0)
+					throw new IllegalStateException("partial read!");
+			}
+			chunk.flip();
+			while(chunk.hasRemaining()) {
+				channel.write(chunk, start + HEADER_SECTORS * SECTOR_SIZE + chunk.position());
+			}
+			end = start;
+		}
+		
+		chunk.clear();
+		chunk.limit(HEADER_SECTORS * SECTOR_SIZE);
+		while(chunk.hasRemaining()) {
+			channel.write(chunk, chunk.position());
+		}
+	}
+	
+	/**
+	 * Writes the current state of the table into the header
+	 * 
+	 * @param clean true if the slots are all written out and the mapping is about to be closed
+	 */
+	private void writeHeader(boolean clean) {
+		final MappedByteBuffer header = segments[0];
+		header.putInt(0, MAGIC);
+		header.putInt(HEADER_VERSION_OFFSET, FORMAT_VERSION);
+		header.putInt(HEADER_PADDED_SIZE_OFFSET, paddedSizeEach);
+		header.putInt(HEADER_CAPACITY_OFFSET, capacity);
+		header.putInt(HEADER_ROUND_SIZE_OFFSET, roundSize);
+		header.putInt(HEADER_LENGTH_OFFSET, length);
+		header.putInt(HEADER_FILLED_LEFT_OF_OFFSET, filledLeftOf);
+		header.put(HEADER_CLEAN_OFFSET, clean ? (byte)1 : (byte)0);
+	}
+	
+	/**
+	 * Maps the header and the given number of sectors of slots, extending the file if it is
+	 * shorter. Must be called before numSectors is updated. Segments which were already full
+	 * are kept as they are.
+	 * 
+	 * @param newNumSectors the number of sectors of slots to map
+	 * @throws IOException if one occurs
+	 */
+	private void mapSegments(int newNumSectors) throws IOException {
+		final int totalSectors = newNumSectors + HEADER_SECTORS;
+		final int numSegments = ((totalSectors - 1) >>> segmentShift) + 1;
+		final MappedByteBuffer[] newSegments = new MappedByteBuffer[numSegments];
+		
+		int first = 0;
+		if(segments != null) {
+			first = (numSectors + HEADER_SECTORS) >>> segmentShift;
+			System.arraycopy(segments, 0, newSegments, 0, first);
+		}
+		
+		// mapping past the end of the file extends it, without writing the zeros out
+		final FileChannel channel = file.getChannel();
+		for(int i = first; i < numSegments; i++) {
+			final int firstSector = i << segmentShift;
+			final int sectorsInSegment = Math.min(totalSectors - firstSector, segmentMask + 1);
+			newSegments[i] = channel.map(MapMode.READ_WRITE, (long)firstSector * SECTOR_SIZE, (long)sectorsInSegment * SECTOR_SIZE);
+		}
+		
+		// the old partial segments are covered by the new ones, and nobody can be reading them
+		final MappedByteBuffer[] oldSegments = segments;
+		segments = newSegments;
+		if(oldSegments != null) {
+			for(int i = first; i < oldSegments.length; i++) {
+				unmap(oldSegments[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Finds the segment containing the given slot and positions it at the start of the slot.
+	 * Only for writers, since it moves the segment.
+	 * 
+	 * @param index the slot
+	 * @return the segment, positioned at the exists byte of the slot
+	 */
+	private MappedByteBuffer seek(int index) {
+		final MappedByteBuffer segment = segmentOf(index);
+		segment.position(positionOf(index));
+		return segment;
+	}
+	
+	/**
+	 * Finds the segment containing the given slot. Doesn't move the buffer.
+	 * 
+	 * @param index the slot
+	 * @return the segment containing the slot
+	 */
+	private MappedByteBuffer segmentOf(int index) {
+		return segments[(index / numPerSector + HEADER_SECTORS) >>> segmentShift];
+	}
+	
+	/**
+	 * Finds the offset of the given slot within its segment
+	 * 
+	 * @param index the slot
+	 * @return the offset of the exists byte of the slot within segmentOf(index)
+	 */
+	private int positionOf(int index) {
+		final int slotSector = index / numPerSector;
+		return ((slotSector + HEADER_SECTORS) & segmentMask) * SECTOR_SIZE + (index - slotSector * numPerSector) * paddedSizeEach;
+	}
+	
+	/**
+	 * Deserializes the record at the given offset through a view of the segment, so that readers
+	 * never share a position
+	 * 
+	 * @param id the id of the record
+	 * @param segment the segment the record is in
+	 * @param pos the offset of the record's exists byte within the segment
+	 * @return the record
+	 */
+	private A read(int id, MappedByteBuffer segment, int pos) {
+		final ByteBuffer view = segment.duplicate();
+		view.position(pos + SLOT_DATA_OFFSET);
+		return serializer.read(id, view);
+	}
+	
+	private void calculateCapacity() { 
+		int power = 16;
+		int maxCapac = numSectors * numPerSector;
+		while(power < maxCapac) {
+			power <<= 1;
+		}
+		if(power == maxCapac) {
+			capacity = power;
+		}else {
+			capacity = power >> 1;
+		}
+		roundSize = capacity;
+	}
+	
+	@Override
+	public void flush() {
+		synchronized(flushLock) {
+			long stamp = lock.writeLock();
+			try {
+				if(segments == null) 
+					throw new IllegalStateException("Cannot force when not opened!");
+				
+				final long since = dirtySince;
+				final long[] toForce = takeDirty();
+				stamp = lock.tryConvertToReadLock(stamp); // always succeeds from the write lock
+				try {
+					forceDirty(toForce);
+				}catch(RuntimeException | Error e) {
+					// those sectors still need forcing by the next flush
+					lock.unlockRead(stamp);
+					stamp = lock.writeLock();
+					if(segments != null)
+						restoreDirty(toForce, since);
+					throw e;
+				}
+			}finally {
+				lock.unlock(stamp);
+			}
+		}
+	}
+	
+	/**
+	 * Writes the header and forces it and every dirty sector, then empties the log. Must hold
+	 * the write lock.
+	 */
+	private void forceAll() {
+		forceDirty(takeDirty());
+	}
+	
+	/**
+	 * Writes the header and takes the dirty sectors, leaving none dirty. Must hold the write lock.
+	 * 
+	 * @return a bitmap of the sectors which were dirty, for forceDirty
+	 */
+	private long[] takeDirty() {
+		writeHeader(false);
+		final long[] toForce = dirty;
+		dirty = new long[toForce.length];
+		numDirty = 0;
+		return toForce;
+	}
+	
+	/**
+	 * Marks the given sectors dirty again, after forcing them failed. Must hold the write lock.
+	 * 
+	 * @param toForce the bitmap from takeDirty
+	 * @param since when the first of them was written to
+	 */
+	private void restoreDirty(long[] toForce, long since) {
+		boolean any = false;
+		for(int i = 0; i < toForce.length; i++) {
+			any |= toForce[i] != 0;
+			dirty[i] |= toForce[i];
+		}
+		if(!any)
+			return;
+		
+		numDirty = 0;
+		for(long word : dirty) {
+			numDirty += Long.bitCount(word);
+		}
+		dirtySince = since; // it was dirty before anything written since
+	}
+	
+	/**
+	 * Forces the header and the given sectors and stores their checksums, then empties the log.
+	 * This doesn't move the buffers or change the table, so the read lock is enough, but no
+	 * write may happen between takeDirty and the end of this or the log would be emptied of a
+	 * record which isn't forced.
+	 * 
+	 * @param toForce the bitmap from takeDirty
+	 */
+	private void forceDirty(long[] toForce) {
+		forceHeader();
+		
+		boolean forcedAny = false;
+		int forcedSegment = -1;
+		for(int sector = 0; sector < numSectors; ) {
+			final long word = toForce[sector >>> 6] & (-1L << sector);
+			if(word == 0) {
+				sector = (sector | 63) + 1;
+				continue;
+			}
+			
+			// force each run of dirty sectors at once, but a run can't cross into the next segment
+			final int start = (sector & ~63) + Long.numberOfTrailingZeros(word);
+			int end = start + 1;
+			while(end < numSectors && (toForce[end >>> 6] & (1L << end)) != 0 && ((end + HEADER_SECTORS) & segmentMask) != 0)
+				end++;
+			
+			final int segmentIndex = (start + HEADER_SECTORS) >>> segmentShift;
+			if(FORCE_RANGE != null) {
+				forceRange(segments[segmentIndex], ((start + HEADER_SECTORS) & segmentMask) * SECTOR_SIZE, (end - start) * SECTOR_SIZE);
+			}else if(segmentIndex != forcedSegment) {
+				segments[segmentIndex].force();
+				forcedSegment = segmentIndex;
+			}
+			writeSums(start, end); // only once the sectors are forced, so a crash leaves them suspect
+			forcedAny = true;
+			sector = end;
+		}
+		
+		if(forcedAny) {
+			try {
+				sums.getChannel().force(false);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		// everything logged so far is in the file now
+		if(log != null)
+			log.checkpoint();
+	}
+	
+	/**
+	 * Writes the checksums of the given sectors to the sum file, without forcing it
+	 * 
+	 * @param start the first sector
+	 * @param end the sector after the last
+	 */
+	private void writeSums(int start, int end) {
+		final ByteBuffer buf = ByteBuffer.allocate((end - start) * 4);
+		for(int sector = start; sector < end; sector++) {
+			buf.putInt(checksumOf(sector));
+		}
+		buf.flip();
+		try {
+			final FileChannel channel = sums.getChannel();
+			while(buf.hasRemaining()) {
+				channel.write(buf, start * 4L + buf.position());
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Forces the header sectors
+	 */
+	private void forceHeader() {
+		if(FORCE_RANGE != null)
+			forceRange(segments[0], 0, HEADER_SECTORS * SECTOR_SIZE);
+		else
+			segments[0].force();
+	}
+	
+	/**
+	 * Forces part of the given segment. Only call if FORCE_RANGE is not null.
+	 * 
+	 * @param segment the segment
+	 * @param offset the first byte to force
+	 * @param len the number of bytes to force
+	 */
+	private static void forceRange(MappedByteBuffer segment, int offset, int len) {
+		try {
+			FORCE_RANGE.invoke(segment, offset, len);
+		}catch(RuntimeException | Error e) {
+			throw e;
+		}catch(Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Looks up MappedByteBuffer.force(int, int)
+	 * 
+	 * @return a handle to it, or null if it doesn't exist
+	 */
+	private static MethodHandle findForceRange() {
+		try {
+			return MethodHandles.publicLookup().findVirtual(MappedByteBuffer.class, "force", MethodType.methodType(MappedByteBuffer.class, int.class, int.class));
+		}catch(NoSuchMethodException | IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Unmaps the given segment now, if this JVM allows it. The segment must never be touched
+	 * again, since reading an unmapped buffer crashes the JVM rather than throwing. Anything
+	 * written to it is not lost, since it is in the file's page cache either way.
+	 * 
+	 * @param segment the segment to unmap
+	 */
+	private static void unmap(MappedByteBuffer segment) {
+		if(UNMAP == null)
+			return; // left for the garbage collector
+		
+		try {
+			UNMAP.invoke((ByteBuffer)segment);
+		}catch(RuntimeException | Error e) {
+			throw e;
+		}catch(Throwable e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Looks up a way to unmap a MappedByteBuffer. That's sun.misc.Unsafe.invokeCleaner on Java 9
+	 * and later and the buffer's cleaner on Java 8.
+	 * 
+	 * @return a handle taking a ByteBuffer, or null if neither exists
+	 */
+	private static MethodHandle findUnmap() {
+		try {
+			final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			final MethodHandle invokeCleaner = MethodHandles.lookup().findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class));
+			final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			return invokeCleaner.bindTo(theUnsafe.get(null));
+		}catch(ReflectiveOperationException | RuntimeException e) {
+			// older than Java 9
+		}
+		
+		try {
+			final MethodHandle cleaner = MethodHandles.lookup().unreflect(Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner"));
+			final MethodHandle clean = MethodHandles.lookup().unreflect(Class.forName("sun.misc.Cleaner").getMethod("clean"));
+			return MethodHandles.filterReturnValue(cleaner, clean).asType(MethodType.methodType(void.class, ByteBuffer.class));
+		}catch(ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Closes the mapping. The header is only marked clean once everything else is written out,
+	 * so that the next open can trust it.
+	 */
+	@Override
+	public void close() {
+		final long stamp = lock.writeLock();
+		try {
+			if(segments == null)
+				throw new IllegalStateException("Cannot close when not opened!");
+			
+			forceAll();
+			writeHeader(true);
+			forceHeader();
+			release();
+			if(log != null)
+				log.close();
+		}finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+	 * Unmaps the file and closes it. Everything must already be forced.
+	 */
+	private void release() {
+		try {
+			for(MappedByteBuffer segment : segments) {
+				unmap(segment);
+			}
+			file.close();
+			sums.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			file = null;
+			sums = null;
+			segments = null;
+		}
+	}
+	
+	/**
+	 * Determines if we need to expand and does so, splitting at most MAX_SPLITS_PER_PUT buckets
+	 * 
+	 * @return true if we expanded, false otherwise
+	 */
+	private boolean maybeExpand() {
+		boolean expanded = false;
+		for(int i = 0; i < MAX_SPLITS_PER_PUT; i++) {
+			if(preventResize || (length + 1) < (capacity - (capacity >> 2)))
+				break; // 3/4 load factor
+			split();
+			expanded = true;
+		}
+		return expanded;
+	}
+	
+	/**
+	 * Adds one bucket by splitting the next bucket of this round. The records of the split bucket
+	 * either stay or move to the new bucket, depending on the next bit of their id, and no other
+	 * bucket is touched. Grows the file first if there is no slot for the new bucket.
+	 */
+	private void split() {
+		if(capacity == numSectors * numPerSector)
+			growFile();
+		
+		final int bucket = capacity - roundSize;
+		MappedByteBuffer buffer = seek(bucket);
+		final boolean haveChain = buffer.get() == 1 && bucketOf(buffer.getInt()) == bucket; // may be another bucket's overflow
+		
+		capacity++;
+		if(capacity == (roundSize << 1))
+			roundSize = capacity;
+		writeHeader(false); // not forced, since recovery doesn't trust the capacity anyway
+		
+		if(!haveChain)
+			return;
+		
+		final int newBucket = capacity - 1;
+		final IntList stay = new IntList(8);
+		final IntList move = new IntList(8);
+		int next = bucket + 1;
+		while(next != 0) {
+			buffer = seek(next - 1);
+			buffer.get(); // exists
+			if(bucketOf(buffer.getInt()) == bucket)
+				stay.add(next - 1);
+			else
+				move.add(next - 1);
+			next = buffer.getInt();
+		}
+		
+		if(move.size() == 0)
+			return;
+		
+		// the new bucket's slot must end up with one of the records that move there
+		buffer = seek(newBucket);
+		if(buffer.get() == 1) {
+			final int homeID = buffer.getInt();
+			final int movingInd = move.indexOf(newBucket);
+			final int stayingInd = stay.indexOf(newBucket);
+			if(movingInd > 0) {
+				move.set(movingInd, move.get(0));
+				move.set(0, newBucket);
+			}else if(stayingInd >= 0) {
+				stay.set(stayingInd, copyToFreeSlot(newBucket));
+			}else if(movingInd < 0) {
+				evict(newBucket, homeID);
+			}
+		}
+		
+		if(move.get(0) != newBucket) {
+			final int oldInd = move.get(0);
+			copyRecord(oldInd, newBucket);
+			move.set(0, newBucket);
+			if(oldInd != bucket || stay.size() == 0)
+				freeSlot(oldInd); // otherwise it is reused just below
+		}
+		
+		// and the old bucket's slot must end up with one that stays, if any do
+		final int headInd = move.indexOf(bucket);
+		if(headInd >= 0 && stay.size() > 0) {
+			move.set(headInd, copyToFreeSlot(bucket));
+		}
+		if(stay.size() > 0 && stay.get(0) != bucket) {
+			copyRecord(stay.get(0), bucket);
+			freeSlot(stay.get(0));
+			stay.set(0, bucket);
+		}
+		
+		relink(move);
+		relink(stay);
+	}
+	
+	/**
+	 * Splits buckets until the table can take the given number of new records without going
+	 * over the load factor, so that none of the puts that follow split. The file is extended at
+	 * most once, straight to the size it needs at the end. Must hold the write lock.
+	 * 
+	 * @param numRecords the number of records about to be put, at most
+	 */
+	private void reserve(int numRecords) {
+		if(preventResize)
+			return;
+		
+		// the smallest capacity for which a put at the final length doesn't expand
+		final long needed = (long)length + numRecords + 1;
+		long target = Math.max(capacity, needed * 4 / 3);
+		while(needed >= target - (target >> 2))
+			target++;
+		if(target <= capacity)
+			return;
+		
+		// the round the target is in, doubled, is what growFile would end up growing to anyway
+		final long slotsNeeded = Long.highestOneBit(target) << 1;
+		if(slotsNeeded > (long)numSectors * numPerSector)
+			growFile(slotsNeeded);
+		while(capacity < target)
+			split();
+	}
+	
+	/**
+	 * Extends the file so that it has room for every bucket at the end of this round and maps
+	 * the new size. See growFile(long).
+	 */
+	private void growFile() {
+		growFile((long)roundSize << 1);
+	}
+	
+	/**
+	 * Extends the file so that it has at least the given number of slots and maps the new size.
+	 * The new space is not written to, so it costs nothing until it is used, and no record
+	 * moves. The part of the old mapping which is remapped is unmapped right away.
+	 * 
+	 * @param minSlots the number of slots needed
+	 */
+	private void growFile(long minSlots) {
+		if(minSlots > Integer.MAX_VALUE - numPerSector)
+			throw new IllegalStateException("mapping has as many slots as can be indexed");
+		final int newNumSectors = (int)((minSlots + numPerSector - 1) / numPerSector);
+		
+		try {
+			mapSegments(newNumSectors);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		
+		// the new words are all beyond the end of the file so far, so they are known to be empty
+		final int oldNumWords = occupied.length;
+		final int numWords = ((newNumSectors * numPerSector - 1) >>> 6) + 1;
+		occupied = Arrays.copyOf(occupied, numWords);
+		occupiedKnown = Arrays.copyOf(occupiedKnown, ((numWords - 1) >>> 6) + 1);
+		for(int word = oldNumWords; word < numWords; word++) {
+			occupiedKnown[word >>> 6] |= 1L << word;
+		}
+		dirty = Arrays.copyOf(dirty, ((newNumSectors - 1) >>> 6) + 1);
+		numSectors = newNumSectors;
+	}
+	
+	/**
+	 * Copies the raw bytes of the record in one slot to another, including its next pointer.
+	 * Leaves the original in place.
+	 * 
+	 * @param from the slot to copy from
+	 * @param to the slot to copy to
+	 */
+	private void copyRecord(int from, int to) {
+		final ByteBuffer src = seek(from).duplicate();
+		src.limit(src.position() + paddedSizeEach);
+		seek(to).put(src);
+		markFilled(to);
+		markDirty(to);
+	}
+	
+	/**
+	 * Copies the record in the given slot to the free slot at filledLeftOf. The original is
+	 * left in place, since the caller is about to overwrite it.
+	 * 
+	 * @param index the slot to copy
+	 * @return the slot it was copied to
+	 */
+	private int copyToFreeSlot(int index) {
+		if(filledLeftOf >= numSectors * numPerSector)
+			throw new IllegalStateException("no free slots to move a record to");
+		
+		final int dest = filledLeftOf;
+		copyRecord(index, dest);
+		incrementFilledLeftOf();
+		return dest;
+	}
+	
+	/**
+	 * Marks the given slot as empty
+	 * 
+	 * @param index the slot
+	 */
+	private void freeSlot(int index) {
+		seek(index).put((byte)0);
+		markEmpty(index);
+		markDirty(index);
+		if(filledLeftOf > index)
+			filledLeftOf = index;
+	}
+	
+	/**
+	 * Sets the next pointer of the record in the given slot
+	 * 
+	 * @param index the slot
+	 * @param next the index+1 of the next record in the chain, or 0 for none
+	 */
+	private void setNext(int index, int next) {
+		final MappedByteBuffer buffer = seek(index);
+		buffer.position(buffer.position() + 5); // skip exists, id
+		buffer.putInt(next);
+		markDirty(index);
+	}
+	
+	/**
+	 * Points each of the given slots at the next, in order, and the last at nothing
+	 * 
+	 * @param chain the slots of the chain, starting with the head
+	 */
+	private void relink(IntList chain) {
+		final int last = chain.size() - 1;
+		for(int i = 0; i <= last; i++) {
+			setNext(chain.get(i), i == last ? 0 : chain.get(i + 1) + 1);
+		}
+	}
+	
+	/**
+	 * Determines the bucket for the given id. Buckets before the split point have already been
+	 * split this round, so they use one more bit of the id.
+	 * 
+	 * @param id the id
+	 * @return the bucket the id belongs in
+	 */
+	private int bucketOf(int id) {
+		final int bucket = id & ((roundSize << 1) - 1);
+		return bucket < capacity ? bucket : id & (roundSize - 1);
+	}
+	
+	/**
+	 * Moves the record in the given slot, which is an overflow record of another bucket, to the
+	 * free slot at filledLeftOf and points its chain at the new location. Afterwards the slot is
+	 * empty and can be the start of its own bucket's chain.
+	 * 
+	 * @param index the slot to empty
+	 * @param id the id of the record in that slot
+	 */
+	private void evict(int index, int id) {
+		// find whoever points to us, which is never the head since we are not in our home slot
+		int prevInd = bucketOf(id);
+		while(true) {
+			final MappedByteBuffer buffer = seek(prevInd);
+			buffer.position(buffer.position() + 5); // skip exists, id
+			final int next = buffer.getInt();
+			if(next == index + 1)
+				break;
+			prevInd = next - 1;
+		}
+		
+		final int dest = copyToFreeSlot(index); // before freeing the slot, since the caller fills it right away
+		setNext(prevInd, dest + 1);
+		seek(index).put((byte)0);
+		markEmpty(index);
+		markDirty(index);
+	}
+	
+	/**
+	 * This increments filled left of until we get to an empty spot. This may
+	 * move the buffer!
+	 */
+	private void incrementFilledLeftOf() {
+		filledLeftOf = nextFreeSlot(filledLeftOf + 1);
+	}
+	
+	/**
+	 * For debugging only. Takes the write lock since it moves the buffers.
+	 */
+	public void assertSane() {
+		final long stamp = lock.writeLock();
+		try {
+			HashSet<Integer> ids = new HashSet<>();
+			HashSet<Integer> filledIndexes = new HashSet<>();
+			HashSet<Integer> shouldBeFilledIndexes = new HashSet<>();
+			final int numSlots = numSectors * numPerSector;
+			for(int i = 0; i < numSlots; i++) {
+				final MappedByteBuffer buffer = seek(i);
+				boolean exists = buffer.get() == 1;
+				
+				if(exists ? i == filledLeftOf : i < filledLeftOf)
+					throw new IllegalStateException("filledLeftOf is " + filledLeftOf + " but index " + i + (exists ? " is filled" : " is empty"));
+				final int word = i >>> 6;
+				if((occupiedKnown[word >>> 6] & (1L << word)) != 0 && ((occupied[word] & (1L << i)) != 0) != exists)
+					throw new IllegalStateException("occupancy bitmap is wrong at index " + i);
+				
+				if(exists) {
+					shouldBeFilledIndexes.remove(i);
+					filledIndexes.add(i);
+					int id = buffer.getInt();
+					if(ids.contains(id))
+						throw new IllegalStateException("duplicate id");
+					ids.add(id);
+					
+					int next = buffer.getInt();
+					if(next != 0) {
+						if(next < i) {
+							if(!filledIndexes.contains(next - 1))
+								throw new IllegalStateException("index " + (next - 1) + " should have been filled; i=" + i + ", next=" + next);
+						}else {
+							shouldBeFilledIndexes.add(next - 1);
+						}
+					}
+				}else if(shouldBeFilledIndexes.contains(i)) {
+					throw new IllegalStateException("index " + i + " should be filled");
+				}
+			}
+		}finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+	 * Returns an interator over all of the elements in this mapping. Each sector is read under
+	 * the read lock, so it may be used alongside other readers and writers, but changes made
+	 * while iterating may or may not be seen and a record moved by a split may be seen twice or
+	 * not at all. Not fail-fast, O(n) performance with a high constant factor
+	 * 
+	 * @return an iterator over the entire mapping
+	 */
+	public Iterator<A> iterAll() {
+		return new InlineObjectWithIDMappingIter();
+	}
+	
+	/**
+	 * Puts the given object into the mapping. Overwrites the existing value if there is
+	 * one.
+	 * 
+	 * @param a the object to write
+	 */
+	public void put(A a) {
+		final long stamp = lock.writeLock();
+		try {
+			putLocked(a);
+			if(log != null)
+				log.logPut(a);
+		}finally {
+			lock.unlockWrite(stamp);
+		}
+		if(log != null)
+			log.maybeCommit();
+	}
+	
+	/**
+	 * Puts every object into the mapping, like calling put with each. The table is grown once
+	 * up front for the final number of records rather than a little with every put, and the
+	 * records are then written in the order of their buckets so that each sector is visited once.
+	 * 
+	 * @param records the objects to write
+	 */
+	public void putAll(Collection<? extends A> records) {
+		putAllRecords(records.toArray());
+	}
+	
+	/**
+	 * Puts every object into the mapping, like calling put with each. See putAll(Collection).
+	 * 
+	 * @param records the objects to write
+	 */
+	public void putAll(A[] records) {
+		putAllRecords(records);
+	}
+	
+	/**
+	 * Implements both forms of putAll
+	 * 
+	 * @param records the objects to write, which must all be A's
+	 */
+	@SuppressWarnings("unchecked")
+	private void putAllRecords(Object[] records) {
+		final int[] ids = new int[records.length];
+		for(int i = 0; i < records.length; i++) {
+			ids[i] = ((A) records[i]).id();
 		}
 		
-		/* We will use the marker to keep track of the NEXT to overwrite */
-		buffer.mark();
-		int next = buffer.getInt();
-		while(next != 0) {
-			int nextSector = (next - 1) / numPerSector;
-			int nextIndInSec = (next - 1) - nextSector * numPerSector;
-			
-			buffer.position(nextSector * SECTOR_SIZE + nextIndInSec * paddedSizeEach + 1); // we skip exists; next guarantees exists
-			int nextID = buffer.getInt();
-			if(nextID == a.id()) {
-				buffer.getInt(); // next
-				serializer.write(a, buffer);
-				return;
+		final long stamp = lock.writeLock();
+		try {
+			reserve(records.length);
+			for(long packed : orderByBucket(ids)) {
+				putLocked((A) records[(int)packed]);
+				if(log != null)
+					log.logPut((A) records[(int)packed]);
 			}
-			buffer.mark();
-			next = buffer.getInt();
+		}finally {
+			lock.unlockWrite(stamp);
 		}
-		
-		buffer.reset();
-		buffer.putInt(filledLeftOf + 1);
-		
-		int filledLeftOfSector = filledLeftOf / numPerSector;
-		int filledLeftOfIndInSec = filledLeftOf - filledLeftOfSector * numPerSector;
-		
-		buffer.position(filledLeftOfSector * SECTOR_SIZE + filledLeftOfIndInSec * paddedSizeEach);
-		buffer.put((byte)1); // exists
-		buffer.putInt(a.id()); // id
-		buffer.putInt(0); // next
-		serializer.write(a, buffer);
-		length++;
-		incrementFilledLeftOf();
+		if(log != null)
+			log.maybeCommit();
 	}
 	
 	/**
-	 * This is a reslotting function. It assumes the raw buffer is such that from position
-	 * to limit is the serialized object. Does not change the length but does update the 
-	 * filledLeftOf value
+	 * Implements put. Must hold the write lock.
 	 * 
-	 * @param id the id of the object to reslot
-	 * @param raw the serialized object to reslot
+	 * @param a the object to write
 	 */
-	private void reslotRaw(int id, ByteBuffer raw) {
-		final int ind = id & (capacity - 1);
-		final int sector = ind / numPerSector;
-		final int indInSec = ind - sector * numPerSector;
+	private void putLocked(A a) {
+		final int ind = bucketOf(a.id());
 		
-		buffer.position(sector * SECTOR_SIZE + indInSec * paddedSizeEach);
-		buffer.mark();
-		if(buffer.get() == 0) { // exists
-			buffer.reset();
+		MappedByteBuffer buffer = seek(ind);
+		if(buffer.get() == 0) {
+			length++;
+			buffer = seek(ind);
 			buffer.put((byte)1); // exists
-			buffer.putInt(id); // id
+			markFilled(ind);
+			markDirty(ind);
+			buffer.putInt(a.id()); // id
 			buffer.putInt(0); // next
-			buffer.put(raw); // object
-
-			if(filledLeftOf == ind) {
+			serializer.write(a, buffer);
+			
+			if(filledLeftOf == ind)
 				incrementFilledLeftOf();
-			}
+			maybeExpand();
+			return;
+		}
+		
+		final int ogCollisionInd = buffer.getInt();
+		if(ogCollisionInd == a.id()) {
+			buffer.getInt(); // next
+			serializer.write(a, buffer);
+			markDirty(ind);
 			return;
 		}
 		
-		buffer.getInt(); // id, irrelevant since we assume id is unique
+		if(bucketOf(ogCollisionInd) != ind) {
+			// someone else's overflow is in our home slot, so we aren't in the mapping yet
+			evict(ind, ogCollisionInd);
+			buffer = seek(ind);
+			buffer.put((byte)1); // exists
+			markFilled(ind);
+			markDirty(ind);
+			buffer.putInt(a.id()); // id
+			buffer.putInt(0); // next
+			serializer.write(a, buffer);
+			length++;
+			maybeExpand();
+			return;
+		}
 		
-		/* we will use the mark to keep track of the NEXT to overwrite */
-		buffer.mark();
+		/* We will keep track of the index whose NEXT we overwrite */
+		int lastInd = ind;
 		int next = buffer.getInt();
 		while(next != 0) {
-			int nextSector = (next - 1) / numPerSector;
-			int nextIndInSec = (next - 1) - nextSector * numPerSector;
-			
-			buffer.position(nextSector * SECTOR_SIZE + nextIndInSec * paddedSizeEach + 5); // skip exists, id
-			buffer.mark();
+			buffer = seek(next - 1);
+			buffer.get(); // we skip exists; next guarantees exists
+			int nextID = buffer.getInt();
+			if(nextID == a.id()) {
+				buffer.getInt(); // next
+				serializer.write(a, buffer);
+				markDirty(next - 1);
+				return;
+			}
+			lastInd = next - 1;
 			next = buffer.getInt();
 		}
 		
-		buffer.reset();
-		buffer.putInt(filledLeftOf + 1);
-
-		int filledLeftOfSector = filledLeftOf / numPerSector;
-		int filledLeftOfIndInSec = filledLeftOf - filledLeftOfSector * numPerSector;
+		if(filledLeftOf >= numSectors * numPerSector)
+			throw new IllegalStateException("no free slots for a new record");
+		
+		setNext(lastInd, filledLeftOf + 1);
 		
-		buffer.position(filledLeftOfSector * SECTOR_SIZE + filledLeftOfIndInSec * paddedSizeEach);
+		buffer = seek(filledLeftOf);
 		buffer.put((byte)1); // exists
-		buffer.putInt(id); // id
+		markFilled(filledLeftOf);
+		markDirty(filledLeftOf);
+		buffer.putInt(a.id()); // id
 		buffer.putInt(0); // next
-		buffer.put(raw); // object
+		serializer.write(a, buffer);
+		length++;
 		incrementFilledLeftOf();
+		maybeExpand();
 	}
 	
 	/**
@@ -548,111 +1859,188 @@ public class InlineObjectWithIDMapping<A extends ObjectWithID> implements Mappin
 	 * @return the object with that id
 	 */
 	public A get(int id) {
-		final int ind = id & (capacity - 1);
-		final int sector = ind / numPerSector;
-		final int indInSec = ind - sector * numPerSector;
-		
-		buffer.position(sector * SECTOR_SIZE + indInSec * paddedSizeEach);
-		if(buffer.get() == 0) { // exists
-			return null;
-		}
-		
-		final int buckID = buffer.getInt(); // id
-		if(buckID == id) {
-			buffer.getInt(); // next
-			A res = serializer.read(id, buffer);
-			return res;
+		final long stamp = lock.readLock();
+		try {
+			final int slot = findSlot(id);
+			return slot == -1 ? null : read(id, segmentOf(slot), positionOf(slot));
+		}finally {
+			lock.unlockRead(stamp);
 		}
-		
-		int next = buffer.getInt(); // next
-		
-		while(next != 0) {
-			final int nextSector = (next - 1) / numPerSector;
-			final int nextIndInSec = (next - 1) - nextSector * numPerSector;
-			buffer.position(nextSector * SECTOR_SIZE + nextIndInSec * paddedSizeEach + 1); // skip exists ; next guarantees existence
-			int nextID = buffer.getInt(); // id
-			if(nextID == id) {
-				buffer.getInt(); // next
-				A res = serializer.read(id, buffer);
-				return res;
+	}
+	
+	/**
+	 * Calls the visitor with a view of the record with the given id, if it is in the mapping.
+	 * The visitor runs under the read lock, so it must be quick and must not use this mapping.
+	 * 
+	 * @param id the id to lookup
+	 * @param visitor what to call with the record
+	 * @return true if the record was found and visited, false otherwise
+	 */
+	public boolean view(int id, RecordVisitor<A> visitor) {
+		final long stamp = lock.readLock();
+		try {
+			final int slot = findSlot(id);
+			if(slot == -1)
+				return false;
+			
+			final RecordView<A> view = views.get();
+			view.moveTo(segmentOf(slot), positionOf(slot) + SLOT_DATA_OFFSET, id);
+			try {
+				visitor.visit(view);
+			}finally {
+				view.release();
 			}
-			next = buffer.getInt(); // next
+			return true;
+		}finally {
+			lock.unlockRead(stamp);
 		}
-		
-		return null;
 	}
 	
 	/**
-	 * Uses a swap file to reslot all the parts of the chain. Assumes that upToNow contains
-	 * byte arrays that each correspond to (first 4 bytes are an integer) followed by the
-	 * remaining bytes are a serialized "A" object.
-	 * 
-	 * This must not check the existing of the first object it checks.
+	 * Gets every object with the given ids at once. The lookups are made in the order of their
+	 * buckets in the file rather than the order given, so each sector is visited once and the
+	 * file is read front to back, and the whole batch only takes the read lock once. A writer
+	 * waits for the whole batch, so very large batches should be broken up.
 	 * 
-	 * @param upToNow corresponds with the ones we already pushed into memory before deciding to use a swap file
-	 * @param next the index+1 that we are currently at when we decided to use a swap file. Must NOT be in upToNow
-	 * @param skipID if set, the index to NOT reslot (just delete)
+	 * @param ids the ids to lookup, which may repeat
+	 * @param out where to put the object for each id, or null if it isn't in the mapping
+	 * @return the number of ids that were found
 	 */
-	private void reslotChainWithSwapFile(List<byte[]> upToNow, int next, Integer skipIndex) {
-		final int ogLimit = buffer.limit();
-		final boolean haveSkip = skipIndex != null;
-		final int skipUnwrapped = haveSkip ? skipIndex : -1;
+	public int getAll(int[] ids, A[] out) {
+		if(out.length < ids.length)
+			throw new IllegalArgumentException("out has room for " + out.length + " objects but there are " + ids.length + " ids");
 		
+		final long stamp = lock.readLock();
 		try {
-			try (BufferedOutputStream swpOut = new BufferedOutputStream(new FileOutputStream(swpFile))) {
-				for(byte[] arr : upToNow) {
-					swpOut.write(arr);
+			int found = 0;
+			for(long packed : orderByBucket(ids)) {
+				final int i = (int)packed;
+				final int slot = findSlot(ids[i]);
+				if(slot == -1) {
+					out[i] = null;
+				}else {
+					out[i] = read(ids[i], segmentOf(slot), positionOf(slot));
+					found++;
 				}
-				upToNow.clear();
-				upToNow = null;
-				
-				WritableByteChannel chan = Channels.newChannel(swpOut);
-				while(next != 0) {
-					int nextSector = (next - 1) / numPerSector;
-					int nextIndInSec = (next - 1) - nextSector * numPerSector;
-					
-					buffer.position(nextSector * SECTOR_SIZE + nextIndInSec * paddedSizeEach);
-					buffer.put((byte)0); // delete the entry
-					if(haveSkip) {
-						buffer.mark(); // we will need the id again
-						int id = buffer.getInt(); // read id
-						if(id == skipUnwrapped) {
-							next = buffer.getInt(); // read next
-							continue; // skip saving it
-						}
-						buffer.reset(); // go back to the id
-					}
-					buffer.limit(buffer.position() + 4); // write just the id
-					chan.write(buffer);
-					buffer.limit(ogLimit); // go back to the original limit
-					next = buffer.getInt(); // update next 
-					buffer.limit(buffer.position() + paddedSizeEach - 9); // write out just the item 
-					chan.write(buffer);
-					buffer.limit(ogLimit); // return to original limit
+			}
+			return found;
+		}finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * Calls the visitor with a view of each record with one of the given ids, like getAll. The
+	 * records are visited in the order they are found, not the order given.
+	 * 
+	 * @param ids the ids to lookup, which may repeat
+	 * @param visitor what to call with each record found
+	 * @return the number of ids that were found
+	 */
+	public int view(int[] ids, RecordVisitor<A> visitor) {
+		final RecordView<A> view = views.get();
+		final long stamp = lock.readLock();
+		try {
+			int found = 0;
+			for(long packed : orderByBucket(ids)) {
+				final int id = ids[(int)packed];
+				final int slot = findSlot(id);
+				if(slot != -1) {
+					view.moveTo(segmentOf(slot), positionOf(slot) + SLOT_DATA_OFFSET, id);
+					visitor.visit(view);
+					found++;
 				}
 			}
-			
-			ByteBuffer inBuff = ByteBuffer.allocate(paddedSizeEach - 5); // we dont have exists / next
-			try(ReadableByteChannel swpIn = Channels.newChannel(new BufferedInputStream(new FileInputStream(swpFile)))) {
-				while(swpIn.read(inBuff) > 0) {
-					while(inBuff.position() != paddedSizeEach - 5) {
-						if(swpIn.read(inBuff) <= 0)
-							throw new IllegalStateException("partial read!");
+			return found;
+		}finally {
+			view.release();
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * Sorts the positions of the given ids by the slot of their bucket, which is the order their
+	 * sectors are in. Ids which are already in order, such as a range, aren't sorted again.
+	 * Must hold a lock.
+	 * 
+	 * @param ids the ids
+	 * @return the bucket of each id in the high int and its position in ids in the low int, sorted
+	 */
+	private long[] orderByBucket(int[] ids) {
+		final long[] order = new long[ids.length];
+		boolean sorted = true;
+		for(int i = 0; i < ids.length; i++) {
+			order[i] = ((long)bucketOf(ids[i]) << 32) | i;
+			if(i > 0 && order[i] < order[i - 1])
+				sorted = false;
+		}
+		if(!sorted)
+			Arrays.sort(order);
+		return order;
+	}
+	
+	/**
+	 * Calls the visitor with a view of every record in the mapping, in no particular order. Each
+	 * sector is visited under the read lock, so the visitor must not use this mapping, and has
+	 * the same consistency as iterAll.
+	 * 
+	 * @param visitor what to call with each record
+	 */
+	public void viewAll(RecordVisitor<A> visitor) {
+		final RecordView<A> view = views.get();
+		for(int sector = 0; ; sector++) {
+			final long stamp = lock.readLock();
+			try {
+				if(segments == null || sector >= numSectors)
+					return;
+				
+				final int firstIndex = sector * numPerSector;
+				final MappedByteBuffer segment = segmentOf(firstIndex);
+				int pos = positionOf(firstIndex);
+				for(int i = 0; i < numPerSector; i++, pos += paddedSizeEach) {
+					if(segment.get(pos) == 1) {
+						view.moveTo(segment, pos + SLOT_DATA_OFFSET, segment.getInt(pos + SLOT_ID_OFFSET));
+						visitor.visit(view);
 					}
-					
-					inBuff.position(0);
-					int id = inBuff.getInt();
-					reslotRaw(id, inBuff);
-					inBuff.clear();
 				}
+			}finally {
+				view.release();
+				lock.unlockRead(stamp);
 			}
-			
-			swpFile.delete();
-		}catch(IOException e) {
-			throw new RuntimeException(e);
 		}
 	}
 	
+	/**
+	 * Finds the slot holding the record with the given id. Must hold a lock. Doesn't move the
+	 * buffer.
+	 * 
+	 * @param id the id to lookup
+	 * @return the slot of the record, or -1 if it is not in the mapping
+	 */
+	private int findSlot(int id) {
+		int slot = bucketOf(id);
+		MappedByteBuffer segment = segmentOf(slot);
+		int pos = positionOf(slot);
+		if(segment.get(pos) == 0) { // exists
+			return -1;
+		}
+		
+		final int buckID = segment.getInt(pos + SLOT_ID_OFFSET);
+		if(buckID != id && bucketOf(buckID) != slot) { // another bucket's overflow, so our bucket is empty
+			return -1;
+		}
+		
+		while(segment.getInt(pos + SLOT_ID_OFFSET) != id) {
+			final int next = segment.getInt(pos + SLOT_NEXT_OFFSET);
+			if(next == 0)
+				return -1;
+			slot = next - 1; // next guarantees existence
+			segment = segmentOf(slot);
+			pos = positionOf(slot);
+		}
+		return slot;
+	}
+	
 	/**
 	 * Delete the object with the given id and return the object deleted, or null if there
 	 * was no object with that id.
@@ -661,213 +2049,73 @@ public class InlineObjectWithIDMapping<A extends ObjectWithID> implements Mappin
 	 * @return the object deleted 
 	 */
 	public A remove(int id) { 
-		final int ind = id & (capacity - 1);
-		final int sector = ind / numPerSector;
-		final int indInSec = ind - sector * numPerSector;
+		final A val;
+		final long stamp = lock.writeLock();
+		try {
+			val = removeLocked(id);
+			if(log != null && val != null)
+				log.logRemove(id);
+		}finally {
+			lock.unlockWrite(stamp);
+		}
+		if(log != null)
+			log.maybeCommit();
+		return val;
+	}
+	
+	/**
+	 * Implements remove. Must hold the write lock.
+	 * 
+	 * @param id the id to delete
+	 * @return the object deleted
+	 */
+	private A removeLocked(int id) {
+		final int ind = bucketOf(id);
 		
-		buffer.position(sector * SECTOR_SIZE + indInSec * paddedSizeEach);
-		buffer.mark();
+		MappedByteBuffer buffer = seek(ind);
 		if(buffer.get() == 0) { // exists
 			return null;
 		}
 		
+		final int headID = buffer.getInt();
+		final int headNext = buffer.getInt();
 		
-		final int ogFoundID = buffer.getInt();
-		final int ogFoundNext = buffer.getInt();
-		
-		if(ogFoundNext == 0) {
-			if(ogFoundID != id) { return null; }
-			
+		if(headID == id) {
+			final A val = serializer.read(id, buffer);
 			length--;
-			if(filledLeftOf > ind)
-				filledLeftOf = ind;
-			final A ogValue = serializer.read(ogFoundID, buffer);
-			buffer.reset();
-			buffer.put((byte)0);
-			return ogValue;
+			if(headNext == 0) {
+				freeSlot(ind);
+			}else {
+				// every record in the chain is from this bucket, so the second can take over as the head
+				copyRecord(headNext - 1, ind);
+				freeSlot(headNext - 1);
+			}
+			return val;
 		}
 		
-		// If we are the end of the chain it's safe to do a raw update, in all other cases we must reslot everything.
-		// If this is performing well the chain should be short, so given that we're not the beginning the odds are
-		// reasonable that we're at the end, so we assume that case
-		
-		if(ogFoundID == id) {
-			// We're the beginning of the chain, we need to reslot the remainder. As we go through, we'll delete and
-			// retrieve every block, storing them. If we exceed a threshold of memory, we use a swap file for this.
-			length--;
-			
-			final A ogValue = serializer.read(ogFoundID, buffer);
-			buffer.reset();
-			buffer.put((byte)0);
-			
-			if(filledLeftOf > ind)
-				filledLeftOf = ind;
-			
-			long bytesUsed = 0;
-			List<byte[]> slices = new ArrayList<>();
-			
-			int next = ogFoundNext;
-			while(next != 0) {
-				int nextSector = (next - 1) / numPerSector;
-				int nextIndInSector = (next - 1) - nextSector * numPerSector;
-				
-				buffer.position(nextSector * SECTOR_SIZE + nextIndInSector * paddedSizeEach);
-				buffer.put((byte)0); // delete the entry
-				
-				if(filledLeftOf > (next - 1))
-					filledLeftOf = next - 1;
-				
-				buffer.mark(); // we'll need the id again to put it in the slice
-				buffer.getInt(); // id
-				int nextNext = buffer.getInt();
-				
-				if(nextNext != 0 // never use a swap file for the final part; that's a waste
-					&& bytesUsed + paddedSizeEach - 5 > REMOVE_RESLOT_MEMORY_THRESHOLD) {
-					reslotChainWithSwapFile(slices, next, null);
-					return ogValue;
-				}
-				
-				byte[] slice = new byte[paddedSizeEach - 5];
-				
-				// copy the id over
-				buffer.reset();
-				buffer.get(slice, 0, 4);
-				
-				// skip next
-				buffer.getInt();
-				
-				// copy the serialized object over
-				buffer.get(slice, 4, paddedSizeEach - 9);
-				
-				// add to slices
-				slices.add(slice);
-				
-				// update loop counters
-				next = nextNext;
-				bytesUsed += paddedSizeEach - 5;
-			}
-			
-			for(int i = 0; i < slices.size(); i++) {
-				ByteBuffer wrapped = ByteBuffer.wrap(slices.get(i));
-				int sliceID = wrapped.getInt();
-				reslotRaw(sliceID, wrapped);
-			}
-			
-			return ogValue;
+		if(bucketOf(headID) != ind) {
+			return null; // another bucket's overflow, so our bucket is empty
 		}
 		
-		// If we're in the middle of the chain we need to reslot, otherwise we're at the end of the chain
-		// and don't need to do any work. As in the starting case, we will use a swap file if we are in
-		// the middle of the chain and the memory usage to reslot exceeds a threshold.
-		// Of course if we're not in the chain we don't need to do anything.
-
 		int prevInd = ind;
-		int next = ogFoundNext;
-		boolean nextIsUS = false; // if set to true, we have just read the id, so next corresponds to us and buffer.getInt() corresponds to our next
-		while(next != 0) { // ogFoundNext is not 0, so this loop always enters, so we always set the mark.
-			int nextSector = (next - 1) / numPerSector;
-			int nextIndInSec = (next - 1) - nextSector * numPerSector;
-			
-			buffer.position(nextSector * SECTOR_SIZE + nextIndInSec * paddedSizeEach); // keep exists for the mark
-			buffer.mark();
+		int next = headNext;
+		while(next != 0) {
+			buffer = seek(next - 1);
 			buffer.get(); // exists
-			int nextID = buffer.getInt();
+			final int nextID = buffer.getInt();
+			final int nextNext = buffer.getInt();
 			if(nextID == id) {
-				nextIsUS = true;
-				break;
-			}
-			
-			prevInd = next - 1;
-			next = buffer.getInt();
-		}
-		
-		if(!nextIsUS) {
-			return null; // We're not in the chain at all
-		}
-
-		final int indOfPointerToUs = prevInd;
-		final int ourInd = next - 1;
-		final int ourNext = buffer.getInt();
-
-		length--;
-		if(filledLeftOf > ourInd)
-			filledLeftOf = ourInd;
-		
-		if(ourNext == 0) { 
-			// We're at the end of the chain! The mark is at our exists
-			buffer.reset();
-			buffer.put((byte)0);
-			buffer.getInt(); // id
-			buffer.getInt(); // next
-			final A val = serializer.read(id, buffer);
-			
-			// remove us from the chain
-			int pointerToUsSector = indOfPointerToUs / numPerSector;
-			int pointerToUsIndInSector = indOfPointerToUs - pointerToUsSector * numPerSector;
-			
-			buffer.position(pointerToUsSector * SECTOR_SIZE + pointerToUsIndInSector * paddedSizeEach + 5); // skip exists, id
-			buffer.putInt(0); // next
-			return val;
-		}
-		
-		// We're in the middle of the chain! We need to go back and reslot everything but us and the first one.
-		// we do have to update the next of the first one to be 0
-		// We will use a swap file if memory exceeds a threshold
-		
-		final A val = serializer.read(id, buffer);
-		
-		buffer.position(sector * SECTOR_SIZE + indInSec * paddedSizeEach + 5); // skip exists, id
-		buffer.putInt(0); // next
-		
-		long bytesUsed = 0;
-		List<byte[]> slices = new ArrayList<>();
-		boolean foundUs = false; // this is true if & only if we would be in slices if we weren't removing ourself
-		
-		next = ogFoundNext;
-		while(next != 0) { // enters at least once; ogFoundNext != 0
-			int nextSector = (next - 1) / numPerSector;
-			int nextIndInSec = (next - 1) - nextSector * numPerSector;
-			
-			buffer.position(nextSector * SECTOR_SIZE + nextIndInSec * paddedSizeEach);
-			buffer.put((byte)0); // delete the entry
-			
-			if(filledLeftOf > (next - 1))
-				filledLeftOf = next - 1;
-			
-			buffer.mark();
-			buffer.getInt(); // id
-			int nextNext = buffer.getInt();
-
-			if(nextNext != 0 // never use a swap file for the final part; that's a waste
-				&& bytesUsed + paddedSizeEach - 5 > REMOVE_RESLOT_MEMORY_THRESHOLD) {
-				reslotChainWithSwapFile(slices, next, foundUs ? null : ourInd);
+				final A val = serializer.read(id, buffer);
+				length--;
+				setNext(prevInd, nextNext); // unlink us
+				freeSlot(next - 1);
 				return val;
 			}
-			
-
-			if(next == ourInd + 1) {
-				foundUs = true;
-			}else {
-				byte[] slice = new byte[paddedSizeEach - 5]; // take away exists, next
-				buffer.reset();
-				buffer.get(slice, 0, 4); // id
-				buffer.getInt(); // next
-				buffer.get(slice, 4, paddedSizeEach - 9); // object
-				
-				slices.add(slice);
-				bytesUsed += paddedSizeEach - 5;
-			}
-			
+			prevInd = next - 1;
 			next = nextNext;
 		}
 		
-		for(int i = 0; i < slices.size(); i++) {
-			ByteBuffer wrapped = ByteBuffer.wrap(slices.get(i));
-			int sliceID = wrapped.getInt();
-			reslotRaw(sliceID, wrapped);
-		}
-		
-		return val;
+		return null; // We're not in the chain at all
 	}
 	
 	/**
@@ -877,21 +2125,33 @@ public class InlineObjectWithIDMapping<A extends ObjectWithID> implements Mappin
 	 * @return a suggested unique id
 	 */
 	public int suggestID() {
-		return filledLeftOf;
+		final long stamp = lock.readLock();
+		try {
+			return filledLeftOf;
+		}finally {
+			lock.unlockRead(stamp);
+		}
 	}
 	
 	/**
-	 * Removes everything from the mapping
+	 * Removes everything from the mapping. With a log this also flushes, since a clear can't be
+	 * logged.
 	 */
 	public void clear() {
-		length = 0;
-		filledLeftOf = 0;
-		for(int i = 0; i < capacity; i++) {
-			int sector = i / numPerSector;
-			int indInSec = i - sector * numPerSector;
-			
-			buffer.position(sector * SECTOR_SIZE + indInSec * paddedSizeEach);
-			buffer.put((byte)0);
+		final long stamp = lock.writeLock();
+		try {
+			length = 0;
+			filledLeftOf = 0;
+			final int numSlots = numSectors * numPerSector;
+			for(int i = 0; i < numSlots; i++) {
+				seek(i).put((byte)0);
+				markDirty(i);
+			}
+			allocateOccupied(true);
+			if(log != null)
+				forceAll(); // there is no record for a clear, so it can't wait for the log
+		}finally {
+			lock.unlockWrite(stamp);
 		}
 	}
 	
@@ -905,50 +2165,76 @@ public class InlineObjectWithIDMapping<A extends ObjectWithID> implements Mappin
 	public class InlineObjectWithIDMappingIter implements Iterator<A> {
 		private int sectorIndex;
 		private int indexInsideSector;
-		private A[] aBuffer;
+		private final Object[] aBuffer;
+		private boolean done;
 		
-		@SuppressWarnings("unchecked")
 		public InlineObjectWithIDMappingIter() {
-			if(length != 0) {
-				aBuffer = (A[]) new Object[numPerSector];
-				bufferSector();
-			}
+			aBuffer = new Object[numPerSector];
+			sectorIndex = -1;
+			indexInsideSector = numPerSector;
+			advance();
 		}
 		
 		@Override
 		public boolean hasNext() {
-			return aBuffer != null;
+			return !done;
 		}
 
+		@SuppressWarnings("unchecked")
 		@Override
 		public A next() {
-			final A result = aBuffer[indexInsideSector];
-			while((++indexInsideSector) < aBuffer.length && aBuffer[indexInsideSector] == null);
-			if(indexInsideSector == aBuffer.length) {
-				sectorIndex++;
-				bufferSector();
-			}
+			if(done)
+				throw new NoSuchElementException();
+			
+			final A result = (A) aBuffer[indexInsideSector];
+			aBuffer[indexInsideSector] = null;
+			advance();
 			return result;
 		}
 		
-		private void bufferSector() {
-			if(sectorIndex >= numSectors) {
-				aBuffer = null;
-				return;
+		/**
+		 * Moves to the next record, buffering sectors until one has a record in it
+		 */
+		private void advance() {
+			while(true) {
+				while((++indexInsideSector) < aBuffer.length) {
+					if(aBuffer[indexInsideSector] != null)
+						return;
+				}
+				
+				sectorIndex++;
+				if(!bufferSector()) {
+					done = true;
+					return;
+				}
+				indexInsideSector = -1;
 			}
-			
-			indexInsideSector = -1;
-			final int sectorOffset = SECTOR_SIZE * sectorIndex;
-			for(int i = 0; i < numPerSector; i++) {
-				buffer.position(sectorOffset + paddedSizeEach * i);
-				boolean hasEntry = buffer.get() == 1;
-				if(hasEntry) {
-					int id = buffer.getInt();
-					buffer.getInt(); // next
-					aBuffer[i] = serializer.read(id, buffer);
-				}else {
-					aBuffer[i] = null;
+		}
+		
+		/**
+		 * Reads every record in the current sector
+		 * 
+		 * @return false if there is no such sector
+		 */
+		private boolean bufferSector() {
+			final long stamp = lock.readLock();
+			try {
+				if(segments == null || sectorIndex >= numSectors)
+					return false;
+				
+				final int firstIndex = sectorIndex * numPerSector;
+				final MappedByteBuffer segment = segmentOf(firstIndex);
+				int pos = positionOf(firstIndex);
+				for(int i = 0; i < numPerSector; i++, pos += paddedSizeEach) {
+					if(segment.get(pos) == 1) {
+						aBuffer[i] = read(segment.getInt(pos + SLOT_ID_OFFSET), segment, pos);
+					}else {
+						aBuffer[i] = null;
+					}
 				}
+				return true;
+			}finally {
+				lock.unlockRead(stamp);
 			}
 		}
 	}
@@ -0,0 +1,26 @@
+package me.timothy.seeds.shared.db;
+
+/**
+ * Receives the mutations in a WriteAheadLog when it is replayed, in the order they were logged.
+ * Replaying has to be idempotent, since whatever made it into the mapping before a crash is
+ * replayed again.
+ * 
+ * @author Timothy
+ *
+ * @param <A> the type of object mapped
+ */
+public interface LogReplayer<A> {
+	/**
+	 * Applies a logged put
+	 * 
+	 * @param a the object that was put
+	 */
+	public void put(A a);
+	
+	/**
+	 * Applies a logged remove
+	 * 
+	 * @param id the id that was removed
+	 */
+	public void remove(int id);
+}
@@ -8,6 +8,16 @@ package me.timothy.seeds.shared.db;
  * @param <A> the type of object mapped
  */
 public interface Mapping <A> {
+	/**
+	 * Returned by unflushedAgeMillis when everything has been flushed
+	 */
+	public static final long NOTHING_UNFLUSHED = -1;
+	
+	/**
+	 * Returned by unflushedAgeMillis when the mapping doesn't keep track
+	 */
+	public static final long UNKNOWN_AGE = -2;
+	
 	/**
 	 * Open the mapping
 	 */
@@ -22,4 +32,23 @@ public interface Mapping <A> {
 	 * Close the mapping
 	 */
 	public void close();
+	
+	/**
+	 * Returns how long ago the oldest write which hasn't been flushed yet was made. This is how
+	 * a FlushScheduler decides when to flush; a mapping which doesn't keep track is flushed on a
+	 * timer instead.
+	 * 
+	 * @return the age in milliseconds, NOTHING_UNFLUSHED, or UNKNOWN_AGE
+	 */
+	public default long unflushedAgeMillis() {
+		return UNKNOWN_AGE;
+	}
+	
+	/**
+	 * Commits whatever this mapping has logged but not yet made durable, if it keeps a log and
+	 * the log's commit is due. A FlushScheduler calls this often, so that the last writes before
+	 * a quiet period don't wait for another write to be committed. Does nothing by default.
+	 */
+	public default void maybeCommitLog() {
+	}
 }
@@ -0,0 +1,152 @@
+package me.timothy.seeds.shared.db;
+
+import java.nio.ByteBuffer;
+
+import me.timothy.seeds.shared.FixedSerializer;
+
+/**
+ * A flyweight over a single record of an InlineObjectWithIDMapping, which reads fields straight
+ * out of the mapped file instead of deserializing the whole record. One view is reused for every
+ * record a thread visits, so reading through it doesn't allocate.
+ * 
+ * Offsets are relative to the start of the serialized record, i.e. where the serializer began
+ * writing, so a field is at the same offset it was written at. Nothing is bounds checked against
+ * the record; reading past the serializer's maxSize reads whatever is next in the sector.
+ * 
+ * @author Timothy
+ *
+ * @param <A> the type of object mapped
+ */
+public final class RecordView<A> {
+	/**
+	 * Used by read() when the caller wants the whole object after all
+	 */
+	private final FixedSerializer<A> serializer;
+	
+	/**
+	 * The segment the record is in, or null when not visiting
+	 */
+	private ByteBuffer segment;
+	
+	/**
+	 * The offset of the serialized record within the segment
+	 */
+	private int dataPos;
+	
+	/**
+	 * The id of the record
+	 */
+	private int id;
+	
+	RecordView(FixedSerializer<A> serializer) {
+		this.serializer = serializer;
+	}
+	
+	/**
+	 * Points this view at the given record
+	 * 
+	 * @param segment the segment the record is in
+	 * @param dataPos the offset of the serialized record within the segment
+	 * @param id the id of the record
+	 */
+	void moveTo(ByteBuffer segment, int dataPos, int id) {
+		this.segment = segment;
+		this.dataPos = dataPos;
+		this.id = id;
+	}
+	
+	/**
+	 * Forgets the record, so that a view which is kept by mistake fails instead of reading
+	 * whatever is there now
+	 */
+	void release() {
+		segment = null;
+	}
+	
+	/**
+	 * Returns the id of the record. Like every read through this view, this is only valid until
+	 * the visitor returns.
+	 * 
+	 * @return the id of the record
+	 */
+	public int id() {
+		return id;
+	}
+	
+	/**
+	 * Reads the byte at the given offset from where the serializer began writing the record.
+	 * Only valid until the visitor returns.
+	 * 
+	 * @param offset the offset of the field within the serialized record
+	 * @return the byte there
+	 */
+	public byte get(int offset) {
+		return segment.get(dataPos + offset);
+	}
+	
+	/**
+	 * Reads the short at the given offset from where the serializer began writing the record.
+	 * Only valid until the visitor returns.
+	 * 
+	 * @param offset the offset of the field within the serialized record
+	 * @return the short there
+	 */
+	public short getShort(int offset) {
+		return segment.getShort(dataPos + offset);
+	}
+	
+	/**
+	 * Reads the int at the given offset from where the serializer began writing the record.
+	 * Only valid until the visitor returns.
+	 * 
+	 * @param offset the offset of the field within the serialized record
+	 * @return the int there
+	 */
+	public int getInt(int offset) {
+		return segment.getInt(dataPos + offset);
+	}
+	
+	/**
+	 * Reads the long at the given offset from where the serializer began writing the record.
+	 * Only valid until the visitor returns.
+	 * 
+	 * @param offset the offset of the field within the serialized record
+	 * @return the long there
+	 */
+	public long getLong(int offset) {
+		return segment.getLong(dataPos + offset);
+	}
+	
+	/**
+	 * Reads the float at the given offset from where the serializer began writing the record.
+	 * Only valid until the visitor returns.
+	 * 
+	 * @param offset the offset of the field within the serialized record
+	 * @return the float there
+	 */
+	public float getFloat(int offset) {
+		return segment.getFloat(dataPos + offset);
+	}
+	
+	/**
+	 * Reads the double at the given offset from where the serializer began writing the record.
+	 * Only valid until the visitor returns.
+	 * 
+	 * @param offset the offset of the field within the serialized record
+	 * @return the double there
+	 */
+	public double getDouble(int offset) {
+		return segment.getDouble(dataPos + offset);
+	}
+	
+	/**
+	 * Deserializes the whole record, for when the caller needs the object after all
+	 * 
+	 * @return the record
+	 */
+	public A read() {
+		final ByteBuffer view = segment.duplicate();
+		view.position(dataPos);
+		return serializer.read(id, view);
+	}
+}
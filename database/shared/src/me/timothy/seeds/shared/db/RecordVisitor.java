@@ -0,0 +1,18 @@
+package me.timothy.seeds.shared.db;
+
+/**
+ * Visits records of an InlineObjectWithIDMapping in place, without deserializing them. The view
+ * is only valid during the call and must not be kept.
+ * 
+ * @author Timothy
+ *
+ * @param <A> the type of object mapped
+ */
+public interface RecordVisitor<A> {
+	/**
+	 * Performs this operation on the given record
+	 * 
+	 * @param record a view of the record, only valid until this returns
+	 */
+	public void visit(RecordView<A> record);
+}
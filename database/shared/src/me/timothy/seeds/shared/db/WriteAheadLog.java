@@ -0,0 +1,375 @@
+package me.timothy.seeds.shared.db;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import me.timothy.seeds.shared.ObjectWithID;
+import me.timothy.seeds.shared.Serializer;
+
+/**
+ * An append-only log of the puts and removes made to a mapping, so that a write is durable once
+ * it is appended to the end of one file rather than once every page it touched is written back.
+ * 
+ * Appends go into a buffer in memory. The buffer is committed, i.e. written to the end of the
+ * file and forced, once it has been open for the commit interval or has grown past the commit
+ * budget, so every append in that window shares a single fsync. A commit doesn't block appends;
+ * they go into a second buffer while the first is written out. Something has to call commit()
+ * or maybeCommit() if appends stop, since the log doesn't have a thread of its own; a
+ * FlushScheduler does this for the logs of the mappings registered with it.
+ * 
+ * Once the mapping has forced everything up to some point, checkpoint() empties the log. After a
+ * crash, open() replays whatever is in the log into the mapping, and stops at the first record
+ * that is incomplete or fails its checksum, which is where the crash tore the log. Each record
+ * is, each field an int unless noted:
+ * 
+ * <pre>
+ * type (byte), PUT or REMOVE
+ * id
+ * length of the payload
+ * payload, the serialized object for a put and nothing for a remove
+ * CRC32 of everything before it in the record
+ * </pre>
+ * 
+ * @author Timothy
+ *
+ * @param <A> the type of object mapped
+ */
+public class WriteAheadLog<A extends ObjectWithID> {
+	/**
+	 * The type of a record which puts an object
+	 */
+	private static final byte PUT = 1;
+	
+	/**
+	 * The type of a record which removes an id
+	 */
+	private static final byte REMOVE = 2;
+	
+	/**
+	 * The number of bytes in a record before the payload
+	 */
+	private static final int RECORD_HEADER_SIZE = 9;
+	
+	/**
+	 * How long appends may wait for a commit unless otherwise specified
+	 */
+	private static final long DEFAULT_COMMIT_INTERVAL_MS = 1000;
+	
+	/**
+	 * How many bytes may wait for a commit unless otherwise specified
+	 */
+	private static final int DEFAULT_COMMIT_BYTES = 1 << 20;
+	
+	/**
+	 * Writes the payload of puts
+	 */
+	private final Serializer<A> serializer;
+	
+	/**
+	 * A path to the file
+	 */
+	private final String filePath;
+	
+	/**
+	 * The longest an append waits for a commit, in nanoseconds
+	 */
+	private final long commitIntervalNanos;
+	
+	/**
+	 * The most bytes that wait for a commit
+	 */
+	private final int commitBytes;
+	
+	/**
+	 * The log file, or null when not open
+	 */
+	private RandomAccessFile file;
+	
+	/**
+	 * The channel of file, which is always positioned at the end
+	 */
+	private FileChannel channel;
+	
+	/**
+	 * Where appends go until they are committed. Guarded by this.
+	 */
+	private ByteBuffer pending;
+	
+	/**
+	 * The other buffer, which is being written out by a commit or is empty. Guarded by commitLock.
+	 */
+	private ByteBuffer writing;
+	
+	/**
+	 * The System.nanoTime() of the first append in pending, if there is one. Guarded by this.
+	 */
+	private long firstPendingAt;
+	
+	/**
+	 * Held while committing, so that commits happen one at a time without holding this
+	 */
+	private final Object commitLock = new Object();
+	
+	/**
+	 * Checksums records, guarded by this
+	 */
+	private final CRC32 crc = new CRC32();
+	
+	public WriteAheadLog(String filePath, Serializer<A> serializer) {
+		this(filePath, serializer, DEFAULT_COMMIT_INTERVAL_MS, DEFAULT_COMMIT_BYTES);
+	}
+	
+	/**
+	 * Creates a log which commits after the given time or number of bytes, whichever is first
+	 * 
+	 * @param filePath the path to the file
+	 * @param serializer the serializer for the objects
+	 * @param commitIntervalMs the longest an append waits for a commit, in milliseconds
+	 * @param commitBytes the most bytes that wait for a commit
+	 */
+	public WriteAheadLog(String filePath, Serializer<A> serializer, long commitIntervalMs, int commitBytes) {
+		if(commitIntervalMs < 0)
+			throw new IllegalArgumentException("commitIntervalMs must not be negative, got " + commitIntervalMs);
+		if(commitBytes <= 0)
+			throw new IllegalArgumentException("commitBytes must be positive, got " + commitBytes);
+		
+		this.filePath = filePath;
+		this.serializer = serializer;
+		this.commitIntervalNanos = commitIntervalMs * 1000000L;
+		this.commitBytes = commitBytes;
+	}
+	
+	/**
+	 * Opens the log, replaying everything in it. Anything after the last complete record is
+	 * from a torn write and is cut off.
+	 * 
+	 * @param replayer what to replay the log into
+	 * @return the number of records replayed
+	 */
+	public synchronized int open(LogReplayer<A> replayer) {
+		if(file != null)
+			throw new IllegalStateException("Called open() when already open!");
+		
+		int replayed = 0;
+		try {
+			file = new RandomAccessFile(filePath, "rw");
+			channel = file.getChannel();
+			
+			final long size = channel.size();
+			long validEnd = 0;
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0)), 1 << 16));
+			byte[] payload = new byte[64];
+			while(validEnd + RECORD_HEADER_SIZE + 4 <= size) {
+				final byte type;
+				final int id;
+				final int len;
+				try {
+					type = in.readByte();
+					id = in.readInt();
+					len = in.readInt();
+					if((type != PUT && type != REMOVE) || len < 0 || validEnd + RECORD_HEADER_SIZE + len + 4 > size)
+						break;
+					if(payload.length < len)
+						payload = new byte[Math.max(len, payload.length * 2)];
+					in.readFully(payload, 0, len);
+					
+					crc.reset();
+					crc.update(type);
+					updateInt(id);
+					updateInt(len);
+					crc.update(payload, 0, len);
+					if(in.readInt() != (int)crc.getValue())
+						break;
+				}catch(EOFException e) {
+					break;
+				}
+				
+				if(type == PUT) {
+					replayer.put(serializer.read(id, ByteBuffer.wrap(payload, 0, len)));
+				}else {
+					replayer.remove(id);
+				}
+				replayed++;
+				validEnd += RECORD_HEADER_SIZE + len + 4;
+			}
+			
+			channel.truncate(validEnd);
+			channel.position(validEnd);
+		}catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+		
+		pending = ByteBuffer.allocate(1 << 12);
+		writing = ByteBuffer.allocate(1 << 12);
+		return replayed;
+	}
+	
+	/**
+	 * Adds an int to the checksum, in the same byte order as it is written
+	 */
+	private void updateInt(int val) {
+		crc.update(val >>> 24);
+		crc.update(val >>> 16);
+		crc.update(val >>> 8);
+		crc.update(val);
+	}
+	
+	/**
+	 * Appends a put of the given object. It is durable after the next commit.
+	 * 
+	 * @param a the object that was put
+	 */
+	public void logPut(A a) {
+		append(PUT, a.id(), a);
+	}
+	
+	/**
+	 * Appends a remove of the given id. It is durable after the next commit.
+	 * 
+	 * @param id the id that was removed
+	 */
+	public void logRemove(int id) {
+		append(REMOVE, id, null);
+	}
+	
+	/**
+	 * Appends a record to pending, growing it if the record doesn't fit
+	 * 
+	 * @param type the type of the record
+	 * @param id the id of the record
+	 * @param a the object to serialize for the payload, or null for none
+	 */
+	private synchronized void append(byte type, int id, A a) {
+		if(pending == null)
+			throw new IllegalStateException("Cannot append when not opened!");
+		
+		final int start = pending.position();
+		while(true) {
+			try {
+				pending.put(type);
+				pending.putInt(id);
+				pending.putInt(0); // length, once we know it
+				if(a != null)
+					serializer.write(a, pending);
+				
+				final int len = pending.position() - start - RECORD_HEADER_SIZE;
+				pending.putInt(start + 5, len);
+				crc.reset();
+				crc.update(pending.array(), start, RECORD_HEADER_SIZE + len);
+				pending.putInt((int)crc.getValue());
+				break;
+			}catch(BufferOverflowException e) {
+				pending.position(start);
+				final ByteBuffer bigger = ByteBuffer.allocate(pending.capacity() * 2);
+				pending.flip();
+				bigger.put(pending);
+				pending = bigger;
+			}
+		}
+		
+		if(start == 0)
+			firstPendingAt = System.nanoTime();
+	}
+	
+	/**
+	 * Determines if what is pending has waited for the commit interval or is over the budget
+	 * 
+	 * @return true if commit should be called
+	 */
+	public synchronized boolean commitDue() {
+		if(pending == null || pending.position() == 0)
+			return false;
+		return pending.position() >= commitBytes || System.nanoTime() - firstPendingAt >= commitIntervalNanos;
+	}
+	
+	/**
+	 * Commits if commitDue(). This is cheap when it isn't, so it may be called after every append.
+	 */
+	public void maybeCommit() {
+		if(commitDue())
+			commit();
+	}
+	
+	/**
+	 * Writes everything appended so far to the file and forces it. Appends made while this is
+	 * forcing wait for the next commit.
+	 */
+	public void commit() {
+		synchronized(commitLock) {
+			synchronized(this) {
+				if(pending == null)
+					throw new IllegalStateException("Cannot commit when not opened!");
+				if(pending.position() == 0)
+					return;
+				
+				final ByteBuffer swap = writing;
+				writing = pending;
+				pending = swap;
+				pending.clear();
+			}
+			
+			try {
+				writing.flip();
+				while(writing.hasRemaining()) {
+					channel.write(writing);
+				}
+				channel.force(false);
+			}catch(IOException e) {
+				throw new RuntimeException(e);
+			}finally {
+				writing.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Empties the log. The caller must have forced every logged change into the mapping, and
+	 * must not log anything until this returns.
+	 */
+	public void checkpoint() {
+		synchronized(commitLock) {
+			synchronized(this) {
+				if(pending == null)
+					throw new IllegalStateException("Cannot checkpoint when not opened!");
+				pending.clear();
+				
+				try {
+					channel.truncate(0);
+					channel.force(false);
+				}catch(IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Commits and closes the log. Whatever is in it is replayed on the next open, unless it was
+	 * checkpointed first.
+	 */
+	public void close() {
+		commit();
+		synchronized(commitLock) {
+			synchronized(this) {
+				try {
+					file.close();
+				}catch(IOException e) {
+					throw new RuntimeException(e);
+				}finally {
+					file = null;
+					channel = null;
+					pending = null;
+					writing = null;
+				}
+			}
+		}
+	}
+}
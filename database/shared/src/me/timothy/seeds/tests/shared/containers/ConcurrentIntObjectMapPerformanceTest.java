@@ -0,0 +1,87 @@
+package me.timothy.seeds.tests.shared.containers;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+
+import me.timothy.seeds.shared.containers.ConcurrentIntObjectMap;
+
+/**
+ * Measures how read-mostly throughput scales with the number of threads, for
+ * ConcurrentIntObjectMap and ConcurrentHashMap<Integer, Integer>
+ * 
+ * @author Timothy
+ */
+public class ConcurrentIntObjectMapPerformanceTest {
+	private static final int KEYS = 1 << 16;
+	private static final int OPERS_PER_THREAD = 4000000;
+	/** One in this many operations is a put, the rest are gets */
+	private static final int WRITE_EVERY = 10;
+	
+	private static interface Oper {
+		public void apply(int key, boolean write);
+	}
+	
+	public static void main(String[] args) throws Exception {
+		final int maxThreads = Runtime.getRuntime().availableProcessors();
+		
+		for(int threads = 1; threads <= maxThreads; threads <<= 1) {
+			final ConcurrentIntObjectMap<Integer> mine = new ConcurrentIntObjectMap<>(KEYS);
+			final ConcurrentHashMap<Integer, Integer> generic = new ConcurrentHashMap<>(KEYS);
+			for(int i = 0; i < KEYS; i++) {
+				mine.put(i, i);
+				generic.put(i, i);
+			}
+			
+			// warm up both
+			run(threads, (key, write) -> { if(write) mine.put(key, key); else mine.get(key); });
+			run(threads, (key, write) -> { if(write) generic.put(key, key); else generic.get(key); });
+			
+			long timeForMine = run(threads, (key, write) -> { if(write) mine.put(key, key); else mine.get(key); });
+			long timeForGen = run(threads, (key, write) -> { if(write) generic.put(key, key); else generic.get(key); });
+			
+			double mineOpsPerMs = threads * (double)OPERS_PER_THREAD / timeForMine;
+			double genOpsPerMs = threads * (double)OPERS_PER_THREAD / timeForGen;
+			System.out.println(threads + " threads: mine " + Math.round(mineOpsPerMs) + " ops/ms, generic " + Math.round(genOpsPerMs) + " ops/ms");
+		}
+	}
+	
+	/**
+	 * Runs the operation on the given number of threads, each doing OPERS_PER_THREAD random
+	 * operations, and returns how long it took for all of them to finish.
+	 * 
+	 * @param threads the number of threads
+	 * @param oper the operation to perform
+	 * @return the time taken in milliseconds
+	 */
+	private static long run(int threads, Oper oper) throws Exception {
+		final CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+		Thread[] workers = new Thread[threads];
+		for(int t = 0; t < threads; t++) {
+			final long seed = t;
+			workers[t] = new Thread(() -> {
+				Random rand = new Random(seed);
+				int[] keys = new int[OPERS_PER_THREAD];
+				for(int i = 0; i < keys.length; i++) {
+					keys[i] = rand.nextInt(KEYS);
+				}
+				try {
+					barrier.await();
+				}catch(Exception e) {
+					throw new RuntimeException(e);
+				}
+				for(int i = 0; i < keys.length; i++) {
+					oper.apply(keys[i], i % WRITE_EVERY == 0);
+				}
+			});
+			workers[t].start();
+		}
+		
+		barrier.await();
+		long start = System.currentTimeMillis();
+		for(Thread worker : workers) {
+			worker.join();
+		}
+		return Math.max(System.currentTimeMillis() - start, 1);
+	}
+}
@@ -0,0 +1,114 @@
+package me.timothy.seeds.tests.shared.containers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import me.timothy.seeds.shared.containers.ConcurrentIntObjectMap;
+import me.timothy.seeds.shared.containers.IntKeyMap;
+
+/**
+ * Runs every IntObjectMapTest against the concurrent implementation, plus tests that actually
+ * share the map between threads.
+ * 
+ * @author Timothy
+ */
+public class ConcurrentIntObjectMapTest extends IntObjectMapTest {
+	private static final int THREADS = 4;
+	
+	@Override
+	protected <T> IntKeyMap<T> createMap() {
+		return new ConcurrentIntObjectMap<>(0, 4);
+	}
+	
+	/**
+	 * Runs the given runnable on THREADS threads at once and rethrows the first failure
+	 * 
+	 * @param work the work for each thread, given the index of the thread
+	 */
+	private static void runOnThreads(ThreadWork work) throws InterruptedException {
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		List<Thread> threads = new ArrayList<>();
+		for(int t = 0; t < THREADS; t++) {
+			final int index = t;
+			Thread thread = new Thread(() -> {
+				try {
+					work.run(index);
+				}catch(Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		if(failure.get() != null)
+			throw new AssertionError(failure.get());
+	}
+	
+	private static interface ThreadWork {
+		public void run(int index) throws Exception;
+	}
+	
+	@Test
+	public void testConcurrentDisjointWriters() throws InterruptedException {
+		final int perThread = 20000;
+		runOnThreads((index) -> {
+			for(int i = 0; i < perThread; i++) {
+				int key = i * THREADS + index;
+				assertNull(map.put(key, new TestClass(key)));
+			}
+			for(int i = 0; i < perThread; i += 2) {
+				int key = i * THREADS + index;
+				assertEquals(key, map.remove(key).id);
+			}
+		});
+		
+		assertEquals(THREADS * perThread / 2, map.size());
+		for(int key = 0; key < THREADS * perThread; key++) {
+			if((key / THREADS) % 2 == 0) {
+				assertNull(map.get(key));
+			}else {
+				assertEquals(key, map.get(key).id);
+			}
+		}
+	}
+	
+	@Test
+	public void testReadersDuringWrites() throws InterruptedException {
+		final int stable = 5000;
+		for(int i = 0; i < stable; i++) {
+			map.put(i, new TestClass(i));
+		}
+		
+		runOnThreads((index) -> {
+			if(index == 0) {
+				// keep growing and shrinking other keys, which moves the stable ones around
+				for(int round = 0; round < 20; round++) {
+					for(int i = stable; i < stable * 3; i++) {
+						map.put(i, new TestClass(i));
+					}
+					for(int i = stable; i < stable * 3; i++) {
+						map.remove(i);
+					}
+				}
+			}else {
+				for(int round = 0; round < 50; round++) {
+					for(int i = 0; i < stable; i++) {
+						TestClass tc = map.get(i);
+						assertTrue("missing " + i, tc != null && tc.id == i);
+					}
+				}
+			}
+		});
+		assertEquals(stable, map.size());
+	}
+}
@@ -0,0 +1,219 @@
+package me.timothy.seeds.tests.shared.containers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import me.timothy.seeds.shared.db.FlushScheduler;
+import me.timothy.seeds.shared.db.InlineObjectWithIDMapping;
+import me.timothy.seeds.shared.db.Mapping;
+import me.timothy.seeds.shared.db.WriteAheadLog;
+import me.timothy.seeds.tests.shared.containers.InlineObjectWithIDMappingTests.TestClass;
+import me.timothy.seeds.tests.shared.containers.InlineObjectWithIDMappingTests.TestClassSerializer;
+
+public class FlushSchedulerTest {
+	/**
+	 * A mapping which only records when it is flushed
+	 */
+	private static class FakeMapping implements Mapping<Object> {
+		private final String name;
+		private final List<String> flushes;
+		public long age;
+		public RuntimeException failure;
+		
+		public FakeMapping(String name, List<String> flushes, long age) {
+			this.name = name;
+			this.flushes = flushes;
+			this.age = age;
+		}
+		
+		@Override
+		public void open() {
+		}
+
+		@Override
+		public void flush() {
+			if(failure != null)
+				throw failure;
+			flushes.add(name);
+			if(age != UNKNOWN_AGE)
+				age = NOTHING_UNFLUSHED;
+		}
+
+		@Override
+		public void close() {
+		}
+		
+		@Override
+		public long unflushedAgeMillis() {
+			return age;
+		}
+	}
+	
+	@Test
+	public void testFlushesOldestFirst() {
+		List<String> flushes = new ArrayList<>();
+		FlushScheduler scheduler = new FlushScheduler(1000);
+		scheduler.register(new FakeMapping("clean", flushes, Mapping.NOTHING_UNFLUSHED));
+		scheduler.register(new FakeMapping("young", flushes, 100));
+		scheduler.register(new FakeMapping("old", flushes, 900));
+		scheduler.register(new FakeMapping("due", flushes, 500));
+		scheduler.flushDue();
+		
+		assertEquals(2, flushes.size());
+		assertEquals("old", flushes.get(0));
+		assertEquals("due", flushes.get(1));
+		
+		scheduler.flushDue();
+		assertEquals(2, flushes.size());
+	}
+	
+	@Test
+	public void testFlushesUnknownAgeOnTimer() throws InterruptedException {
+		List<String> flushes = new ArrayList<>();
+		FlushScheduler scheduler = new FlushScheduler(100);
+		FakeMapping mapping = new FakeMapping("unknown", flushes, Mapping.UNKNOWN_AGE);
+		scheduler.register(mapping);
+		scheduler.flushDue();
+		assertEquals(0, flushes.size());
+		
+		Thread.sleep(60);
+		scheduler.flushDue();
+		assertEquals(1, flushes.size());
+		scheduler.flushDue();
+		assertEquals(1, flushes.size());
+		
+		scheduler.unregister(mapping);
+		Thread.sleep(60);
+		scheduler.flushDue();
+		assertEquals(1, flushes.size());
+	}
+	
+	@Test
+	public void testKeepsFailures() {
+		List<String> flushes = new ArrayList<>();
+		FlushScheduler scheduler = new FlushScheduler(1000);
+		FakeMapping failing = new FakeMapping("failing", flushes, 900);
+		failing.failure = new IllegalStateException("disk full");
+		FakeMapping fine = new FakeMapping("fine", flushes, 800);
+		scheduler.register(failing);
+		scheduler.register(fine);
+		scheduler.flushDue();
+		
+		assertEquals(1, flushes.size());
+		assertEquals("fine", flushes.get(0));
+		assertSame(failing.failure, scheduler.lastFailure(failing));
+		assertNull(scheduler.lastFailure(fine));
+	}
+	
+	@Test
+	public void testUnregisterWaitsForFlush() throws InterruptedException {
+		final CountDownLatch flushing = new CountDownLatch(1);
+		final CountDownLatch finish = new CountDownLatch(1);
+		FlushScheduler scheduler = new FlushScheduler(1000);
+		FakeMapping mapping = new FakeMapping("slow", new ArrayList<>(), 900) {
+			@Override
+			public void flush() {
+				flushing.countDown();
+				try {
+					finish.await();
+				}catch(InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		scheduler.register(mapping);
+		
+		Thread flusher = new Thread(scheduler::flushDue);
+		flusher.start();
+		assertTrue(flushing.await(5, TimeUnit.SECONDS));
+		
+		final CountDownLatch unregistered = new CountDownLatch(1);
+		Thread unregisterer = new Thread(() -> {
+			scheduler.unregister(mapping);
+			unregistered.countDown();
+		});
+		unregisterer.start();
+		assertFalse(unregistered.await(100, TimeUnit.MILLISECONDS));
+		
+		finish.countDown();
+		assertTrue(unregistered.await(5, TimeUnit.SECONDS));
+		flusher.join();
+		unregisterer.join();
+	}
+	
+	@Test
+	public void testFlushesInBackground() throws InterruptedException {
+		File file = new File("test_flush_scheduler.dat");
+		file.delete();
+		InlineObjectWithIDMapping<TestClass> map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), new TestClassSerializer(4));
+		map.open();
+		assertEquals(Mapping.NOTHING_UNFLUSHED, map.unflushedAgeMillis());
+		
+		FlushScheduler scheduler = new FlushScheduler(300);
+		scheduler.register(map);
+		scheduler.start();
+		try {
+			for(int i = 0; i < 100; i++) {
+				map.put(new TestClass(i, i));
+			}
+			assertTrue(map.unflushedAgeMillis() >= 0);
+			
+			final long start = System.currentTimeMillis();
+			while(map.dirtySectors() != 0 && System.currentTimeMillis() - start < 5000) {
+				Thread.sleep(10);
+			}
+			assertEquals(0, map.dirtySectors());
+			assertEquals(Mapping.NOTHING_UNFLUSHED, map.unflushedAgeMillis());
+		}finally {
+			scheduler.unregister(map);
+			scheduler.stop();
+			map.close();
+			file.delete();
+		}
+	}
+	
+	@Test
+	public void testCommitsLogInBackground() throws InterruptedException {
+		File file = new File("test_flush_scheduler.dat");
+		File logFile = new File("test_flush_scheduler.wal");
+		file.delete();
+		logFile.delete();
+		InlineObjectWithIDMapping<TestClass> map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), new TestClassSerializer(4));
+		map.setWriteAheadLog(new WriteAheadLog<>(logFile.getAbsolutePath(), new TestClassSerializer(4), 100, 1 << 20));
+		map.open();
+		
+		// long enough that nothing is flushed, so only a commit can write the log
+		FlushScheduler scheduler = new FlushScheduler(10 * 60 * 1000);
+		scheduler.register(map);
+		scheduler.start();
+		try {
+			map.put(new TestClass(1, 1));
+			assertEquals(0, logFile.length());
+			
+			final long start = System.currentTimeMillis();
+			while(logFile.length() == 0 && System.currentTimeMillis() - start < 5000) {
+				Thread.sleep(10);
+			}
+			assertTrue(logFile.length() > 0);
+			assertTrue(map.dirtySectors() > 0);
+			assertNull(scheduler.lastFailure(map));
+		}finally {
+			scheduler.unregister(map);
+			scheduler.stop();
+			map.close();
+			file.delete();
+			logFile.delete();
+		}
+	}
+}
@@ -2,13 +2,126 @@ package me.timothy.seeds.tests.shared.containers;
 
 import java.io.File;
 import java.text.DecimalFormat;
+import java.util.Random;
 
 import me.timothy.seeds.shared.db.InlineObjectWithIDMapping;
+import me.timothy.seeds.shared.db.RecordView;
+import me.timothy.seeds.shared.db.RecordVisitor;
 import me.timothy.seeds.tests.shared.containers.InlineObjectWithIDMappingTests.*;
 
 public class InlineObjectWithIDMappingPerformanceTest {
 	public static void main(String[] args) {
 		runInsertionTest();
+		runLookupTest();
+		runBulkLoadTest();
+	}
+	
+	/**
+	 * Loads the same records into an empty mapping with a put each and with a single putAll
+	 */
+	public static void runBulkLoadTest() {
+		final int numRecords = 1 << 18;
+		final int trials = 5;
+		
+		TestClass[] records = new TestClass[numRecords];
+		Random rand = new Random(0);
+		for(int i = 0; i < numRecords; i++) {
+			records[i] = new TestClass(rand.nextInt(Integer.MAX_VALUE), i);
+		}
+		
+		File f = new File("perf_test_inline_object_with_id.dat");
+		for(int trial = 0; trial < trials; trial++) {
+			f.delete();
+			InlineObjectWithIDMapping<TestClass> map = new InlineObjectWithIDMapping<>("perf_test_inline_object_with_id.dat", new TestClassSerializer(32));
+			map.open();
+			long start = System.nanoTime();
+			for(TestClass tc : records) {
+				map.put(tc);
+			}
+			long putTime = System.nanoTime() - start;
+			map.close();
+			
+			f.delete();
+			map = new InlineObjectWithIDMapping<>("perf_test_inline_object_with_id.dat", new TestClassSerializer(32));
+			map.open();
+			start = System.nanoTime();
+			map.putAll(records);
+			long putAllTime = System.nanoTime() - start;
+			map.close();
+			
+			System.out.println("Trial " + (trial + 1) + ": put " + (putTime / 1000000) + "ms, putAll " + (putAllTime / 1000000) + "ms for " + numRecords + " records");
+		}
+		f.delete();
+	}
+	
+	/**
+	 * Sums one field of random records through get, view, and getAll in batches
+	 */
+	public static void runLookupTest() {
+		final int numRecords = 1 << 16;
+		final int lookups = 1 << 22;
+		final int trials = 10;
+		final int batchSize = 512;
+		
+		File f = new File("perf_test_inline_object_with_id.dat");
+		if(f.exists())
+			f.delete();
+		
+		InlineObjectWithIDMapping<TestClass> map = new InlineObjectWithIDMapping<>("perf_test_inline_object_with_id.dat", new TestClassSerializer(32));
+		map.open();
+		for(int i = 0; i < numRecords; i++) {
+			map.put(new TestClass(i, i));
+		}
+		
+		int[] ids = new int[lookups];
+		Random rand = new Random(0);
+		for(int i = 0; i < lookups; i++) {
+			ids[i] = rand.nextInt(numRecords);
+		}
+		
+		final long[] sum = new long[1];
+		RecordVisitor<TestClass> visitor = new RecordVisitor<TestClass>() {
+			@Override
+			public void visit(RecordView<TestClass> record) {
+				sum[0] += record.getInt(0);
+			}
+		};
+		
+		for(int trial = 0; trial < trials; trial++) {
+			long start = System.nanoTime();
+			long getSum = 0;
+			for(int id : ids) {
+				getSum += map.get(id).val;
+			}
+			long getTime = System.nanoTime() - start;
+			
+			start = System.nanoTime();
+			sum[0] = 0;
+			for(int id : ids) {
+				map.view(id, visitor);
+			}
+			long viewTime = System.nanoTime() - start;
+			
+			start = System.nanoTime();
+			long batchSum = 0;
+			int[] batch = new int[batchSize];
+			TestClass[] out = new TestClass[batchSize];
+			for(int i = 0; i < lookups; i += batchSize) {
+				System.arraycopy(ids, i, batch, 0, batchSize);
+				map.getAll(batch, out);
+				for(TestClass tc : out) {
+					batchSum += tc.val;
+				}
+			}
+			long batchTime = System.nanoTime() - start;
+			
+			if(getSum != sum[0] || getSum != batchSum)
+				throw new IllegalStateException("get, view and getAll disagree");
+			System.out.println("Trial " + (trial + 1) + ": get " + (getTime / lookups) + "ns / lookup, view " + (viewTime / lookups) + "ns / lookup, getAll " + (batchTime / lookups) + "ns / lookup");
+		}
+		
+		map.close();
+		f.delete();
 	}
 	
 	public static void runInsertionTest() {
@@ -1,17 +1,26 @@
 package me.timothy.seeds.tests.shared.containers;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -22,6 +31,8 @@ import org.junit.Test;
 import me.timothy.seeds.shared.FixedSerializer;
 import me.timothy.seeds.shared.ObjectWithID;
 import me.timothy.seeds.shared.db.InlineObjectWithIDMapping;
+import me.timothy.seeds.shared.db.RecordView;
+import me.timothy.seeds.shared.db.WriteAheadLog;
 
 public class InlineObjectWithIDMappingTests {
 	public static class TestClass implements ObjectWithID {
@@ -277,6 +288,690 @@ public class InlineObjectWithIDMappingTests {
 		map.put(tc(97897, 50));
 	}
 	
+	@Test
+	public void testGrowsWhileReadable() {
+		final int entries = 20000;
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		
+		for(int i = 0; i < entries; i++) {
+			map.put(tc(i * 7, i));
+			if((i & 1023) == 0) {
+				// everything so far must be reachable in the middle of a round of splits
+				for(int j = 0; j <= i; j++) {
+					assertEquals(tc(j * 7, j), map.get(j * 7));
+				}
+			}
+		}
+		map.assertSane();
+		
+		map.close();
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		map.assertSane();
+		for(int i = 0; i < entries; i++) {
+			assertEquals(tc(i * 7, i), map.get(i * 7));
+		}
+		for(int i = 0; i < entries; i += 2) {
+			assertEquals(tc(i * 7, i), map.remove(i * 7));
+		}
+		for(int i = 0; i < entries; i++) {
+			if((i & 1) == 0)
+				assertNull(map.get(i * 7));
+			else
+				assertEquals(tc(i * 7, i), map.get(i * 7));
+		}
+		map.assertSane();
+	}
+	
+	@Test
+	public void testSmallSegments() {
+		final int entries = 5000;
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser, 2);
+		map.open();
+		
+		for(int i = 0; i < entries; i++) {
+			map.put(tc(i * 3, i));
+		}
+		for(int i = 0; i < entries; i += 3) {
+			assertEquals(tc(i * 3, i), map.remove(i * 3));
+		}
+		map.assertSane();
+		
+		map.close();
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser, 4);
+		map.open();
+		for(int i = 0; i < entries; i++) {
+			if(i % 3 == 0)
+				assertNull(map.get(i * 3));
+			else
+				assertEquals(tc(i * 3, i), map.get(i * 3));
+		}
+	}
+	
+	@Test
+	public void testOpensFileWithoutHeader() throws Exception {
+		// the format from before the header: one record per sector, slots starting at sector 0.
+		// 17 overflows bucket 1 into slot 3, then 19 and 20 find their home slots taken by that
+		// chain and are appended to it, so bucket 1's chain runs through buckets 3 and 4.
+		ser = new TestClassSerializer(4096 - 9);
+		final int[] ids = new int[] { 0, 1, 2, 17, 19, 5, 6, 20 };
+		writeLegacyFile(4096, 16, 16, ids);
+		
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		assertEquals(0, map.quarantinedAtOpen());
+		map.assertSane();
+		for(int id : ids) {
+			assertEquals(tc(id, id * 10), map.get(id));
+		}
+		assertNull(map.get(3));
+		assertNull(map.get(map.suggestID()));
+		map.close();
+		
+		map.open();
+		for(int id : ids) {
+			assertEquals(tc(id, id * 10), map.get(id));
+		}
+		map.remove(17);
+		assertNull(map.get(17));
+		assertEquals(tc(19, 190), map.get(19));
+		assertEquals(tc(20, 200), map.get(20));
+		map.assertSane();
+	}
+	
+	@Test
+	public void testOpensBaselineFileWithCollisions() throws Exception {
+		// enough colliding ids that the old puts ran chains through other buckets' home slots
+		final Random rand = new Random(3000);
+		final Set<Integer> idSet = new HashSet<>();
+		while(idSet.size() < 3000) {
+			idSet.add(rand.nextInt(1 << 20));
+		}
+		final int[] ids = idSet.stream().mapToInt(Integer::intValue).toArray();
+		writeLegacyFile(13, 14, 4096, ids);
+		
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		assertEquals(0, map.quarantinedAtOpen());
+		map.assertSane();
+		for(int id : ids) {
+			assertEquals(tc(id, id * 10), map.get(id));
+		}
+		map.close();
+		
+		map.open();
+		for(int id : ids) {
+			assertEquals(tc(id, id * 10), map.get(id));
+		}
+		map.put(tc(1 << 21, 1));
+		map.remove(ids[0]);
+		assertNull(map.get(ids[0]));
+		assertEquals(tc(1 << 21, 1), map.get(1 << 21));
+		map.assertSane();
+	}
+	
+	/**
+	 * Writes the file in the format from before the header, putting each id the way the mapping
+	 * used to: a record whose home slot is taken goes at the end of whatever chain starts there,
+	 * even if that chain belongs to another bucket, in the first free slot.
+	 * 
+	 * @param paddedSize the size of each slot
+	 * @param numSectors the number of sectors in the file
+	 * @param capacity the number of buckets, a power of 2
+	 * @param ids the ids to put, all different, each with a val of ten times the id
+	 * @throws IOException if one occurs
+	 */
+	private void writeLegacyFile(int paddedSize, int numSectors, int capacity, int[] ids) throws IOException {
+		final ByteBuffer buf = ByteBuffer.allocate(numSectors * 4096);
+		int filledLeftOf = 0;
+		for(int id : ids) {
+			int ind = id & (capacity - 1);
+			if(buf.get(legacyPosition(ind, paddedSize)) == 1) {
+				int last = ind;
+				while(buf.getInt(legacyPosition(last, paddedSize) + 5) != 0) {
+					last = buf.getInt(legacyPosition(last, paddedSize) + 5) - 1;
+				}
+				buf.putInt(legacyPosition(last, paddedSize) + 5, filledLeftOf + 1);
+				ind = filledLeftOf;
+			}
+			
+			buf.position(legacyPosition(ind, paddedSize));
+			buf.put((byte)1); // exists
+			buf.putInt(id); // id
+			buf.putInt(0); // next
+			buf.putInt(id * 10); // val
+			while(buf.get(legacyPosition(filledLeftOf, paddedSize)) == 1) {
+				filledLeftOf++;
+			}
+		}
+		
+		try(FileOutputStream fos = new FileOutputStream(file)) {
+			fos.write(buf.array());
+		}
+	}
+	
+	/**
+	 * Finds a slot in a file from before the header
+	 * 
+	 * @param index the slot
+	 * @param paddedSize the size of each slot
+	 * @return the offset of the slot in the file
+	 */
+	private static int legacyPosition(int index, int paddedSize) {
+		final int numPerSector = 4096 / paddedSize;
+		return (index / numPerSector) * 4096 + (index % numPerSector) * paddedSize;
+	}
+	
+	@Test
+	public void testRecoversWhenNotClosed() throws Exception {
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		for(int i = 0; i < 1000; i++) {
+			map.put(tc(i, i));
+		}
+		map.remove(5);
+		map.flush();
+		
+		// a copy of the file as it would be after a crash
+		File crashed = new File(file.getAbsolutePath() + ".crashed");
+		Files.copy(file.toPath(), crashed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		map.close();
+		Files.move(crashed.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		assertEquals(0, map.quarantinedAtOpen());
+		assertEquals(5, map.suggestID());
+		for(int i = 0; i < 1000; i++) {
+			if(i == 5)
+				assertNull(map.get(i));
+			else
+				assertEquals(tc(i, i), map.get(i));
+		}
+		map.put(tc(5, 5));
+		assertEquals(tc(5, 5), map.get(5));
+	}
+	
+	@Test
+	public void testQuarantinesTornSector() throws Exception {
+		File quarantine = new File(file.getAbsolutePath() + ".quarantine");
+		quarantine.delete();
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		for(int i = 0; i < 5000; i++) {
+			map.put(tc(i, i));
+		}
+		map.flush();
+		
+		File crashed = new File(file.getAbsolutePath() + ".crashed");
+		Files.copy(file.toPath(), crashed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		map.close();
+		Files.move(crashed.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		
+		// a write to the third sector of slots which was torn by the crash
+		try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			byte[] garbage = new byte[4096];
+			Arrays.fill(garbage, (byte)0x7F);
+			raf.seek(4096 * 3);
+			raf.write(garbage);
+		}
+		
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		map.assertSane();
+		assertTrue(map.quarantinedAtOpen() > 0);
+		assertTrue(quarantine.length() > 0);
+		
+		int found = 0;
+		for(int i = 0; i < 5000; i++) {
+			TestClass val = map.get(i);
+			if(val != null) {
+				assertEquals(tc(i, i), val);
+				found++;
+			}
+		}
+		int iterated = 0;
+		for(Iterator<TestClass> iter = map.iterAll(); iter.hasNext(); iter.next()) {
+			iterated++;
+		}
+		assertEquals(found, iterated);
+		assertTrue(found > 4000);
+		for(int i = 0; i < 5000; i++) {
+			map.put(tc(i, i));
+		}
+		map.assertSane();
+		quarantine.delete();
+	}
+	
+	@Test
+	public void testRecoversWithStaleCapacity() throws Exception {
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		for(int i = 0; i < 1000; i++) {
+			map.put(tc(i, i));
+		}
+		map.flush();
+		byte[] oldHeader = new byte[4096];
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			raf.readFully(oldHeader);
+		}
+		
+		// splits move records to new buckets, and then those moves are flushed
+		for(int i = 1000; i < 5000; i++) {
+			map.put(tc(i, i));
+		}
+		map.flush();
+		
+		// as if the header sector was never written back after the splits
+		File crashed = new File(file.getAbsolutePath() + ".crashed");
+		Files.copy(file.toPath(), crashed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		map.close();
+		Files.move(crashed.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.write(oldHeader);
+		}
+		
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		assertEquals(0, map.quarantinedAtOpen());
+		map.assertSane();
+		for(int i = 0; i < 5000; i++) {
+			assertEquals(tc(i, i), map.get(i));
+		}
+		map.remove(17);
+		map.put(tc(5000, 5000));
+		assertNull(map.get(17));
+		assertEquals(tc(5000, 5000), map.get(5000));
+		map.assertSane();
+	}
+	
+	@Test
+	public void testRecoversWithoutChecksums() throws Exception {
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		for(int i = 0; i < 1000; i++) {
+			map.put(tc(i, i));
+		}
+		map.flush();
+		byte[] oldHeader = new byte[4096];
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			raf.readFully(oldHeader);
+		}
+		for(int i = 1000; i < 5000; i++) {
+			map.put(tc(i, i));
+		}
+		map.flush();
+		
+		// a file that was never flushed with checksums, with records the header's capacity misses
+		File crashed = new File(file.getAbsolutePath() + ".crashed");
+		Files.copy(file.toPath(), crashed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		map.close();
+		Files.move(crashed.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.write(oldHeader);
+		}
+		try(RandomAccessFile raf = new RandomAccessFile(file.getAbsolutePath() + ".sum", "rw")) {
+			raf.setLength(0);
+		}
+		
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		assertEquals(0, map.quarantinedAtOpen());
+		map.assertSane();
+		for(int i = 0; i < 5000; i++) {
+			assertEquals(tc(i, i), map.get(i));
+		}
+	}
+	
+	@Test
+	public void testReplaysLogAfterCrash() throws Exception {
+		File logFile = new File(file.getAbsolutePath() + ".wal");
+		logFile.delete();
+		WriteAheadLog<TestClass> log = new WriteAheadLog<>(logFile.getAbsolutePath(), ser);
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.setWriteAheadLog(log);
+		map.open();
+		for(int i = 0; i < 1000; i++) {
+			map.put(tc(i, i));
+		}
+		map.flush();
+		assertEquals(0, logFile.length());
+		
+		// the mapping as of the flush, as if none of what follows made it to disk
+		File crashed = new File(file.getAbsolutePath() + ".crashed");
+		Files.copy(file.toPath(), crashed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		for(int i = 1000; i < 2000; i++) {
+			map.put(tc(i, i));
+		}
+		for(int i = 0; i < 100; i++) {
+			map.remove(i);
+		}
+		map.put(tc(500, -500));
+		log.commit();
+		File crashedLog = new File(logFile.getAbsolutePath() + ".crashed");
+		Files.copy(logFile.toPath(), crashedLog.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		map.close();
+		assertEquals(0, logFile.length());
+		Files.move(crashed.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.move(crashedLog.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.setWriteAheadLog(new WriteAheadLog<>(logFile.getAbsolutePath(), ser));
+		map.open();
+		for(int i = 0; i < 2000; i++) {
+			if(i < 100)
+				assertNull(map.get(i));
+			else
+				assertEquals(tc(i, i == 500 ? -500 : i), map.get(i));
+		}
+		map.assertSane();
+		map.close();
+		logFile.delete();
+		
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+	}
+	
+	@Test
+	public void testUnmapsOnClose() throws Exception {
+		File maps = new File("/proc/self/maps");
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		for(int i = 0; i < 100000; i++) {
+			map.put(tc(i, i));
+		}
+		map.close();
+		
+		String path = file.getCanonicalPath();
+		if(maps.exists()) { // only linux tells us what is mapped
+			for(String line : Files.readAllLines(maps.toPath())) {
+				assertFalse(line, line.endsWith(path));
+			}
+		}
+		
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		for(int i = 0; i < 100000; i++) {
+			assertEquals(tc(i, i), map.get(i));
+		}
+	}
+	
+	@Test
+	public void testTracksDirtySectors() {
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		assertEquals(0, map.dirtySectors());
+		for(int i = 0; i < 10000; i++) {
+			map.put(tc(i, i));
+		}
+		assertTrue(map.dirtySectors() > 0);
+		map.flush();
+		assertEquals(0, map.dirtySectors());
+		
+		map.put(tc(5000, -1)); // overwrite
+		assertEquals(1, map.dirtySectors());
+		map.put(tc(5000, -2));
+		assertEquals(1, map.dirtySectors());
+		map.flush();
+		assertEquals(0, map.dirtySectors());
+		
+		map.remove(7000);
+		assertTrue(map.dirtySectors() >= 1 && map.dirtySectors() <= 2);
+		map.close();
+		
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		assertEquals(0, map.dirtySectors());
+		for(int i = 0; i < 10000; i++) {
+			if(i == 7000)
+				assertNull(map.get(i));
+			else
+				assertEquals(tc(i, i == 5000 ? -2 : i), map.get(i));
+		}
+	}
+	
+	@Test
+	public void testIterAll() {
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		assertTrue(!map.iterAll().hasNext());
+		
+		Set<Integer> expected = new HashSet<>();
+		for(int i = 0; i < 3000; i += 3) {
+			map.put(tc(i, i * 2));
+			expected.add(i);
+		}
+		
+		Iterator<TestClass> iter = map.iterAll();
+		while(iter.hasNext()) {
+			TestClass next = iter.next();
+			assertEquals(next.id * 2, next.val);
+			assertTrue("unexpected " + next, expected.remove(next.id));
+		}
+		assertTrue("missing " + expected, expected.isEmpty());
+	}
+	
+	@Test
+	public void testView() {
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		for(int i = 0; i < 500; i++) {
+			map.put(tc(i * 5, i));
+		}
+		
+		final int[] seen = new int[2];
+		for(int i = 0; i < 500; i++) {
+			assertTrue(map.view(i * 5, (record) -> {
+				seen[0] = record.id();
+				seen[1] = record.getInt(0);
+			}));
+			assertEquals(i * 5, seen[0]);
+			assertEquals(i, seen[1]);
+		}
+		assertFalse(map.view(1, (record) -> { throw new AssertionError("visited " + record.id()); }));
+		
+		final RecordView<?>[] kept = new RecordView<?>[1];
+		map.view(10, (record) -> {
+			assertEquals(tc(10, 2), record.read());
+			kept[0] = record;
+		});
+		try {
+			kept[0].getInt(0);
+			throw new AssertionError("view was usable after the visit");
+		}catch(NullPointerException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void testGetAll() {
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		for(int i = 0; i < 5000; i += 2) {
+			map.put(tc(i, i + 1));
+		}
+		
+		Random rand = new Random(3);
+		int[] ids = new int[1000];
+		int expectedFound = 0;
+		for(int i = 0; i < ids.length; i++) {
+			ids[i] = rand.nextInt(6000);
+			if(ids[i] < 5000 && ids[i] % 2 == 0)
+				expectedFound++;
+		}
+		
+		TestClass[] out = new TestClass[ids.length];
+		assertEquals(expectedFound, map.getAll(ids, out));
+		for(int i = 0; i < ids.length; i++) {
+			assertEquals(map.get(ids[i]), out[i]);
+		}
+		
+		final int[] visited = new int[1];
+		assertEquals(expectedFound, map.view(ids, (record) -> {
+			assertEquals(record.id() + 1, record.getInt(0));
+			visited[0]++;
+		}));
+		assertEquals(expectedFound, visited[0]);
+	}
+	
+	@Test
+	public void testPutAll() {
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		for(int i = 0; i < 1000; i++) {
+			map.put(tc(i, i));
+		}
+		
+		// overwrites half of what is there and adds the rest
+		List<TestClass> records = new ArrayList<>();
+		for(int i = 500; i < 20000; i++) {
+			records.add(tc(i, -i));
+		}
+		map.putAll(records);
+		map.assertSane();
+		for(int i = 0; i < 20000; i++) {
+			assertEquals(tc(i, i < 500 ? i : -i), map.get(i));
+		}
+		
+		TestClass[] more = new TestClass[5000];
+		for(int i = 0; i < more.length; i++) {
+			more[i] = tc(100000 + i * 3, i);
+		}
+		map.putAll(more);
+		map.assertSane();
+		for(int i = 0; i < more.length; i++) {
+			assertEquals(more[i], map.get(more[i].id));
+		}
+		assertEquals(tc(19999, -19999), map.get(19999));
+	}
+	
+	@Test
+	public void testViewAll() {
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		Set<Integer> expected = new HashSet<>();
+		for(int i = 0; i < 3000; i += 7) {
+			map.put(tc(i, -i));
+			expected.add(i);
+		}
+		
+		map.viewAll((record) -> {
+			assertEquals(-record.id(), record.getInt(0));
+			assertTrue("unexpected " + record.id(), expected.remove(record.id()));
+		});
+		assertTrue("missing " + expected, expected.isEmpty());
+	}
+	
+	@Test
+	public void testReadersDuringWrites() throws InterruptedException {
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		final int stable = 2000;
+		for(int i = 0; i < stable; i++) {
+			map.put(tc(i, i));
+		}
+		
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		List<Thread> threads = new ArrayList<>();
+		for(int t = 0; t < 4; t++) {
+			final boolean writer = t == 0;
+			Thread thread = new Thread(() -> {
+				try {
+					if(writer) {
+						// keep growing and shrinking other ids, which splits and moves the stable ones
+						for(int round = 0; round < 5; round++) {
+							for(int i = stable; i < stable * 4; i++) {
+								map.put(tc(i, i));
+							}
+							for(int i = stable; i < stable * 4; i++) {
+								map.remove(i);
+							}
+						}
+					}else {
+						for(int round = 0; round < 20; round++) {
+							for(int i = 0; i < stable; i++) {
+								assertEquals(tc(i, i), map.get(i));
+							}
+						}
+					}
+				}catch(Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		if(failure.get() != null)
+			throw new AssertionError(failure.get());
+		
+		map.assertSane();
+	}
+	
+	@Test
+	public void testFlushesDuringReadsAndWrites() throws Exception {
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		final int stable = 2000;
+		for(int i = 0; i < stable; i++) {
+			map.put(tc(i, i));
+		}
+		
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		List<Thread> threads = new ArrayList<>();
+		for(int t = 0; t < 5; t++) {
+			final int role = t;
+			Thread thread = new Thread(() -> {
+				try {
+					if(role == 0) {
+						for(int i = stable; i < stable * 10; i++) {
+							map.put(tc(i, i));
+						}
+					}else if(role < 3) {
+						// two flushers, so that one can be forcing while the other takes the dirty sectors
+						for(int round = 0; round < 50; round++) {
+							map.flush();
+						}
+					}else {
+						for(int round = 0; round < 20; round++) {
+							for(int i = 0; i < stable; i++) {
+								assertEquals(tc(i, i), map.get(i));
+							}
+						}
+					}
+				}catch(Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		if(failure.get() != null)
+			throw new AssertionError(failure.get());
+		map.flush();
+		assertEquals(0, map.dirtySectors());
+		
+		// everything was flushed, so a crash now loses nothing
+		File crashed = new File(file.getAbsolutePath() + ".crashed");
+		Files.copy(file.toPath(), crashed.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		map.close();
+		Files.move(crashed.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		
+		map = new InlineObjectWithIDMapping<>(file.getAbsolutePath(), ser);
+		map.open();
+		assertEquals(0, map.quarantinedAtOpen());
+		map.assertSane();
+		for(int i = 0; i < stable * 10; i++) {
+			assertEquals(tc(i, i), map.get(i));
+		}
+	}
+	
 	private static class HistoryItem {
 		public byte type; // 0 = add, 1 = delete, 2 = get
 		public int id;
@@ -0,0 +1,140 @@
+package me.timothy.seeds.tests.shared.containers;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import me.timothy.seeds.shared.containers.IntBTreeMap;
+
+/**
+ * Compares IntBTreeMap against TreeMap for random inserts and lookups, appends in key order,
+ * range scans, and building from sorted input
+ * 
+ * @author Timothy
+ */
+public class IntBTreeMapPerformanceTest {
+	private static final int ITERS = 1000000;
+	private static final int WARMUPS = 10;
+	private static final int RANGES = 10000;
+	private static final int RANGE_WIDTH = 1000;
+	
+	public static void main(String[] args) {
+		Random rand = new Random();
+		final int[] keys = new int[ITERS];
+		final Integer[] values = new Integer[ITERS];
+		for(int i = 0; i < ITERS; i++) {
+			keys[i] = rand.nextInt(ITERS * 4);
+			values[i] = i;
+		}
+		final int[] sortedKeys = new int[ITERS];
+		for(int i = 0; i < ITERS; i++) {
+			sortedKeys[i] = i * 4;
+		}
+		
+		System.out.println("Random puts and gets (IntBTreeMap vs TreeMap<Integer, Integer>)");
+		compare(() -> {
+			IntBTreeMap<Integer> map = new IntBTreeMap<>();
+			for(int j = 0; j < ITERS; j++) {
+				map.put(keys[j], values[j]);
+			}
+			long sum = 0;
+			for(int j = 0; j < ITERS; j++) {
+				Integer val = map.get(keys[(j * 7) % ITERS]);
+				sum += val;
+			}
+			if(sum == 42) System.out.println();
+		}, () -> {
+			TreeMap<Integer, Integer> map = new TreeMap<>();
+			for(int j = 0; j < ITERS; j++) {
+				map.put(keys[j], values[j]);
+			}
+			long sum = 0;
+			for(int j = 0; j < ITERS; j++) {
+				Integer val = map.get(keys[(j * 7) % ITERS]);
+				sum += val;
+			}
+			if(sum == 42) System.out.println();
+		});
+		
+		System.out.println("Appending in key order (IntBTreeMap vs TreeMap<Integer, Integer>)");
+		compare(() -> {
+			IntBTreeMap<Integer> map = new IntBTreeMap<>();
+			for(int j = 0; j < ITERS; j++) {
+				map.put(sortedKeys[j], values[j]);
+			}
+		}, () -> {
+			TreeMap<Integer, Integer> map = new TreeMap<>();
+			for(int j = 0; j < ITERS; j++) {
+				map.put(sortedKeys[j], values[j]);
+			}
+		});
+		
+		final IntBTreeMap<Integer> tree = IntBTreeMap.fromSorted(sortedKeys, values);
+		final TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+		for(int j = 0; j < ITERS; j++) {
+			treeMap.put(sortedKeys[j], values[j]);
+		}
+		System.out.println("Range scans of " + RANGE_WIDTH + " keys (IntBTreeMap vs TreeMap<Integer, Integer>)");
+		compare(() -> {
+			IntBTreeMap<Integer>.Cursor cursor = tree.cursor(0, 0);
+			long sum = 0;
+			for(int j = 0; j < RANGES; j++) {
+				int from = keys[j];
+				cursor.seek(from, from + RANGE_WIDTH);
+				while(cursor.advance()) {
+					sum += cursor.value();
+				}
+			}
+			if(sum == 42) System.out.println();
+		}, () -> {
+			long sum = 0;
+			for(int j = 0; j < RANGES; j++) {
+				int from = keys[j];
+				for(Map.Entry<Integer, Integer> e : treeMap.subMap(from, from + RANGE_WIDTH).entrySet()) {
+					sum += e.getValue();
+				}
+			}
+			if(sum == 42) System.out.println();
+		});
+		
+		System.out.println("Building from sorted input (IntBTreeMap.fromSorted vs new TreeMap(SortedMap))");
+		compare(() -> {
+			IntBTreeMap<Integer> map = IntBTreeMap.fromSorted(sortedKeys, values);
+			if(map.size() == 42) System.out.println();
+		}, () -> {
+			TreeMap<Integer, Integer> map = new TreeMap<>(treeMap);
+			if(map.size() == 42) System.out.println();
+		});
+	}
+	
+	/**
+	 * Warms up and times both runnables, printing which was faster
+	 * 
+	 * @param mine the run using our container
+	 * @param generic the run using the java.util container
+	 */
+	private static void compare(Runnable mine, Runnable generic) {
+		for(int i = 0; i < WARMUPS; i++) {
+			mine.run();
+			generic.run();
+		}
+		
+		long start = System.currentTimeMillis();
+		mine.run();
+		long timeForMine = System.currentTimeMillis() - start;
+		System.out.println("  Mine: " + timeForMine + "ms");
+		
+		start = System.currentTimeMillis();
+		generic.run();
+		long timeForGen = System.currentTimeMillis() - start;
+		System.out.println("  Generic: " + timeForGen + "ms");
+		
+		if(timeForMine < timeForGen) {
+			double perc = ((timeForGen - timeForMine) / (double)Math.max(timeForMine, 1)) * 100;
+			System.out.println("Mines Better! Improvement: " + perc + "%");
+		}else {
+			double perc = ((timeForMine - timeForGen) / (double)Math.max(timeForGen, 1)) * 100;
+			System.out.println("Generics Better! Improvement: " + perc + "%");
+		}
+	}
+}
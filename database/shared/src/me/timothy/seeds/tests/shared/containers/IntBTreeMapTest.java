@@ -0,0 +1,172 @@
+package me.timothy.seeds.tests.shared.containers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import me.timothy.seeds.shared.containers.IntBTreeMap;
+import me.timothy.seeds.shared.containers.IntKeyMap;
+
+/**
+ * Runs every IntObjectMapTest against the B+tree, plus tests for ordering, ranges and bulk
+ * loading which are checked against a TreeMap.
+ * 
+ * @author Timothy
+ */
+public class IntBTreeMapTest extends IntObjectMapTest {
+	@Override
+	protected <T> IntKeyMap<T> createMap() {
+		return new IntBTreeMap<>();
+	}
+	
+	/**
+	 * Checks that the tree has the same entries as the standard map, in the same order
+	 */
+	private static void assertMatches(TreeMap<Integer, Integer> std, IntBTreeMap<Integer> tree) {
+		assertEquals(std.size(), tree.size());
+		final List<Integer> seen = new ArrayList<>();
+		tree.forEachEntry((k, v) -> {
+			assertEquals(Integer.valueOf(k), v);
+			seen.add(k);
+		});
+		assertEquals(new ArrayList<>(std.keySet()), seen);
+		if(!std.isEmpty()) {
+			assertEquals(std.firstKey().intValue(), tree.firstKey());
+			assertEquals(std.lastKey().intValue(), tree.lastKey());
+		}
+	}
+	
+	/**
+	 * Checks a range cursor against the same range of the standard map
+	 */
+	private static void assertRange(TreeMap<Integer, Integer> std, IntBTreeMap<Integer> tree, int from, int to) {
+		IntBTreeMap<Integer>.Cursor cursor = tree.cursor(from, to);
+		for(Map.Entry<Integer, Integer> e : std.subMap(from, true, to, false).entrySet()) {
+			assertTrue(cursor.advance());
+			assertEquals(e.getKey().intValue(), cursor.key());
+			assertEquals(e.getValue(), cursor.value());
+		}
+		assertFalse(cursor.advance());
+	}
+	
+	@Test
+	public void testRandomAgainstTreeMap() {
+		Random rand = new Random();
+		TreeMap<Integer, Integer> std = new TreeMap<>();
+		IntBTreeMap<Integer> tree = new IntBTreeMap<>();
+		
+		// grow big enough for a few levels, then shrink back down through the merges
+		for(int round = 0; round < 4; round++) {
+			for(int i = 0; i < 50000; i++) {
+				int key = rand.nextInt(200000) - 100000;
+				assertEquals(std.put(key, key), tree.put(key, key));
+			}
+			assertMatches(std, tree);
+			for(int i = 0; i < 60000; i++) {
+				int key = rand.nextInt(200000) - 100000;
+				assertEquals(std.remove(key), tree.remove(key));
+			}
+			assertMatches(std, tree);
+		}
+		
+		for(int i = 0; i < 200; i++) {
+			int from = rand.nextInt(220000) - 110000;
+			assertRange(std, tree, from, from + rand.nextInt(5000));
+		}
+		
+		for(Integer key : new ArrayList<>(std.keySet())) {
+			assertEquals(key, tree.remove(key));
+		}
+		assertEquals(0, tree.size());
+		assertFalse(tree.cursor().advance());
+	}
+	
+	@Test
+	public void testAscendingAppendAndTrim() {
+		// like a log: append at the end, trim from the front
+		TreeMap<Integer, Integer> std = new TreeMap<>();
+		IntBTreeMap<Integer> tree = new IntBTreeMap<>();
+		int head = 0;
+		for(int tail = 0; tail < 100000; tail++) {
+			tree.put(tail, tail);
+			std.put(tail, tail);
+			if(tail % 3 == 0) {
+				assertEquals(Integer.valueOf(head), tree.remove(head));
+				std.remove(head);
+				head++;
+			}
+		}
+		assertMatches(std, tree);
+		assertRange(std, tree, head - 10, head + 1000);
+	}
+	
+	@Test
+	public void testExtremeKeys() {
+		IntBTreeMap<Integer> tree = new IntBTreeMap<>();
+		tree.put(Integer.MAX_VALUE, Integer.MAX_VALUE);
+		tree.put(Integer.MIN_VALUE, Integer.MIN_VALUE);
+		tree.put(0, 0);
+		assertEquals(Integer.MIN_VALUE, tree.firstKey());
+		assertEquals(Integer.MAX_VALUE, tree.lastKey());
+		
+		IntBTreeMap<Integer>.Cursor cursor = tree.cursor();
+		assertTrue(cursor.advance());
+		assertEquals(Integer.MIN_VALUE, cursor.key());
+		assertTrue(cursor.advance());
+		assertTrue(cursor.advance());
+		assertEquals(Integer.MAX_VALUE, cursor.key());
+		assertFalse(cursor.advance());
+		
+		cursor.seek(1, Integer.MAX_VALUE);
+		assertFalse(cursor.advance());
+		cursor.seek(Integer.MIN_VALUE, 1);
+		assertTrue(cursor.advance());
+		assertTrue(cursor.advance());
+		assertEquals(0, cursor.key());
+		assertFalse(cursor.advance());
+	}
+	
+	@Test
+	public void testFromSorted() {
+		for(int size : new int[] { 0, 1, 64, 65, 4160, 4161, 100000 }) {
+			int[] keys = new int[size];
+			Integer[] values = new Integer[size];
+			TreeMap<Integer, Integer> std = new TreeMap<>();
+			for(int i = 0; i < size; i++) {
+				keys[i] = i * 3 - size;
+				values[i] = keys[i];
+				std.put(keys[i], values[i]);
+			}
+			
+			IntBTreeMap<Integer> tree = IntBTreeMap.fromSorted(keys, values);
+			assertMatches(std, tree);
+			assertRange(std, tree, -size / 2, size / 2);
+			
+			// and it must still behave as a normal tree afterwards
+			for(int i = 0; i < size; i += 2) {
+				assertEquals(std.remove(keys[i]), tree.remove(keys[i]));
+				assertEquals(std.put(keys[i] + 1, keys[i] + 1), tree.put(keys[i] + 1, keys[i] + 1));
+			}
+			assertMatches(std, tree);
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testFromSortedRejectsUnsorted() {
+		IntBTreeMap.fromSorted(new int[] { 1, 3, 3 }, new Integer[] { 1, 3, 3 });
+	}
+	
+	@Test(expected = NoSuchElementException.class)
+	public void testFirstKeyOfEmpty() {
+		new IntBTreeMap<Integer>().firstKey();
+	}
+}
@@ -0,0 +1,101 @@
+package me.timothy.seeds.tests.shared.containers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import me.timothy.seeds.shared.containers.IntIntMap;
+
+public class IntIntMapTest {
+	protected IntIntMap map;
+	
+	@Before
+	public void setUp() {
+		map = new IntIntMap(0, -1);
+	}
+	
+	@Test
+	public void testPutGetRemove() {
+		assertEquals(-1, map.get(3));
+		assertFalse(map.containsKey(3));
+		assertEquals(-1, map.put(3, 5));
+		assertEquals(5, map.get(3));
+		assertTrue(map.containsKey(3));
+		assertEquals(5, map.put(3, 7));
+		assertEquals(7, map.get(3));
+		assertEquals(1, map.size());
+		assertEquals(7, map.remove(3));
+		assertEquals(-1, map.remove(3));
+		assertEquals(-1, map.get(3));
+		assertEquals(0, map.size());
+	}
+	
+	@Test
+	public void testZeroKey() {
+		assertFalse(map.containsKey(0));
+		assertEquals(-1, map.put(0, 4));
+		assertEquals(-1, map.put(16, 5));
+		assertTrue(map.containsKey(0));
+		assertEquals(4, map.get(0));
+		assertEquals(2, map.size());
+		assertEquals(4, map.remove(0));
+		assertFalse(map.containsKey(0));
+		assertEquals(5, map.get(16));
+		assertEquals(1, map.size());
+	}
+	
+	@Test
+	public void testAddTo() {
+		map = new IntIntMap(0);
+		assertEquals(3, map.addTo(7, 3));
+		assertEquals(5, map.addTo(7, 2));
+		assertEquals(2, map.addTo(0, 2));
+		assertEquals(-1, map.addTo(0, -3));
+		assertEquals(5, map.get(7));
+		assertEquals(0, map.get(8));
+	}
+	
+	@Test
+	public void testAgainstStandard() {
+		HashMap<Integer, Integer> std = new HashMap<>();
+		Random rand = new Random();
+		
+		for(int j = 0; j < 200; j++) {
+			map.clear();
+			std.clear();
+			for(int i = 0; i < 2000; i++) {
+				int key = (rand.nextInt(500) - 250) * (j % 2 == 0 ? 1 : 64);
+				int expected = std.containsKey(key) ? std.get(key) : -1;
+				if(rand.nextBoolean()) {
+					int val = rand.nextInt(1000);
+					assertEquals(expected, map.put(key, val));
+					std.put(key, val);
+				}else {
+					assertEquals(expected, map.remove(key));
+					std.remove(key);
+				}
+				assertEquals(std.size(), map.size());
+			}
+			
+			for(Entry<Integer, Integer> e : std.entrySet()) {
+				assertEquals(e.getValue().intValue(), map.get(e.getKey()));
+			}
+			for(int i = -250; i < 250; i++) {
+				assertEquals(std.containsKey(i), map.containsKey(i));
+			}
+		}
+	}
+	
+	@After
+	public void cleanUp() {
+		map = null;
+	}
+}
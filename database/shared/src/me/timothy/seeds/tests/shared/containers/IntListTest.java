@@ -0,0 +1,58 @@
+package me.timothy.seeds.tests.shared.containers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import me.timothy.seeds.shared.containers.IntList;
+
+public class IntListTest {
+	protected IntList list;
+	
+	@Before
+	public void setUp() {
+		list = new IntList(0);
+	}
+	
+	@Test
+	public void testAddGetSet() {
+		for(int i = 0; i < 100; i++) {
+			list.add(i * 3);
+		}
+		assertEquals(100, list.size());
+		for(int i = 0; i < 100; i++) {
+			assertEquals(i * 3, list.get(i));
+		}
+		assertEquals(30, list.set(10, -1));
+		assertEquals(-1, list.get(10));
+		assertEquals(10, list.indexOf(-1));
+		assertEquals(-1, list.indexOf(31));
+	}
+	
+	@Test
+	public void testAddAllRemoveAt() {
+		list.addAll(new int[] { 1, 2, 3, 4, 5 });
+		list.addAll(new int[] { 6, 7 });
+		assertEquals(1, list.removeAt(0));
+		assertEquals(4, list.removeAt(2));
+		assertEquals(7, list.removeAt(4));
+		assertArrayEquals(new int[] { 2, 3, 5, 6 }, list.toArray());
+		list.clear();
+		assertEquals(0, list.size());
+		assertArrayEquals(new int[0], list.toArray());
+	}
+	
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testGetPastEnd() {
+		list.add(1);
+		list.get(1);
+	}
+	
+	@After
+	public void cleanUp() {
+		list = null;
+	}
+}
@@ -0,0 +1,134 @@
+package me.timothy.seeds.tests.shared.containers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import me.timothy.seeds.shared.containers.IntObjectMap;
+
+/**
+ * Tests the iteration and bulk operations of IntObjectMap, in both the dense and the hashed
+ * modes.
+ * 
+ * @author Timothy
+ */
+public class IntObjectMapIterationTest {
+	private IntObjectMap<String> map;
+	
+	@Before
+	public void setUp() {
+		map = new IntObjectMap<>(0);
+	}
+	
+	/**
+	 * Fills the map and a standard map with the same entries
+	 * 
+	 * @param std the standard map
+	 * @param stride what each key is a multiple of; large strides force hashing
+	 */
+	private void fill(Map<Integer, String> std, int stride) {
+		Random rand = new Random();
+		for(int i = 0; i < 500; i++) {
+			int key = rand.nextInt(1000) * stride;
+			String val = rand.nextInt(10) == 0 ? null : Integer.toString(i);
+			map.put(key, val);
+			std.put(key, val);
+		}
+	}
+	
+	private void assertMatches(Map<Integer, String> std) {
+		assertEquals(std.size(), map.size());
+		
+		HashMap<Integer, String> seen = new HashMap<>();
+		map.forEachEntry((k, v) -> assertNull(seen.put(k, v == null ? "null" : v)));
+		assertEquals(std.size(), seen.size());
+		for(Map.Entry<Integer, String> e : std.entrySet()) {
+			assertTrue(map.containsKey(e.getKey()));
+			assertEquals(e.getValue() == null ? "null" : e.getValue(), seen.get(e.getKey()));
+		}
+		
+		IntObjectMap<String>.Cursor cursor = map.cursor();
+		for(int pass = 0; pass < 2; pass++) {
+			int count = 0;
+			while(cursor.advance()) {
+				assertTrue(std.containsKey(cursor.key()));
+				assertEquals(std.get(cursor.key()), cursor.value());
+				count++;
+			}
+			assertEquals(std.size(), count);
+			assertFalse(cursor.advance());
+			cursor.reset();
+		}
+	}
+	
+	@Test
+	public void testIterateDense() {
+		HashMap<Integer, String> std = new HashMap<>();
+		fill(std, 1);
+		assertMatches(std);
+		assertFalse(map.containsKey(1000));
+	}
+	
+	@Test
+	public void testIterateHashed() {
+		HashMap<Integer, String> std = new HashMap<>();
+		fill(std, 4096);
+		assertMatches(std);
+		assertFalse(map.containsKey(1));
+	}
+	
+	@Test
+	public void testIterateEmpty() {
+		assertMatches(new HashMap<>());
+	}
+	
+	@Test
+	public void testPutAll() {
+		HashMap<Integer, String> std = new HashMap<>();
+		fill(std, 1);
+		
+		IntObjectMap<String> other = new IntObjectMap<>(0);
+		for(int i = 0; i < 100; i++) {
+			other.put(i * 4096, "o" + i);
+			std.put(i * 4096, "o" + i);
+		}
+		
+		map.putAll(other);
+		assertMatches(std);
+	}
+	
+	@Test
+	public void testEnsureCapacityAndCompact() {
+		map.ensureCapacity(10000);
+		HashMap<Integer, String> std = new HashMap<>();
+		fill(std, 1);
+		map.trimToSize();
+		assertMatches(std);
+		
+		map = new IntObjectMap<>(0);
+		std.clear();
+		fill(std, 4096);
+		map.ensureCapacity(100000);
+		assertMatches(std);
+		for(int i = 0; i < 1000; i += 2) {
+			map.remove(i * 4096);
+			std.remove(i * 4096);
+		}
+		map.compact();
+		assertMatches(std);
+	}
+	
+	@After
+	public void cleanUp() {
+		map = null;
+	}
+}
@@ -0,0 +1,80 @@
+package me.timothy.seeds.tests.shared.containers;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.StreamSupport;
+
+import me.timothy.seeds.shared.containers.IntObjectMap;
+
+/**
+ * Times the serial walk of a large IntObjectMap against the fork-join operations, at each
+ * power of two up to the number of processors
+ * 
+ * @author Timothy
+ */
+public class IntObjectMapParallelPerformanceTest {
+	private static final int SIZE = 1000000;
+	private static final int WARMUPS = 10;
+	
+	public static void main(String[] args) {
+		IntObjectMap<double[]> map = new IntObjectMap<>(0);
+		for(int i = 0; i < SIZE; i++) {
+			map.put(i * 31, new double[] { i, i * 0.5 });
+		}
+		
+		System.out.println("Serial forEachEntry: " + time(() -> {
+			LongAdder sum = new LongAdder();
+			map.forEachEntry((k, v) -> sum.add(work(k, v)));
+		}) + "ms");
+		
+		final int cores = Runtime.getRuntime().availableProcessors();
+		for(int threads = 1; threads <= cores; threads <<= 1) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			System.out.println(threads + " threads");
+			System.out.println("  parallelForEach: " + time(() -> {
+				LongAdder sum = new LongAdder();
+				map.parallelForEach(pool, (k, v) -> sum.add(work(k, v)));
+			}) + "ms");
+			System.out.println("  parallelReduce: " + time(() -> {
+				map.parallelReduce(pool, (k, v) -> work(k, v), Long::sum);
+			}) + "ms");
+			System.out.println("  parallelReplaceAll: " + time(() -> {
+				map.parallelReplaceAll(pool, (k, v) -> { v[1] = work(k, v); return v; });
+			}) + "ms");
+			System.out.println("  keySpliterator stream: " + time(() -> {
+				try {
+					pool.submit(() -> StreamSupport.intStream(map.keySpliterator(), true).mapToLong(k -> work(k, null)).sum()).get();
+				}catch(Exception e) {
+					throw new RuntimeException(e);
+				}
+			}) + "ms");
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Some arithmetic so each entry costs more than the walk itself
+	 */
+	private static long work(int key, double[] value) {
+		double acc = value == null ? key : value[0];
+		for(int i = 0; i < 20; i++) {
+			acc = Math.sqrt(acc + i * key);
+		}
+		return (long) acc;
+	}
+	
+	/**
+	 * Warms up the runnable and then times a single run of it
+	 * 
+	 * @param run what to time
+	 * @return the time taken in milliseconds
+	 */
+	private static long time(Runnable run) {
+		for(int i = 0; i < WARMUPS; i++) {
+			run.run();
+		}
+		long start = System.currentTimeMillis();
+		run.run();
+		return System.currentTimeMillis() - start;
+	}
+}
@@ -0,0 +1,107 @@
+package me.timothy.seeds.tests.shared.containers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.StreamSupport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import me.timothy.seeds.shared.containers.IntObjectMap;
+
+/**
+ * Tests the fork-join bulk operations and spliterators of IntObjectMap, in both the dense and
+ * the hashed modes. Uses its own pool so the work is really split even on one core.
+ * 
+ * @author Timothy
+ */
+public class IntObjectMapParallelTest {
+	private static final int SIZE = 100000;
+	
+	private ForkJoinPool pool;
+	private IntObjectMap<Long> dense;
+	private IntObjectMap<Long> hashed;
+	
+	@Before
+	public void setUp() {
+		pool = new ForkJoinPool(4);
+		dense = new IntObjectMap<>(0);
+		hashed = new IntObjectMap<>(0);
+		for(int i = 0; i < SIZE; i++) {
+			dense.put(i, (long) i);
+			hashed.put(i * 4096, (long) i);
+		}
+	}
+	
+	/** The sum of 0 to SIZE - 1 */
+	private static long expectedSum() {
+		return (long) SIZE * (SIZE - 1) / 2;
+	}
+	
+	@Test
+	public void testParallelForEach() {
+		for(IntObjectMap<Long> map : Arrays.asList(dense, hashed)) {
+			final AtomicLong sum = new AtomicLong();
+			final Set<Integer> seen = ConcurrentHashMap.newKeySet();
+			map.parallelForEach(pool, (k, v) -> {
+				assertEquals(map.get(k), v);
+				assertTrue(seen.add(k));
+				sum.addAndGet(v);
+			});
+			assertEquals(SIZE, seen.size());
+			assertEquals(expectedSum(), sum.get());
+		}
+	}
+	
+	@Test
+	public void testParallelReplaceAll() {
+		dense.put(-1, null);
+		dense.parallelReplaceAll(pool, (k, v) -> v == null ? 7L : v * 2);
+		hashed.parallelReplaceAll(pool, (k, v) -> v % 2 == 0 ? null : v);
+		
+		assertEquals(SIZE + 1, dense.size());
+		assertEquals(Long.valueOf(7), dense.get(-1));
+		for(int i = 0; i < SIZE; i++) {
+			assertEquals(Long.valueOf(i * 2L), dense.get(i));
+			if(i % 2 == 0) {
+				assertTrue(hashed.containsKey(i * 4096));
+				assertNull(hashed.get(i * 4096));
+			}else {
+				assertEquals(Long.valueOf(i), hashed.get(i * 4096));
+			}
+		}
+	}
+	
+	@Test
+	public void testParallelReduce() {
+		assertEquals(Long.valueOf(expectedSum()), dense.parallelReduce(pool, (k, v) -> v, Long::sum));
+		assertEquals(Long.valueOf(SIZE - 1), hashed.parallelReduce(pool, (k, v) -> v, Math::max));
+		assertEquals(Long.valueOf(SIZE / 2), hashed.parallelReduce(pool, (k, v) -> v % 2 == 0 ? 1L : null, Long::sum));
+		assertNull(new IntObjectMap<Long>(0).parallelReduce(pool, (k, v) -> v, Long::sum));
+	}
+	
+	@Test
+	public void testParallelStreams() {
+		assertEquals(expectedSum(), StreamSupport.intStream(dense.keySpliterator(), true).asLongStream().sum());
+		assertEquals(expectedSum() * 4096, StreamSupport.intStream(hashed.keySpliterator(), true).asLongStream().sum());
+		assertEquals(SIZE, StreamSupport.intStream(hashed.keySpliterator(), true).distinct().count());
+		assertEquals(expectedSum(), StreamSupport.stream(hashed.valueSpliterator(), true).mapToLong(Long::longValue).sum());
+		assertEquals(0, StreamSupport.intStream(new IntObjectMap<Long>(0).keySpliterator(), true).count());
+	}
+	
+	@After
+	public void cleanUp() {
+		pool.shutdown();
+		pool = null;
+		dense = null;
+		hashed = null;
+	}
+}
@@ -3,31 +3,51 @@ package me.timothy.seeds.tests.shared.containers;
 import java.text.DecimalFormat;
 import java.util.HashMap;
 import java.util.Random;
+import java.util.function.Supplier;
 
+import me.timothy.seeds.shared.containers.IntKeyMap;
 import me.timothy.seeds.shared.containers.IntObjectMap;
+import me.timothy.seeds.shared.containers.OpenIntObjectMap;
 
 public class IntObjectMapPerformanceTest {
 	public static void main(String[] args) {
-		//runRandomTest();
-		//runRandomInsertionTest();
-		//runIterativeInsertionTest();
-		runIterativeInsertionTest2();
+		final Supplier<IntKeyMap<Integer>> chained = () -> new IntObjectMap<>(0);
+		final Supplier<IntKeyMap<Integer>> open = () -> new OpenIntObjectMap<>(0);
+		
+		// keys which are multiples of 64 collide heavily, which is where removal used to hurt
+		System.out.println("IntObjectMap:");
+		runRandomTest(chained, 64);
+		System.out.println("OpenIntObjectMap:");
+		runRandomTest(open, 64);
+		//runRandomInsertionTest(chained);
+		//runRandomInsertionTest(open);
+		//runIterativeInsertionTest1(chained);
+		//runIterativeInsertionTest1(open);
+		System.out.println("IntObjectMap:");
+		runIterativeInsertionTest2(chained);
+		System.out.println("OpenIntObjectMap:");
+		runIterativeInsertionTest2(open);
 	}
 	
-	@SuppressWarnings("unused")
-	private static void runRandomTest() {
+	/**
+	 * Runs a random mix of puts and removes over 100 distinct keys
+	 * 
+	 * @param factory creates the map to compare against HashMap
+	 * @param keyStride what every key is a multiple of
+	 */
+	private static void runRandomTest(Supplier<IntKeyMap<Integer>> factory, int keyStride) {
 		final int iters = 100000;
 		final int warmups = 10;
 		Random rand = new Random();
 		
-		IntObjectMap<Integer> map1 = new IntObjectMap<>(0);
+		IntKeyMap<Integer> map1 = factory.get();
 		
 		System.out.println("Warming up random test against my map...");
 		for(int i = 0; i < warmups; i++) {
 			int[] randomTest = new int[iters * 2];
 			for(int j = 0; j < iters; j++) {
 				randomTest[j * 2] = rand.nextBoolean() ? 1 : 0;
-				randomTest[j * 2 + 1] = rand.nextInt(100);
+				randomTest[j * 2 + 1] = rand.nextInt(100) * keyStride;
 			}
 
 			long start = System.currentTimeMillis();
@@ -40,14 +60,14 @@ public class IntObjectMapPerformanceTest {
 			}
 			long time = System.currentTimeMillis() - start;
 			System.out.println("  Warmup " + (i+1) + "/" + warmups + " - " + time + "ms (" + (time / (double)iters) + " ms / oper)");
-			map1 = new IntObjectMap<>(0);
+			map1 = factory.get();
 		}
 		
 		System.out.println("Running... ");
 		int[] testRandomTest = new int[iters * 2];
 		for(int j = 0; j < iters; j++) {
 			testRandomTest[(j << 1)] = rand.nextBoolean() ? 1 : 0;
-			testRandomTest[(j << 1) + 1] = rand.nextInt(100);
+			testRandomTest[(j << 1) + 1] = rand.nextInt(100) * keyStride;
 		}
 
 		long start = System.currentTimeMillis();
@@ -72,7 +92,7 @@ public class IntObjectMapPerformanceTest {
 			int[] randomTest = new int[iters * 2];
 			for(int j = 0; j < iters; j++) {
 				randomTest[j * 2] = rand.nextBoolean() ? 1 : 0;
-				randomTest[j * 2 + 1] = rand.nextInt(100);
+				randomTest[j * 2 + 1] = rand.nextInt(100) * keyStride;
 			}
 
 			start = System.currentTimeMillis();
@@ -113,12 +133,12 @@ public class IntObjectMapPerformanceTest {
 	}
 
 	@SuppressWarnings("unused")
-	private static void runRandomInsertionTest() {
+	private static void runRandomInsertionTest(Supplier<IntKeyMap<Integer>> factory) {
 		final int iters = 100000;
 		final int warmups = 10;
 		Random rand = new Random();
 		
-		IntObjectMap<Integer> map1 = new IntObjectMap<>(0);
+		IntKeyMap<Integer> map1 = factory.get();
 		
 		System.out.println("Warming up random insertion test against my map...");
 		for(int i = 0; i < warmups; i++) {
@@ -132,7 +152,7 @@ public class IntObjectMapPerformanceTest {
 			}
 			long time = System.currentTimeMillis() - start;
 			System.out.println("  Warmup " + (i+1) + "/" + warmups + " - " + time + "ms");
-			map1 = new IntObjectMap<>(0);
+			map1 = factory.get();
 		}
 		
 		System.out.println("Running... ");
@@ -188,10 +208,10 @@ public class IntObjectMapPerformanceTest {
 	}
 	
 	@SuppressWarnings("unused")
-	private static void runIterativeInsertionTest1() {
+	private static void runIterativeInsertionTest1(Supplier<IntKeyMap<Integer>> factory) {
 		final long iters = 100000;
 		final int warmups = 10;
-		IntObjectMap<Integer> map1 = new IntObjectMap<>(0);
+		IntKeyMap<Integer> map1 = factory.get();
 		
 		System.out.println("Warming up iterative insertion test against my map...");
 		for(int i = 0; i < warmups; i++) {
@@ -201,7 +221,7 @@ public class IntObjectMapPerformanceTest {
 			}
 			long time = System.currentTimeMillis() - start;
 			System.out.println("  Warmup " + (i+1) + "/" + warmups + " - " + time + "ms");
-			map1 = new IntObjectMap<>(0);
+			map1 = factory.get();
 		}
 		
 		System.out.println("Running...");
@@ -249,13 +269,13 @@ public class IntObjectMapPerformanceTest {
 		}
 	}
 	
-	private static void runIterativeInsertionTest2() {
+	private static void runIterativeInsertionTest2(Supplier<IntKeyMap<Integer>> factory) {
 		final int timeSecondsPerTrial = 2;
 		final int warmups = 7;
 		final int trials = 10;
 		int itersBetweenTimeCheck = 1;
 
-		IntObjectMap<Integer> map = new IntObjectMap<>(0);
+		IntKeyMap<Integer> map = factory.get();
 		//HashMap<Integer, Integer> map = new HashMap<>();
 		
 		DecimalFormat df = new DecimalFormat("#.000000000");
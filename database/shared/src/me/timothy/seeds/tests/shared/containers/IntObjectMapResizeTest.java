@@ -0,0 +1,168 @@
+package me.timothy.seeds.tests.shared.containers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import me.timothy.seeds.shared.containers.IntObjectMap;
+
+/**
+ * Tests that IntObjectMap shrinks as well as grows, in both the dense and the hashed modes,
+ * and that it respects its load factor.
+ * 
+ * @author Timothy
+ */
+public class IntObjectMapResizeTest {
+	private static final int STRIDE = 4096;
+	
+	private static void assertRange(IntObjectMap<Integer> map, int from, int to, int stride) {
+		for(int i = from; i < to; i++) {
+			assertEquals(Integer.valueOf(i), map.get(i * stride));
+		}
+	}
+	
+	@Test
+	public void testHashedShrinksAfterRemoves() {
+		IntObjectMap<Integer> map = new IntObjectMap<>(0);
+		for(int i = 0; i < 10000; i++) {
+			map.put(i * STRIDE, i);
+		}
+		final int peak = map.capacity();
+		assertTrue(peak >= 10000);
+		
+		for(int i = 10; i < 10000; i++) {
+			assertEquals(Integer.valueOf(i), map.remove(i * STRIDE));
+		}
+		assertEquals(10, map.size());
+		assertTrue("capacity " + map.capacity(), map.capacity() <= 64);
+		assertRange(map, 0, 10, STRIDE);
+		assertNull(map.get(10 * STRIDE));
+	}
+	
+	@Test
+	public void testDenseShrinksAfterRemoves() {
+		IntObjectMap<Integer> map = new IntObjectMap<>(0);
+		for(int i = 0; i < 100000; i++) {
+			map.put(i, i);
+		}
+		assertTrue(map.capacity() >= 100000);
+		
+		for(int i = 99999; i >= 100; i--) {
+			map.remove(i);
+		}
+		assertTrue("capacity " + map.capacity(), map.capacity() <= 1024);
+		assertRange(map, 0, 100, 1);
+		
+		// still dense, so following keys still fit
+		for(int i = 100; i < 200; i++) {
+			map.put(i, i);
+		}
+		assertRange(map, 0, 200, 1);
+	}
+	
+	@Test
+	public void testDenseShrinkKeepsSpread() {
+		// the two ends are kept, so the array cannot shrink and the map has to start hashing
+		IntObjectMap<Integer> map = new IntObjectMap<>(0);
+		for(int i = 0; i < 4096; i++) {
+			map.put(i, i);
+		}
+		for(int i = 1; i < 4095; i++) {
+			map.remove(i);
+		}
+		assertEquals(2, map.size());
+		assertEquals(Integer.valueOf(0), map.get(0));
+		assertEquals(Integer.valueOf(4095), map.get(4095));
+		assertTrue("capacity " + map.capacity(), map.capacity() <= 64);
+	}
+	
+	@Test
+	public void testNoThrashAroundThreshold() {
+		IntObjectMap<Integer> map = new IntObjectMap<>(0);
+		int size = 0;
+		while(true) {
+			final int capac = map.capacity();
+			map.put(size * STRIDE, size);
+			size++;
+			if(map.capacity() != capac)
+				break;
+		}
+		
+		// hover right around the size that made it grow
+		int resizes = 0;
+		int capac = map.capacity();
+		for(int round = 0; round < 1000; round++) {
+			map.remove((size - 1) * STRIDE);
+			map.remove((size - 2) * STRIDE);
+			map.put((size - 2) * STRIDE, size - 2);
+			map.put((size - 1) * STRIDE, size - 1);
+			if(map.capacity() != capac) {
+				resizes++;
+				capac = map.capacity();
+			}
+		}
+		assertEquals(0, resizes);
+		assertRange(map, 0, size, STRIDE);
+	}
+	
+	@Test
+	public void testClearReleasesMemory() {
+		IntObjectMap<Integer> map = new IntObjectMap<>(32);
+		for(int i = 0; i < 10000; i++) {
+			map.put(i * STRIDE, i);
+		}
+		map.clear();
+		assertEquals(0, map.size());
+		assertEquals(32, map.capacity());
+		assertNull(map.get(0));
+		
+		for(int i = 0; i < 1000; i++) {
+			map.put(i * STRIDE, i);
+		}
+		assertRange(map, 0, 1000, STRIDE);
+	}
+	
+	@Test
+	public void testCompactBelowStartingSize() {
+		IntObjectMap<Integer> map = new IntObjectMap<>(4096);
+		for(int i = 0; i < 20; i++) {
+			map.put(i * STRIDE, i);
+		}
+		assertEquals(4096, map.capacity());
+		
+		map.compact();
+		assertTrue("capacity " + map.capacity(), map.capacity() <= 64);
+		assertRange(map, 0, 20, STRIDE);
+	}
+	
+	@Test
+	public void testLoadFactor() {
+		IntObjectMap<Integer> map = new IntObjectMap<>(0, 0.5f);
+		for(int i = 0; i < 10000; i++) {
+			map.put(i * STRIDE, i);
+			assertTrue(map.size() * 2 <= map.capacity());
+		}
+		assertRange(map, 0, 10000, STRIDE);
+		
+		map = new IntObjectMap<>(0, 0.95f);
+		for(int i = 0; i < 10000; i++) {
+			map.put(i * STRIDE, i);
+			assertTrue(map.size() < map.capacity());
+		}
+		assertEquals(16384, map.capacity());
+		assertRange(map, 0, 10000, STRIDE);
+		for(int i = 0; i < 10000; i += 2) {
+			map.remove(i * STRIDE);
+		}
+		for(int i = 1; i < 10000; i += 2) {
+			assertEquals(Integer.valueOf(i), map.get(i * STRIDE));
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadLoadFactor() {
+		new IntObjectMap<Integer>(0, 1f);
+	}
+}
@@ -1,6 +1,7 @@
 package me.timothy.seeds.tests.shared.containers;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 
 import java.io.PrintWriter;
@@ -18,6 +19,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import me.timothy.seeds.shared.containers.IntKeyMap;
 import me.timothy.seeds.shared.containers.IntObjectMap;
 
 public class IntObjectMapTest {
@@ -42,13 +44,23 @@ public class IntObjectMapTest {
 		}
 	}
 	
-	protected IntObjectMap<TestClass> map;
-	protected IntObjectMap<Integer> map2;
+	protected IntKeyMap<TestClass> map;
+	protected IntKeyMap<Integer> map2;
+	
+	/**
+	 * Creates the implementation under test. Subclasses override this to run the same
+	 * tests against a different implementation.
+	 * 
+	 * @return a new, empty map
+	 */
+	protected <T> IntKeyMap<T> createMap() {
+		return new IntObjectMap<>(0);
+	}
 	
 	@Before
 	public void setUp() {
-		map = new IntObjectMap<>(0);
-		map2 = new IntObjectMap<>(0);
+		map = createMap();
+		map2 = createMap();
 	}
 	
 	@Test
@@ -111,6 +123,76 @@ public class IntObjectMapTest {
 		assertNull(map.get(7));
 	}
 	
+	@Test
+	public void testZeroAndNegativeKeys() {
+		assertNull(map.get(0));
+		assertNull(map.remove(0));
+		assertNull(map.put(0, new TestClass(0)));
+		assertNull(map.put(-16, new TestClass(-16)));
+		assertNull(map.put(Integer.MIN_VALUE, new TestClass(1)));
+		assertEquals(0, map.get(0).id);
+		assertEquals(-16, map.get(-16).id);
+		assertEquals(1, map.get(Integer.MIN_VALUE).id);
+		assertEquals(0, map.put(0, new TestClass(2)).id);
+		assertEquals(2, map.remove(0).id);
+		assertNull(map.get(0));
+		assertEquals(-16, map.get(-16).id);
+		map.clear();
+		assertNull(map.get(-16));
+		assertNull(map.get(Integer.MIN_VALUE));
+	}
+	
+	@Test
+	public void testDenseKeysThenSparse() {
+		for(int i = 0; i < 1000; i++) {
+			assertNull(map.put(i, new TestClass(i)));
+		}
+		for(int i = 999; i >= 0; i -= 3) {
+			assertEquals(i, map.remove(i).id);
+		}
+		
+		// far enough away that the keys are no longer dense
+		assertNull(map.put(1 << 24, new TestClass(-1)));
+		assertNull(map.put(-(1 << 24), new TestClass(-2)));
+		
+		for(int i = 0; i < 1000; i++) {
+			if(i % 3 == 0) {
+				assertNull(map.get(i));
+			}else {
+				assertEquals(i, map.get(i).id);
+			}
+		}
+		assertEquals(-1, map.get(1 << 24).id);
+		assertEquals(-2, map.get(-(1 << 24)).id);
+		assertNull(map.get(1000));
+	}
+	
+	@Test
+	public void testDenseKeysGrowingDown() {
+		for(int i = 5000; i >= 4000; i--) {
+			assertNull(map.put(i, new TestClass(i)));
+		}
+		for(int i = 5001; i < 5100; i++) {
+			assertNull(map.put(i, new TestClass(i)));
+		}
+		for(int i = 3990; i < 5110; i++) {
+			if(i < 4000 || i >= 5100) {
+				assertNull(map.get(i));
+			}else {
+				assertEquals(i, map.get(i).id);
+			}
+		}
+	}
+	
+	@Test
+	public void testNullValues() {
+		assertNull(map.put(4, null));
+		assertNull(map.put(4, new TestClass(4)));
+		assertEquals(4, map.put(4, null).id);
+		assertNull(map.remove(4));
+		assertNull(map.get(4));
+	}
+	
 	@Test
 	public void testRegression1() {
 		assertNull(map2.put(81, 130));
@@ -403,16 +485,31 @@ public class IntObjectMapTest {
 	
 	@Test
 	public void testAgainstStandard() {
+		runAgainstStandard(1);
+	}
+	
+	@Test
+	public void testAgainstStandardWithCollisions() {
+		// every key is a multiple of 64, so until the map grows past 64 buckets they all collide
+		runAgainstStandard(64);
+	}
+	
+	/**
+	 * Performs random puts and removes against both the map and a HashMap, comparing as it goes
+	 * 
+	 * @param stride what every key is a multiple of
+	 */
+	private void runAgainstStandard(int stride) {
 		HashMap<Integer, TestClass> std = new HashMap<>();
 		Random rand = new Random();
 		
 		for(int j = 0; j < 1000; j++) {
 			List<String> history = new ArrayList<>();
-			map = new IntObjectMap<>(0);
+			map = createMap();
 			std.clear();
 			try {
 				for(int i = 0; i < 200; i++) {
-					int rnd = rand.nextInt(100);
+					int rnd = rand.nextInt(100) * stride;
 					
 					TestClass expected = null;
 					if(!std.containsKey(rnd)) {
@@ -458,7 +555,7 @@ public class IntObjectMapTest {
 				
 				Set<Integer> missing = new HashSet<>();
 				for(int i = 0; i < 100; i++) {
-					missing.add(i);
+					missing.add(i * stride);
 				}
 				for(Entry<Integer, TestClass> e : std.entrySet()) {
 					TestClass mapVal = map.get(e.getKey());
@@ -474,7 +571,9 @@ public class IntObjectMapTest {
 						history.add("assertNull(map2.get(" + i + "));");
 						assertNull(history.stream().collect(Collectors.joining("\n")), map.get(i));
 					}
+					assertFalse(map.containsKey(i));
 				}
+				assertEquals(std.size(), map.size());
 			}catch(Exception e) {
 				history.add(e.getMessage());
 				StringWriter errors = new StringWriter();
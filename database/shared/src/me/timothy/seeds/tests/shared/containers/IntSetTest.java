@@ -0,0 +1,70 @@
+package me.timothy.seeds.tests.shared.containers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import me.timothy.seeds.shared.containers.IntSet;
+
+public class IntSetTest {
+	protected IntSet set;
+	
+	@Before
+	public void setUp() {
+		set = new IntSet(0);
+	}
+	
+	@Test
+	public void testAddContainsRemove() {
+		assertFalse(set.contains(3));
+		assertTrue(set.add(3));
+		assertFalse(set.add(3));
+		assertTrue(set.contains(3));
+		assertTrue(set.add(0));
+		assertTrue(set.contains(0));
+		assertEquals(2, set.size());
+		assertTrue(set.remove(3));
+		assertFalse(set.remove(3));
+		assertFalse(set.contains(3));
+		assertTrue(set.remove(0));
+		assertFalse(set.contains(0));
+		assertEquals(0, set.size());
+	}
+	
+	@Test
+	public void testAgainstStandard() {
+		HashSet<Integer> std = new HashSet<>();
+		Random rand = new Random();
+		
+		for(int j = 0; j < 200; j++) {
+			set.clear();
+			std.clear();
+			for(int i = 0; i < 2000; i++) {
+				int key = (rand.nextInt(500) - 250) * (j % 2 == 0 ? 1 : 64);
+				if(rand.nextBoolean()) {
+					assertEquals(std.add(key), set.add(key));
+				}else {
+					assertEquals(std.remove(key), set.remove(key));
+				}
+				assertEquals(std.size(), set.size());
+			}
+			
+			for(int i = -250; i < 250; i++) {
+				assertEquals(std.contains(i), set.contains(i));
+				assertEquals(std.contains(i * 64), set.contains(i * 64));
+			}
+		}
+	}
+	
+	@After
+	public void cleanUp() {
+		set = null;
+	}
+}
@@ -0,0 +1,57 @@
+package me.timothy.seeds.tests.shared.containers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import me.timothy.seeds.shared.containers.IntKeyMap;
+import me.timothy.seeds.shared.containers.OpenIntObjectMap;
+
+/**
+ * Runs every IntObjectMapTest against the open-addressing implementation, plus a few
+ * tests that target the probing and backwards shifting directly.
+ * 
+ * @author Timothy
+ */
+public class OpenIntObjectMapTest extends IntObjectMapTest {
+	@Override
+	protected <T> IntKeyMap<T> createMap() {
+		return new OpenIntObjectMap<>(0);
+	}
+	
+	@Test
+	public void testRemoveMiddleOfProbeRun() {
+		// multiples of a large power of 2 are the worst case for a masking hash
+		for(int i = 1; i <= 12; i++) {
+			assertNull(map.put(i << 20, new TestClass(i)));
+		}
+		
+		for(int i = 1; i <= 12; i += 3) {
+			assertEquals(i, map.remove(i << 20).id);
+		}
+		
+		for(int i = 1; i <= 12; i++) {
+			if(i % 3 == 1) {
+				assertNull(map.get(i << 20));
+			}else {
+				assertEquals(i, map.get(i << 20).id);
+			}
+		}
+	}
+	
+	@Test
+	public void testRemoveAllThenReuse() {
+		for(int round = 0; round < 3; round++) {
+			for(int i = 1; i < 1000; i++) {
+				assertNull(map.put(i * 7, new TestClass(i)));
+			}
+			for(int i = 1; i < 1000; i++) {
+				assertEquals(i, map.remove(i * 7).id);
+			}
+			for(int i = 1; i < 1000; i++) {
+				assertNull(map.get(i * 7));
+			}
+		}
+	}
+}
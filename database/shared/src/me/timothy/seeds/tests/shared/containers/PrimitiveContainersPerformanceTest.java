@@ -0,0 +1,132 @@
+package me.timothy.seeds.tests.shared.containers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import me.timothy.seeds.shared.containers.IntIntMap;
+import me.timothy.seeds.shared.containers.IntList;
+import me.timothy.seeds.shared.containers.IntLongMap;
+import me.timothy.seeds.shared.containers.IntSet;
+
+/**
+ * Compares each of the primitive containers against the boxing java.util equivalent
+ * 
+ * @author Timothy
+ */
+public class PrimitiveContainersPerformanceTest {
+	private static final int ITERS = 1000000;
+	private static final int WARMUPS = 10;
+	
+	public static void main(String[] args) {
+		Random rand = new Random();
+		final int[] keys = new int[ITERS];
+		for(int i = 0; i < ITERS; i++) {
+			keys[i] = rand.nextInt(ITERS / 4);
+		}
+		
+		System.out.println("Counting occurrences (IntIntMap vs HashMap<Integer, Integer>)");
+		compare(() -> {
+			IntIntMap map = new IntIntMap(0);
+			for(int j = 0; j < ITERS; j++) {
+				map.addTo(keys[j], 1);
+			}
+		}, () -> {
+			HashMap<Integer, Integer> map = new HashMap<>();
+			for(int j = 0; j < ITERS; j++) {
+				map.merge(keys[j], 1, Integer::sum);
+			}
+		});
+		
+		System.out.println("Offsets by id (IntLongMap vs HashMap<Integer, Long>)");
+		compare(() -> {
+			IntLongMap map = new IntLongMap(0);
+			long sum = 0;
+			for(int j = 0; j < ITERS; j++) {
+				map.put(keys[j], j * 4096L);
+				sum += map.get(keys[(j * 7) % ITERS]);
+			}
+			if(sum == 42) System.out.println();
+		}, () -> {
+			HashMap<Integer, Long> map = new HashMap<>();
+			long sum = 0;
+			for(int j = 0; j < ITERS; j++) {
+				map.put(keys[j], j * 4096L);
+				Long val = map.get(keys[(j * 7) % ITERS]);
+				if(val != null)
+					sum += val;
+			}
+			if(sum == 42) System.out.println();
+		});
+		
+		System.out.println("Membership (IntSet vs HashSet<Integer>)");
+		compare(() -> {
+			IntSet set = new IntSet(0);
+			for(int j = 0; j < ITERS; j++) {
+				if(!set.add(keys[j]))
+					set.remove(keys[j]);
+			}
+		}, () -> {
+			HashSet<Integer> set = new HashSet<>();
+			for(int j = 0; j < ITERS; j++) {
+				if(!set.add(keys[j]))
+					set.remove(keys[j]);
+			}
+		});
+		
+		System.out.println("Appending (IntList vs ArrayList<Integer>)");
+		compare(() -> {
+			IntList list = new IntList(0);
+			for(int j = 0; j < ITERS; j++) {
+				list.add(keys[j]);
+			}
+			long sum = 0;
+			for(int j = 0; j < list.size(); j++) {
+				sum += list.get(j);
+			}
+			if(sum == 42) System.out.println();
+		}, () -> {
+			ArrayList<Integer> list = new ArrayList<>();
+			for(int j = 0; j < ITERS; j++) {
+				list.add(keys[j]);
+			}
+			long sum = 0;
+			for(int j = 0; j < list.size(); j++) {
+				sum += list.get(j);
+			}
+			if(sum == 42) System.out.println();
+		});
+	}
+	
+	/**
+	 * Warms up and times both runnables, printing which was faster
+	 * 
+	 * @param mine the run using our container
+	 * @param generic the run using the java.util container
+	 */
+	private static void compare(Runnable mine, Runnable generic) {
+		for(int i = 0; i < WARMUPS; i++) {
+			mine.run();
+			generic.run();
+		}
+		
+		long start = System.currentTimeMillis();
+		mine.run();
+		long timeForMine = System.currentTimeMillis() - start;
+		System.out.println("  Mine: " + timeForMine + "ms");
+		
+		start = System.currentTimeMillis();
+		generic.run();
+		long timeForGen = System.currentTimeMillis() - start;
+		System.out.println("  Generic: " + timeForGen + "ms");
+		
+		if(timeForMine < timeForGen) {
+			double perc = ((timeForGen - timeForMine) / (double)Math.max(timeForMine, 1)) * 100;
+			System.out.println("Mines Better! Improvement: " + perc + "%");
+		}else {
+			double perc = ((timeForMine - timeForGen) / (double)Math.max(timeForGen, 1)) * 100;
+			System.out.println("Generics Better! Improvement: " + perc + "%");
+		}
+	}
+}
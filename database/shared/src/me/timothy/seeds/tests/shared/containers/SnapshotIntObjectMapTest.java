@@ -0,0 +1,114 @@
+package me.timothy.seeds.tests.shared.containers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import me.timothy.seeds.shared.containers.IntKeyMap;
+import me.timothy.seeds.shared.containers.IntObjectMap;
+import me.timothy.seeds.shared.containers.SnapshotIntObjectMap;
+
+/**
+ * Runs every IntObjectMapTest against the copy-on-write implementation, plus tests for
+ * snapshots and publishing.
+ * 
+ * @author Timothy
+ */
+public class SnapshotIntObjectMapTest extends IntObjectMapTest {
+	@Override
+	protected <T> IntKeyMap<T> createMap() {
+		return new SnapshotIntObjectMap<>();
+	}
+	
+	@Test
+	public void testSnapshotDoesNotChange() {
+		SnapshotIntObjectMap<TestClass> snapMap = new SnapshotIntObjectMap<>();
+		for(int i = 0; i < 100; i++) {
+			snapMap.put(i, new TestClass(i));
+		}
+		
+		SnapshotIntObjectMap.Snapshot<TestClass> snap = snapMap.snapshot();
+		for(int i = 0; i < 100; i += 2) {
+			snapMap.remove(i);
+		}
+		snapMap.put(1, new TestClass(-1));
+		snapMap.put(1000, new TestClass(1000));
+		
+		assertEquals(100, snap.size());
+		for(int i = 0; i < 100; i++) {
+			assertEquals(i, snap.get(i).id);
+		}
+		assertNull(snap.get(1000));
+		
+		assertEquals(51, snapMap.size());
+		assertNull(snapMap.get(0));
+		assertEquals(-1, snapMap.get(1).id);
+		assertEquals(1000, snapMap.get(1000).id);
+	}
+	
+	@Test
+	public void testPublish() {
+		SnapshotIntObjectMap<TestClass> snapMap = new SnapshotIntObjectMap<>();
+		snapMap.put(5, new TestClass(5));
+		
+		IntObjectMap<TestClass> contents = new IntObjectMap<>(16);
+		for(int i = 0; i < 50; i++) {
+			contents.put(i * 3, new TestClass(i * 3));
+		}
+		snapMap.publish(contents);
+		
+		assertEquals(50, snapMap.size());
+		assertNull(snapMap.get(5));
+		for(int i = 0; i < 50; i++) {
+			assertEquals(i * 3, snapMap.get(i * 3).id);
+		}
+		assertTrue(snapMap.containsKey(0));
+	}
+	
+	@Test
+	public void testReadersDuringPublish() throws InterruptedException {
+		// each version maps every key to the version number, so a reader can tell if it ever sees a mix
+		final int keys = 500;
+		final SnapshotIntObjectMap<TestClass> snapMap = new SnapshotIntObjectMap<>();
+		final IntObjectMap<TestClass> contents = new IntObjectMap<>(keys);
+		for(int i = 0; i < keys; i++) {
+			contents.put(i, new TestClass(0));
+		}
+		snapMap.publish(contents);
+		
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread reader = new Thread(() -> {
+			try {
+				while(!done.get()) {
+					SnapshotIntObjectMap.Snapshot<TestClass> snap = snapMap.snapshot();
+					int version = snap.get(0).id;
+					for(int i = 1; i < keys; i++) {
+						assertEquals(version, snap.get(i).id);
+					}
+				}
+			}catch(Throwable e) {
+				failure.compareAndSet(null, e);
+			}
+		});
+		reader.start();
+		
+		for(int version = 1; version <= 200; version++) {
+			for(int i = 0; i < keys; i++) {
+				contents.put(i, new TestClass(version));
+			}
+			snapMap.publish(contents);
+		}
+		done.set(true);
+		reader.join();
+		
+		if(failure.get() != null)
+			throw new AssertionError(failure.get());
+		assertEquals(200, snapMap.get(keys - 1).id);
+	}
+}
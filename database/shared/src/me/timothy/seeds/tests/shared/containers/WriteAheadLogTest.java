@@ -0,0 +1,162 @@
+package me.timothy.seeds.tests.shared.containers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import me.timothy.seeds.shared.db.LogReplayer;
+import me.timothy.seeds.shared.db.WriteAheadLog;
+import me.timothy.seeds.tests.shared.containers.InlineObjectWithIDMappingTests.TestClass;
+import me.timothy.seeds.tests.shared.containers.InlineObjectWithIDMappingTests.TestClassSerializer;
+
+public class WriteAheadLogTest {
+	/**
+	 * Remembers everything replayed as a string, in order
+	 */
+	private static class RecordingReplayer implements LogReplayer<TestClass> {
+		public List<String> ops = new ArrayList<>();
+		
+		@Override
+		public void put(TestClass a) {
+			ops.add("put " + a.id + " " + a.val);
+		}
+
+		@Override
+		public void remove(int id) {
+			ops.add("remove " + id);
+		}
+	}
+	
+	private File file;
+	private WriteAheadLog<TestClass> log;
+	
+	@Before
+	public void setUp() {
+		file = new File("test_write_ahead_log.wal");
+		if(file.exists())
+			file.delete();
+	}
+	
+	private RecordingReplayer reopen(long commitIntervalMs, int commitBytes) {
+		if(log != null)
+			log.close();
+		log = new WriteAheadLog<>(file.getAbsolutePath(), new TestClassSerializer(4), commitIntervalMs, commitBytes);
+		RecordingReplayer replayer = new RecordingReplayer();
+		assertEquals(log.open(replayer), replayer.ops.size());
+		return replayer;
+	}
+	
+	@Test
+	public void testReplaysInOrder() {
+		assertEquals(0, reopen(1000, 1 << 20).ops.size());
+		log.logPut(new TestClass(1, 10));
+		log.logPut(new TestClass(2, 20));
+		log.logRemove(1);
+		log.logPut(new TestClass(1, 11));
+		
+		List<String> ops = reopen(1000, 1 << 20).ops;
+		assertEquals(4, ops.size());
+		assertEquals("put 1 10", ops.get(0));
+		assertEquals("put 2 20", ops.get(1));
+		assertEquals("remove 1", ops.get(2));
+		assertEquals("put 1 11", ops.get(3));
+		
+		// and still there after another open, with more appended
+		log.logRemove(2);
+		ops = reopen(1000, 1 << 20).ops;
+		assertEquals(5, ops.size());
+		assertEquals("remove 2", ops.get(4));
+	}
+	
+	@Test
+	public void testCheckpointEmpties() {
+		reopen(1000, 1 << 20);
+		for(int i = 0; i < 100; i++) {
+			log.logPut(new TestClass(i, i));
+		}
+		log.commit();
+		log.checkpoint();
+		log.logPut(new TestClass(5, 6));
+		
+		List<String> ops = reopen(1000, 1 << 20).ops;
+		assertEquals(1, ops.size());
+		assertEquals("put 5 6", ops.get(0));
+	}
+	
+	@Test
+	public void testCutsTornTail() throws Exception {
+		reopen(1000, 1 << 20);
+		for(int i = 0; i < 10; i++) {
+			log.logPut(new TestClass(i, i));
+		}
+		log.close();
+		log = null;
+		
+		// half of another record, as if the crash happened mid-write
+		final long goodLength = file.length();
+		try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(goodLength);
+			raf.write(new byte[] { 1, 0, 0, 0, 10, 0, 0, 0, 4, 0, 0 });
+		}
+		assertEquals(10, reopen(1000, 1 << 20).ops.size());
+		assertEquals(goodLength, file.length());
+		
+		// a flipped bit in the last record drops just that record
+		log.close();
+		log = null;
+		try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(goodLength - 6);
+			raf.write(raf.readByte() ^ 1);
+		}
+		List<String> ops = reopen(1000, 1 << 20).ops;
+		assertEquals(9, ops.size());
+		
+		log.logPut(new TestClass(100, 100));
+		ops = reopen(1000, 1 << 20).ops;
+		assertEquals(10, ops.size());
+		assertEquals("put 100 100", ops.get(9));
+	}
+	
+	@Test
+	public void testCommitsByBudget() {
+		reopen(60 * 60 * 1000, 100);
+		log.logPut(new TestClass(1, 1));
+		assertFalse(log.commitDue());
+		long before = file.length();
+		for(int i = 0; i < 10; i++) {
+			log.logPut(new TestClass(i, i));
+		}
+		assertTrue(log.commitDue());
+		assertEquals(before, file.length());
+		log.maybeCommit();
+		assertFalse(log.commitDue());
+		assertTrue(file.length() > before);
+	}
+	
+	@Test
+	public void testCommitsByInterval() throws InterruptedException {
+		reopen(10, 1 << 20);
+		log.logPut(new TestClass(1, 1));
+		Thread.sleep(20);
+		assertTrue(log.commitDue());
+		log.maybeCommit();
+		assertFalse(log.commitDue());
+	}
+	
+	@After
+	public void cleanUp() {
+		if(log != null)
+			log.close();
+		log = null;
+		file.delete();
+	}
+}